@@ -0,0 +1,86 @@
+package com.tebreca.kwant.bench;
+
+import com.tebreca.kwant.Engine;
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.shader.Shader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+import static org.lwjgl.vulkan.VK13.VK_SHADER_STAGE_FRAGMENT_BIT;
+import static org.lwjgl.vulkan.VK13.VK_SHADER_STAGE_VERTEX_BIT;
+
+/**
+ * A whole headless engine rendering frames on a thread of its own, for benchmarks that need the frame loop.
+ * There can be one engine per JVM, so benchmarks using it have to fork.
+ */
+public final class HeadlessEngine implements AutoCloseable {
+
+    private static final Duration STARTUP = Duration.ofSeconds(30);
+
+    public final Engine engine;
+    public final VulkanManager manager;
+    public final FrameLoop frameLoop;
+    private final Thread thread;
+    private final Semaphore paused = new Semaphore(0);
+    private final Semaphore resumed = new Semaphore(0);
+    private volatile boolean pauseRequested = false;
+
+    public HeadlessEngine(int width, int height) {
+        engine = new Engine().headless(width, height).withFrameLimit(0);
+        thread = new Thread(engine::start, "kwant-bench-engine");
+        thread.start();
+        manager = engine.vulkan().block(STARTUP);
+        frameLoop = manager.frameLoop().block(STARTUP);
+        frameLoop.onBegin((frame, commandBuffer, imageIndex) -> {
+            if (pauseRequested) {
+                paused.release();
+                resumed.acquireUninterruptibly();
+            }
+        });
+    }
+
+    /**
+     * Holds the render thread at the start of its next frame, returning once it waits there. Until {@link #resume()}
+     * the calling thread may use what belongs to the render thread between two frames, the semaphores hand it over.
+     */
+    public void pause() throws InterruptedException {
+        pauseRequested = true;
+        paused.acquire();
+        pauseRequested = false;
+    }
+
+    /**
+     * Lets the render thread continue the frame it was held in by {@link #pause()}
+     */
+    public void resume() {
+        resumed.release();
+    }
+
+    /**
+     * @return a vertex shader writing no outputs, see {@link Spirv}
+     */
+    public Shader emptyVertex() throws IOException {
+        return shader(Spirv.emptyVertex(), VK_SHADER_STAGE_VERTEX_BIT);
+    }
+
+    /**
+     * @return a fragment shader writing no outputs, see {@link Spirv}
+     */
+    public Shader emptyFragment() throws IOException {
+        return shader(Spirv.emptyFragment(), VK_SHADER_STAGE_FRAGMENT_BIT);
+    }
+
+    private Shader shader(Path file, int stage) {
+        return manager.shader(file.toString()).stage(stage).build().block(STARTUP);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        engine.stop();
+        thread.join();
+    }
+}
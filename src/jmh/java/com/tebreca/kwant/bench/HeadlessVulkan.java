@@ -0,0 +1,88 @@
+package com.tebreca.kwant.bench;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Instance, device and allocator without a window or surface, for benchmarks that need a device.
+ * Picks the first device the loader reports, run with -Plavapipe to make that Mesa lavapipe.
+ */
+public final class HeadlessVulkan implements AutoCloseable {
+
+    public final VkInstance instance;
+    public final VkPhysicalDevice physicalDevice;
+    public final VkDevice device;
+    public final VkQueue queue;
+    public final int queueFamily;
+    public final MemoryAllocator allocator;
+
+    public HeadlessVulkan() {
+        try (var stack = MemoryStack.stackPush()) {
+            VkApplicationInfo appInfo = VkApplicationInfo.calloc(stack).sType$Default()
+                    .pApplicationName(stack.UTF8("kwant-bench"))
+                    .pEngineName(stack.UTF8("kwant"))
+                    .apiVersion(VK_API_VERSION_1_3);
+            VkInstanceCreateInfo instanceInfo = VkInstanceCreateInfo.calloc(stack).sType$Default()
+                    .pApplicationInfo(appInfo);
+            PointerBuffer handle = stack.callocPointer(1);
+            VulkanUtils.assertResult(vkCreateInstance(instanceInfo, null, handle), "Failed to create Vulkan instance!");
+            instance = new VkInstance(handle.get(0), instanceInfo);
+
+            IntBuffer count = stack.callocInt(1);
+            vkEnumeratePhysicalDevices(instance, count, null);
+            if (count.get(0) == 0) {
+                throw new IllegalStateException("No Vulkan device available, run with -Plavapipe=<lvp_icd json>");
+            }
+            PointerBuffer devices = stack.callocPointer(count.get(0));
+            vkEnumeratePhysicalDevices(instance, count, devices);
+            physicalDevice = new VkPhysicalDevice(devices.get(0), instance);
+
+            vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, count, null);
+            VkQueueFamilyProperties.Buffer families = VkQueueFamilyProperties.calloc(count.get(0), stack);
+            vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, count, families);
+            int family = 0;
+            while (family < families.capacity() && (families.get(family).queueFlags() & VK_QUEUE_GRAPHICS_BIT) == 0) {
+                family++;
+            }
+            if (family == families.capacity()) {
+                throw new IllegalStateException("The first Vulkan device has no graphics queue family");
+            }
+            queueFamily = family;
+
+            VkDeviceQueueCreateInfo.Buffer queueInfo = VkDeviceQueueCreateInfo.calloc(1, stack);
+            queueInfo.get(0).sType$Default()
+                    .queueFamilyIndex(queueFamily)
+                    .pQueuePriorities(stack.floats(1.0f));
+            VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack).sType$Default()
+                    .timelineSemaphore(true);
+            VkPhysicalDeviceVulkan13Features vulkan13Features = VkPhysicalDeviceVulkan13Features.calloc(stack).sType$Default()
+                    .pNext(vulkan12Features.address())
+                    .synchronization2(true)
+                    .dynamicRendering(true);
+            VkDeviceCreateInfo deviceInfo = VkDeviceCreateInfo.calloc(stack).sType$Default()
+                    .pNext(vulkan13Features)
+                    .pQueueCreateInfos(queueInfo);
+            VulkanUtils.assertResult(vkCreateDevice(physicalDevice, deviceInfo, null, handle), "Failed to create Logical Device!");
+            device = new VkDevice(handle.get(0), physicalDevice, deviceInfo);
+
+            vkGetDeviceQueue(device, queueFamily, 0, handle);
+            queue = new VkQueue(handle.get(0), device);
+        }
+        allocator = new MemoryAllocator(instance, device);
+    }
+
+    @Override
+    public void close() {
+        vkDeviceWaitIdle(device);
+        allocator.destroy();
+        vkDestroyDevice(device, null);
+        vkDestroyInstance(instance, null);
+    }
+}
@@ -0,0 +1,96 @@
+package com.tebreca.kwant.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Hand assembled SPIR-V, so shader benchmarks do not depend on a shader compiler being installed
+ */
+public final class Spirv {
+
+    /**
+     * An empty compute shader with entry point "main"
+     */
+    private static final int[] EMPTY_COMPUTE = {
+            0x07230203, 0x00010000, 0, 5, 0,
+            0x00020011, 1,                                  // OpCapability Shader
+            0x0003000E, 0, 1,                               // OpMemoryModel Logical GLSL450
+            0x0005000F, 5, 1, 0x6E69616D, 0,                // OpEntryPoint GLCompute %1 "main"
+            0x00060010, 1, 17, 1, 1, 1,                     // OpExecutionMode %1 LocalSize 1 1 1
+            0x00020013, 2,                                  // %2 = OpTypeVoid
+            0x00030021, 3, 2,                               // %3 = OpTypeFunction %2
+            0x00050036, 2, 1, 0, 3,                         // %1 = OpFunction %2 None %3
+            0x000200F8, 4,                                  // %4 = OpLabel
+            0x000100FD,                                     // OpReturn
+            0x00010038                                      // OpFunctionEnd
+    };
+
+    /**
+     * A vertex shader with entry point "main" that writes no outputs, nothing it draws is rasterized
+     */
+    private static final int[] EMPTY_VERTEX = {
+            0x07230203, 0x00010000, 0, 5, 0,
+            0x00020011, 1,                                  // OpCapability Shader
+            0x0003000E, 0, 1,                               // OpMemoryModel Logical GLSL450
+            0x0005000F, 0, 1, 0x6E69616D, 0,                // OpEntryPoint Vertex %1 "main"
+            0x00020013, 2,                                  // %2 = OpTypeVoid
+            0x00030021, 3, 2,                               // %3 = OpTypeFunction %2
+            0x00050036, 2, 1, 0, 3,                         // %1 = OpFunction %2 None %3
+            0x000200F8, 4,                                  // %4 = OpLabel
+            0x000100FD,                                     // OpReturn
+            0x00010038                                      // OpFunctionEnd
+    };
+
+    /**
+     * A fragment shader with entry point "main" that writes no outputs
+     */
+    private static final int[] EMPTY_FRAGMENT = {
+            0x07230203, 0x00010000, 0, 5, 0,
+            0x00020011, 1,                                  // OpCapability Shader
+            0x0003000E, 0, 1,                               // OpMemoryModel Logical GLSL450
+            0x0005000F, 4, 1, 0x6E69616D, 0,                // OpEntryPoint Fragment %1 "main"
+            0x00030010, 1, 7,                               // OpExecutionMode %1 OriginUpperLeft
+            0x00020013, 2,                                  // %2 = OpTypeVoid
+            0x00030021, 3, 2,                               // %3 = OpTypeFunction %2
+            0x00050036, 2, 1, 0, 3,                         // %1 = OpFunction %2 None %3
+            0x000200F8, 4,                                  // %4 = OpLabel
+            0x000100FD,                                     // OpReturn
+            0x00010038                                      // OpFunctionEnd
+    };
+
+    private Spirv() {
+    }
+
+    /**
+     * @return a temporary .spv file holding an empty compute shader, deleted on exit
+     */
+    public static Path emptyCompute() throws IOException {
+        return write(EMPTY_COMPUTE);
+    }
+
+    /**
+     * @return a temporary .spv file holding an empty vertex shader, deleted on exit
+     */
+    public static Path emptyVertex() throws IOException {
+        return write(EMPTY_VERTEX);
+    }
+
+    /**
+     * @return a temporary .spv file holding an empty fragment shader, deleted on exit
+     */
+    public static Path emptyFragment() throws IOException {
+        return write(EMPTY_FRAGMENT);
+    }
+
+    private static Path write(int[] words) throws IOException {
+        ByteBuffer code = ByteBuffer.allocate(words.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        code.asIntBuffer().put(words);
+        Path file = Files.createTempFile("kwant-bench", ".spv");
+        Files.write(file, code.array());
+        file.toFile().deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,60 @@
+package com.tebreca.kwant.render;
+
+import com.tebreca.kwant.bench.HeadlessEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling a sprite batch with a frame worth of sprites, the CPU side of drawing them. The render thread is paused at
+ * the start of a frame for every iteration, so the batch is filled between two frames as its contract requires and
+ * without the frame loop running alongside. Each iteration's last fill is drawn with empty shaders once it resumes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpriteBatchBenchmark {
+
+    private static final int CAPACITY = 100_000;
+
+    @Param({"1000", "100000"})
+    private int sprites;
+
+    private HeadlessEngine engine;
+    private SpriteBatch batch;
+
+    @Setup
+    public void setup() throws IOException {
+        engine = new HeadlessEngine(1280, 720);
+        batch = engine.manager.spriteBatch(engine.emptyVertex(), engine.emptyFragment(), CAPACITY).block(Duration.ofSeconds(30));
+    }
+
+    @Setup(Level.Iteration)
+    public void pause() throws InterruptedException {
+        engine.pause();
+    }
+
+    @TearDown(Level.Iteration)
+    public void resume() {
+        engine.resume();
+    }
+
+    @Benchmark
+    public SpriteBatch fill() {
+        batch.begin();
+        for (int i = 0; i < sprites; i++) {
+            batch.draw(i % 1280, i % 720, 16, 16, i * 0.001f, i & 7, 0, 0, 1, 1, 0xFFFFFFFF);
+        }
+        return batch.end();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        engine.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.tebreca.kwant.vk.descriptor;
+
+import com.tebreca.kwant.bench.HeadlessVulkan;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Per-draw descriptor cost: a frame's worth of set allocations followed by the bulk reset, and the layout lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescriptorBenchmark {
+
+    @Param({"64", "1024"})
+    public int setsPerFrame;
+
+    private HeadlessVulkan vulkan;
+    private DescriptorLayoutCache layouts;
+    private FrameDescriptorAllocator allocator;
+    private long layout;
+
+    @Setup
+    public void setup() {
+        vulkan = new HeadlessVulkan();
+        layouts = new DescriptorLayoutCache(vulkan.device);
+        allocator = new FrameDescriptorAllocator(vulkan.device, 1, 256);
+        layout = layouts.layout(VK_SHADER_STAGE_VERTEX_BIT | VK_SHADER_STAGE_FRAGMENT_BIT,
+                VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
+    }
+
+    @Benchmark
+    public void allocateFrame(Blackhole blackhole) {
+        for (int i = 0; i < setsPerFrame; i++) {
+            blackhole.consume(allocator.allocate(0, layout));
+        }
+        allocator.reset(0);
+    }
+
+    @Benchmark
+    public long cachedLayout() {
+        return layouts.layout(VK_SHADER_STAGE_VERTEX_BIT | VK_SHADER_STAGE_FRAGMENT_BIT,
+                VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
+    }
+
+    @TearDown
+    public void tearDown() {
+        allocator.destroy();
+        layouts.destroy();
+        vulkan.close();
+    }
+}
@@ -0,0 +1,51 @@
+package com.tebreca.kwant.vk.memory;
+
+import com.tebreca.kwant.bench.HeadlessVulkan;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Creating and destroying small buffers, straight from VMA and from a dedicated pool
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocatorBenchmark {
+
+    private static final int SIZE = 64 << 10;
+    private static final int USAGE = VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT;
+
+    private HeadlessVulkan vulkan;
+    private MemoryPool pool;
+
+    @Setup
+    public void setup() {
+        vulkan = new HeadlessVulkan();
+        pool = vulkan.allocator.pool(MemoryUsage.CPU_TO_GPU, USAGE, 16L << 20, 0);
+    }
+
+    @Benchmark
+    public long bufferCpuToGpu() {
+        GpuBuffer buffer = vulkan.allocator.buffer(SIZE, USAGE, MemoryUsage.CPU_TO_GPU);
+        vulkan.allocator.destroy(buffer);
+        return buffer.handle();
+    }
+
+    @Benchmark
+    public long bufferFromPool() {
+        GpuBuffer buffer = vulkan.allocator.buffer(SIZE, pool);
+        vulkan.allocator.destroy(buffer);
+        return buffer.handle();
+    }
+
+    @TearDown
+    public void tearDown() {
+        vulkan.close();
+    }
+}
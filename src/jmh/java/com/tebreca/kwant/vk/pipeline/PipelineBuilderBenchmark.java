@@ -0,0 +1,89 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.vk.shader.Shader;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkGraphicsPipelineCreateInfo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Cost of turning a builder or a frozen state into a VkGraphicsPipelineCreateInfo, paid once per pipeline in every
+ * batch, and of deriving a state variant. None of these touch the device, so this runs without one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBuilderBenchmark {
+
+    private PipelineBuilder minimal;
+    private PipelineBuilder sprite;
+    private PipelineState frozen;
+
+    @Setup
+    public void setup() {
+        minimal = new PipelineBuilder(null);
+
+        sprite = new PipelineBuilder(null)
+                .withShader(new Shader(1L, VK_SHADER_STAGE_VERTEX_BIT, "main", null, 0))
+                .withShader(new Shader(2L, VK_SHADER_STAGE_FRAGMENT_BIT, "main", null, 0))
+                .colorFormats(VK_FORMAT_B8G8R8A8_SRGB)
+                .alphaBlending();
+        PipelineBuilder.VertexInputStageConfigurator input = sprite.vertexInput();
+        input.instance(0, 48, 0, 0, VK_FORMAT_R32G32_SFLOAT);
+        input.instance(0, 48, 1, 8, VK_FORMAT_R32G32_SFLOAT);
+        input.instance(0, 48, 2, 16, VK_FORMAT_R32_SFLOAT);
+        input.instance(0, 48, 3, 20, VK_FORMAT_R32_UINT);
+        input.instance(0, 48, 4, 24, VK_FORMAT_R32G32B32A32_SFLOAT);
+        input.instance(0, 48, 5, 40, VK_FORMAT_R8G8B8A8_UNORM);
+        input.submit();
+        sprite.vertexAssembly().topology(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_STRIP).submit();
+        frozen = sprite.freeze();
+    }
+
+    @TearDown
+    public void tearDown() {
+        frozen.free();
+    }
+
+    @Benchmark
+    public void populateMinimal(Blackhole blackhole) {
+        populate(minimal, blackhole);
+    }
+
+    @Benchmark
+    public void populateSprite(Blackhole blackhole) {
+        populate(sprite, blackhole);
+    }
+
+    @Benchmark
+    public void populateFrozen(Blackhole blackhole) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkGraphicsPipelineCreateInfo createInfo = VkGraphicsPipelineCreateInfo.calloc(stack);
+            frozen.populate(stack, createInfo);
+            blackhole.consume(createInfo.address());
+        }
+    }
+
+    @Benchmark
+    public int deriveVariant() {
+        PipelineState variant = frozen.withTopology(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST);
+        int hash = variant.hashCode();
+        variant.free();
+        return hash;
+    }
+
+    private static void populate(PipelineBuilder builder, Blackhole blackhole) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkGraphicsPipelineCreateInfo createInfo = VkGraphicsPipelineCreateInfo.calloc(stack);
+            builder.populate(stack, createInfo);
+            blackhole.consume(createInfo.address());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.tebreca.kwant.vk.queue;
+
+import com.tebreca.kwant.bench.HeadlessVulkan;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueFamilyBenchmark {
+
+    private HeadlessVulkan vulkan;
+
+    @Setup
+    public void setup() {
+        vulkan = new HeadlessVulkan();
+    }
+
+    @Benchmark
+    public Map<QueueType, Integer> simple() {
+        return QueueFamilyFinder.simple(vulkan.physicalDevice);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vulkan.close();
+    }
+}
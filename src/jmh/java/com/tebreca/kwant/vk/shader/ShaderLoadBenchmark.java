@@ -0,0 +1,62 @@
+package com.tebreca.kwant.vk.shader;
+
+import com.tebreca.kwant.bench.HeadlessVulkan;
+import com.tebreca.kwant.bench.Spirv;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work ShaderBuilder does per shader on a worker: mapping the SPIR-V file and resolving it to a module,
+ * either shared with an identical shader loaded before or newly created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShaderLoadBenchmark {
+
+    private HeadlessVulkan vulkan;
+    private Path file;
+    private ShaderModuleCache shared;
+
+    @Setup
+    public void setup() throws IOException {
+        vulkan = new HeadlessVulkan();
+        file = Spirv.emptyCompute();
+        shared = new ShaderModuleCache();
+        shared.get(vulkan.device, map(), 0, file.toString());
+    }
+
+    private ByteBuffer map() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Benchmark
+    public long loadShared() throws IOException {
+        return shared.get(vulkan.device, map(), 0, file.toString());
+    }
+
+    @Benchmark
+    public long loadNew() throws IOException {
+        ShaderModuleCache modules = new ShaderModuleCache();
+        long module = modules.get(vulkan.device, map(), 0, file.toString());
+        modules.destroy(vulkan.device);
+        return module;
+    }
+
+    @TearDown
+    public void tearDown() {
+        shared.destroy(vulkan.device);
+        vulkan.close();
+    }
+}
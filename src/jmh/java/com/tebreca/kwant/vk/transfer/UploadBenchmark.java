@@ -0,0 +1,64 @@
+package com.tebreca.kwant.vk.transfer;
+
+import com.tebreca.kwant.bench.HeadlessEngine;
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+import com.tebreca.kwant.vk.memory.MemoryUsage;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * A burst of buffer uploads through the staging ring, from requesting them until the frame loop hands them to the
+ * graphics queue. The engine renders headless and unlimited, so this includes waiting for the next frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadBenchmark {
+
+    private static final int UPLOADS = 64;
+
+    @Param({"256", "65536"})
+    private int size;
+
+    private HeadlessEngine engine;
+    private UploadService uploads;
+    private GpuBuffer target;
+    private ByteBuffer data;
+
+    @Setup
+    public void setup() {
+        engine = new HeadlessEngine(256, 256);
+        uploads = engine.manager.uploads().block(Duration.ofSeconds(30));
+        target = engine.manager.memoryAllocator().buffer((long) UPLOADS * size, VK_BUFFER_USAGE_TRANSFER_DST_BIT, MemoryUsage.GPU_ONLY);
+        data = MemoryUtil.memCalloc(size);
+    }
+
+    @Benchmark
+    public GpuBuffer burst() {
+        List<Mono<GpuBuffer>> uploaded = new ArrayList<>(UPLOADS);
+        for (int i = 0; i < UPLOADS; i++) {
+            uploaded.add(uploads.upload(target, (long) i * size, data));
+        }
+        return Flux.merge(uploaded).blockLast();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        engine.manager.memoryAllocator().destroy(target);
+        MemoryUtil.memFree(data);
+        engine.close();
+    }
+}
@@ -1,29 +1,46 @@
 package com.tebreca.kwant;
 
+import com.tebreca.kwant.general.FixedTimestep;
+import com.tebreca.kwant.general.FrameLimiter;
 import com.tebreca.kwant.general.GameInfo;
+import com.tebreca.kwant.general.StartupTimings;
+import com.tebreca.kwant.general.TripleBuffer;
 import com.tebreca.kwant.glfw.WindowManager;
+import com.tebreca.kwant.glfw.input.InputEvents;
 import com.tebreca.kwant.vk.VulkanManager;
 import com.tebreca.kwant.vk.VulkanUtils;
 import com.tebreca.kwant.vk.device.DeviceScorer;
 import com.tebreca.kwant.vk.device.DeviceSettings;
+import com.tebreca.kwant.vk.frame.FrameLoop;
 import com.tebreca.kwant.vk.queue.QueueFamilyFinder;
 import com.tebreca.kwant.vk.swapchain.GraphicsSettings;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
 import com.tebreca.kwant.glfw.window.WindowSettings;
+import org.joml.Vector2i;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.glfw.GLFWVulkan;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.LongFunction;
 import java.util.function.Supplier;
 
 import static org.lwjgl.glfw.GLFW.glfwGetPrimaryMonitor;
+import static org.lwjgl.glfw.GLFW.glfwGetVideoMode;
 import static org.lwjgl.glfw.GLFW.glfwInit;
+import static org.lwjgl.glfw.GLFW.glfwSetWindowShouldClose;
 import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.NULL;
 import static org.lwjgl.vulkan.VK13.*;
 
 /**
@@ -51,6 +68,31 @@ public class Engine {
     private final List<String> requiredExtensions = new ArrayList<>();
     private final List<String> deviceExtensions = new ArrayList<>(List.of(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME));
 
+    // Frame loop
+    private int framesInFlight = 2;
+
+    // Pipeline cache
+    private File pipelineCacheFile = null;
+
+    // Headless
+    @Nullable
+    private Vector2i headlessResolution = null;
+    private volatile boolean running = true;
+
+    // Threading
+    private static final long MINIMIZED_WAIT = 10_000_000;
+    private boolean threaded = false;
+    private Runnable simulation = () -> {};
+    private final AtomicLong framesStarted = new AtomicLong();
+    private volatile Throwable failure;
+
+    // Timing
+    private static final int MAX_TICKS_PER_FRAME = 8;
+    private static final double FALLBACK_REFRESH_RATE = 60;
+    @Nullable
+    private FixedTimestep timestep = null;
+    private double frameLimit = -1;
+
     // Instance
     private static final Sinks.One<Engine> instanceSink = Sinks.one();
     public static final Mono<Engine> instance = instanceSink.asMono();
@@ -76,6 +118,11 @@ public class Engine {
 
     private final Sinks.One<VulkanManager> vulkanSink = Sinks.one();
 
+    // Startup
+    private volatile StartupTimings timings;
+    private final List<Runnable> preloads = new ArrayList<>();
+    private final Sinks.One<StartupTimings> startupSink = Sinks.one();
+
     public Engine withGraphicsSettings(LongFunction<GraphicsSettings> graphicsSettings) {
         return this.with(GraphicsSettings.class, (Supplier<GraphicsSettings>) () -> graphicsSettings.apply(windowManager.getWindowId()));
     }
@@ -126,6 +173,120 @@ public class Engine {
         return this.with(DeviceSettings.class, settings);
     }
 
+    /**
+     * @param framesInFlight amount of frames the CPU may record ahead of the GPU, 2 by default
+     * @return this
+     */
+    public Engine withFramesInFlight(int framesInFlight) {
+        this.framesInFlight = framesInFlight;
+        return this;
+    }
+
+    /**
+     * Loads the pipeline cache from the given file at startup and writes it back on cleanup
+     *
+     * @param location location of the cache file, it doesn't have to exist yet
+     * @return this
+     */
+    public Engine withPipelineCache(String location) {
+        this.pipelineCacheFile = new File(location);
+        return this;
+    }
+
+    /**
+     * Renders without a window or GLFW, into a VK_EXT_headless_surface swapchain of the given size. Frames are read
+     * back through {@link VulkanManager#readback()}. The device scorer still prefers GPUs, but picks a CPU
+     * implementation such as lavapipe when there is none.
+     *
+     * @return this
+     */
+    public Engine headless(int width, int height) {
+        this.headlessResolution = new Vector2i(width, height);
+        return this;
+    }
+
+    /**
+     * Renders on a dedicated render thread and runs the simulation on a simulation thread, leaving the main thread to
+     * wait for and handle window events only. Simulation state is meant to be handed to rendering through a
+     * {@link TripleBuffer}, so the simulation of the next frame overlaps rendering of the current one.
+     *
+     * @return this
+     */
+    public Engine threaded() {
+        this.threaded = true;
+        return this;
+    }
+
+    public boolean isThreaded() {
+        return threaded;
+    }
+
+    /**
+     * @param simulation one step of the game, run once per frame. Before the frame on the rendering thread, or when
+     *                   {@link #threaded()} on the simulation thread as soon as the previous step finished and the
+     *                   next frame started, overlapping its rendering.
+     * @return this
+     */
+    public Engine withSimulation(Runnable simulation) {
+        this.simulation = simulation;
+        this.timestep = null;
+        return this;
+    }
+
+    /**
+     * Simulates at a fixed rate, running as many ticks before every frame as real time passed since the last. When
+     * {@link #threaded()} the simulation thread sleeps until the next tick is due instead. Replaces
+     * {@link #withSimulation(Runnable)}, rendering interpolates between the last two ticks with {@link #interpolation()}.
+     *
+     * @return this
+     */
+    public Engine withFixedTimestep(double ticksPerSecond, FixedTimestep.Tick tick) {
+        this.timestep = new FixedTimestep(ticksPerSecond, MAX_TICKS_PER_FRAME, tick);
+        this.simulation = timestep::advance;
+        return this;
+    }
+
+    /**
+     * @return fraction of a tick real time is past the last fixed timestep tick, 1 without a fixed timestep
+     */
+    public double interpolation() {
+        return timestep == null ? 1 : timestep.alpha();
+    }
+
+    /**
+     * Limits the frame rate, sleeping between frames. Without calling this the frame rate is limited to the refresh
+     * rate of the monitor when the swapchain presents with IMMEDIATE or MAILBOX, which don't wait for vertical blank.
+     *
+     * @param framesPerSecond maximum frame rate, 0 to never limit it
+     * @return this
+     */
+    public Engine withFrameLimit(double framesPerSecond) {
+        this.frameLimit = framesPerSecond;
+        return this;
+    }
+
+    public boolean isHeadless() {
+        return headlessResolution != null;
+    }
+
+    /**
+     * @return input events of the window, to be drained by one thread, such as the game thread
+     */
+    public InputEvents input() {
+        return windowManager.input();
+    }
+
+    /**
+     * Ends the run phase after the current frame, from any thread. Closes the window when there is one.
+     */
+    public void stop() {
+        running = false;
+        if (!isHeadless() && windowManager.getWindowId() != NULL) {
+            glfwSetWindowShouldClose(windowManager.getWindowId(), true);
+            windowManager.wake();
+        }
+    }
+
     /**
      * Less controlled but 'cleaner' method, use only if you know what you're doing
      *
@@ -152,12 +313,211 @@ public class Engine {
         return this;
     }
 
+    /**
+     * Starts a task as soon as the engine starts, on a background thread while the window, instance and device come
+     * up. Meant for reading and decoding assets that do not need the device. Its duration is part of the startup timings.
+     *
+     * @param name name of the task in the startup timings
+     * @return the result of the task
+     */
+    public <T> Mono<T> preload(String name, Callable<T> task) {
+        Sinks.One<T> sink = Sinks.one();
+        Runnable run = () -> Schedulers.boundedElastic().schedule(() -> {
+            long begin = timings.begin();
+            try {
+                T result = task.call();
+                timings.end(name, begin);
+                sink.tryEmitValue(result);
+            } catch (Exception e) {
+                sink.tryEmitError(e);
+            }
+        });
+        synchronized (preloads) {
+            if (timings == null) {
+                preloads.add(run);
+            } else {
+                run.run();
+            }
+        }
+        return sink.asMono();
+    }
+
+    /**
+     * @return the timings of every startup phase, once the first frame has been submitted. Its toString is a table
+     * meant for printing.
+     */
+    public Mono<StartupTimings> startup() {
+        return startupSink.asMono();
+    }
+
     public void start() {
-        glfwInit();
+        boolean headless = isHeadless();
+        synchronized (preloads) {
+            timings = new StartupTimings();
+            preloads.forEach(Runnable::run);
+            preloads.clear();
+        }
 
-        if (suppliers.containsKey(WindowSettings.class)) {
+        long begin;
+        if (!headless) {
+            begin = timings.begin();
+            glfwInit();
+            timings.end("glfw", begin);
+        }
+        // Creating the instance only needs GLFW to be initialised, so it runs while the window is created
+        Mono<VkInstance> instance = Mono.fromSupplier(() -> {
+            long instanceBegin = timings.begin();
+            VkInstance vulkan = createInstance(headless);
+            timings.end("instance", instanceBegin);
+            return vulkan;
+        }).subscribeOn(Schedulers.boundedElastic()).cache();
+        instance.subscribe(vulkan -> {}, e -> {}); // starts it right away, failures are thrown by block below
+        if (!headless && suppliers.containsKey(WindowSettings.class)) {
+            begin = timings.begin();
             windowManager.start((WindowSettings) suppliers.get(WindowSettings.class).get());
+            timings.end("window", begin);
+        }
+
+        DeviceScorer scorer = getDirty(DeviceScorer.class, DeviceScorer::simple);
+        QueueFamilyFinder familyFinder = getDirty(QueueFamilyFinder.class, QueueFamilyFinder::simple);
+        VkInstance vulkan = instance.block();
+        begin = timings.begin();
+        vulkanManager = new VulkanManager(vulkan, scorer, familyFinder, headless ? NULL : windowManager.getWindowId());
+        timings.end("device selection", begin);
+        vulkanSink.tryEmitValue(vulkanManager).orThrow();
+
+        DeviceSettings deviceSettings = getDirty(DeviceSettings.class, new DeviceSettings(VkPhysicalDeviceFeatures.calloc(), 0));
+
+        begin = timings.begin();
+        vulkanManager.persistPipelineCache(pipelineCacheFile).createDevice(deviceSettings, deviceExtensions);
+        timings.end("device", begin);
+        Supplier<GraphicsSettings> graphicsSettings = getDirty(GraphicsSettings.class, headless
+                ? (Supplier<GraphicsSettings>) () -> GraphicsSettings.headless(headlessResolution.x, headlessResolution.y)
+                : (Supplier<GraphicsSettings>) () -> GraphicsSettings.tripleBuffering(windowManager.getWindowId()));
+        vulkanManager.swapChainManager().subscribe(swapChainManager -> {
+            long swapChainBegin = timings.begin();
+            swapChainManager.createSwapChain(graphicsSettings.get());
+            timings.end("swapchain", swapChainBegin);
+            if (!headless) {
+                windowManager.onFramebufferResize((window, width, height) -> swapChainManager.resize(width, height));
+            }
+        });
+        begin = timings.begin();
+        vulkanManager.createFrameLoop(framesInFlight);
+        timings.end("frame loop", begin);
+
+        // RUN PHASE
+        FrameLoop frameLoop = vulkanManager.frameLoop().block();
+        SwapChainManager swapChain = vulkanManager.swapChainManager().block();
+        FrameLimiter limiter = frameLimiter(headless);
+        Runnable render = () -> {
+            frameLoop.renderFrame();
+            if (limiter != null && (frameLimit > 0 || swapChain.unthrottled())) {
+                limiter.await();
+            }
+            if (Double.isNaN(timings.firstFrameMillis())) {
+                timings.firstFrame();
+                startupSink.tryEmitValue(timings);
+            }
+        };
+        if (threaded) {
+            runThreaded(render, swapChain, headless);
+        } else if (headless) {
+            while (running) {
+                simulation.run();
+                render.run();
+            }
+        } else {
+            windowManager.subscribe(() -> {
+                simulation.run();
+                render.run();
+            });
+        }
+
+        // CLEANUP PHASE
+        vulkanManager.cleanup();
+        if (!headless) {
+            windowManager.cleanup();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The render or simulation thread failed", failure);
+        }
+    }
+
+    /**
+     * Renders and simulates on threads of their own until stopped, the main thread handles window events meanwhile
+     */
+    private void runThreaded(Runnable render, SwapChainManager swapChain, boolean headless) {
+        Thread simulationThread = new Thread(() -> guarded(() -> {
+            while (running && timestep != null) {
+                timestep.advance();
+                timestep.awaitNextTick();
+            }
+            while (running) {
+                long seen = framesStarted.get();
+                simulation.run();
+                // One step per frame, it only waits when the next frame did not start during this step
+                while (running && framesStarted.get() == seen) {
+                    LockSupport.park(this);
+                }
+            }
+        }), "kwant-simulation");
+        Thread renderThread = new Thread(() -> guarded(() -> {
+            while (running) {
+                if (swapChain.minimized()) {
+                    // Nothing can be presented, the main thread resizes the swapchain once the window is restored
+                    LockSupport.parkNanos(this, MINIMIZED_WAIT);
+                    continue;
+                }
+                framesStarted.incrementAndGet();
+                LockSupport.unpark(simulationThread);
+                render.run();
+            }
+        }), "kwant-render");
+        simulationThread.start();
+        renderThread.start();
+
+        if (!headless) {
+            windowManager.pump();
+            running = false;
+        }
+        try {
+            renderThread.join();
+            LockSupport.unpark(simulationThread);
+            simulationThread.join();
+        } catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return limiter at the requested frame limit or else the refresh rate of the monitor, null when never limited
+     */
+    @Nullable
+    private FrameLimiter frameLimiter(boolean headless) {
+        if (frameLimit == 0) {
+            return null;
+        } else if (frameLimit > 0) {
+            return new FrameLimiter(frameLimit);
+        }
+        var videoMode = headless ? null : glfwGetVideoMode(glfwGetPrimaryMonitor());
+        return new FrameLimiter(videoMode == null || videoMode.refreshRate() <= 0 ? FALLBACK_REFRESH_RATE : videoMode.refreshRate());
+    }
+
+    private void guarded(Runnable loop) {
+        try {
+            loop.run();
+        } catch (Throwable t) {
+            failure = t;
+            stop();
         }
+    }
+
+    /**
+     * Enumerates layers and extensions and creates the instance, safe to call off the main thread once GLFW is initialised
+     */
+    private VkInstance createInstance(boolean headless) {
         try (var memoryStack = stackPush()) {
             var applicationInfo = VkApplicationInfo.calloc(memoryStack);
             applicationInfo.apiVersion(VK_API_VERSION_1_3);
@@ -177,8 +537,10 @@ public class Engine {
 
             VkInstanceCreateInfo instanceCreateInfo = VkInstanceCreateInfo.calloc(memoryStack);
             instanceCreateInfo.sType(VK13.VK_STRUCTURE_TYPE_INSTANCE_CREATE_INFO);
-            PointerBuffer glfwExtensions = GLFWVulkan.glfwGetRequiredInstanceExtensions();
-            assert glfwExtensions != null;
+            PointerBuffer surfaceExtensions = headless
+                    ? memoryStack.pointers(memoryStack.UTF8(KHRSurface.VK_KHR_SURFACE_EXTENSION_NAME), memoryStack.UTF8(EXTHeadlessSurface.VK_EXT_HEADLESS_SURFACE_EXTENSION_NAME))
+                    : GLFWVulkan.glfwGetRequiredInstanceExtensions();
+            assert surfaceExtensions != null;
 
             if (enableValidation || !requestedValidationLayers.isEmpty()) {
                 List<VkLayerProperties> layers = findLayers(memoryStack);
@@ -203,8 +565,8 @@ public class Engine {
                 throw new RuntimeException("Not all required extensions were found!");
             }
 
-            PointerBuffer extensions = memoryStack.callocPointer(glfwExtensions.remaining() + amount.get(0));
-            extensions.put(glfwExtensions);
+            PointerBuffer extensions = memoryStack.callocPointer(surfaceExtensions.remaining() + amount.get(0));
+            extensions.put(surfaceExtensions);
             extensionNames.stream().map(memoryStack::UTF8).forEach(extensions::put);
             extensions.flip();
 
@@ -213,30 +575,10 @@ public class Engine {
             var vulkan = memoryStack.callocPointer(VkInstance.POINTER_SIZE);
 
             VulkanUtils.assertResult(vkCreateInstance(instanceCreateInfo, null, vulkan), "Failed to create Vulkan instance!");
-
-            DeviceScorer scorer = getDirty(DeviceScorer.class, DeviceScorer::simple);
-            QueueFamilyFinder familyFinder = getDirty(QueueFamilyFinder.class, QueueFamilyFinder::simple);
-
-
-            vulkanManager = new VulkanManager(new VkInstance(vulkan.get(), instanceCreateInfo), scorer, familyFinder, windowManager.getWindowId());
-            vulkanSink.tryEmitValue(vulkanManager).orThrow();
+            return new VkInstance(vulkan.get(), instanceCreateInfo);
         }
-
-        DeviceSettings deviceSettings = getDirty(DeviceSettings.class, new DeviceSettings(VkPhysicalDeviceFeatures.calloc(), 0));
-
-        vulkanManager.createDevice(deviceSettings, deviceExtensions);
-        Supplier<GraphicsSettings> graphicsSettings = getDirty(GraphicsSettings.class, (Supplier<GraphicsSettings>) () -> GraphicsSettings.tripleBuffering(windowManager.getWindowId()));
-        vulkanManager.swapChainManager().subscribe(swapChainManager -> swapChainManager.createSwapChain(graphicsSettings.get()));
-
-        // RUN PHASE
-        windowManager.subscribe();
-
-        // CLEANUP PHASE
-        vulkanManager.cleanup();
-        windowManager.cleanup();
     }
 
-
     private List<VkLayerProperties> findLayers(MemoryStack stack) {
         var size = stack.callocInt(1);
         vkEnumerateInstanceLayerProperties(size, null);
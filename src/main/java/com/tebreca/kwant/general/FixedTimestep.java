@@ -0,0 +1,122 @@
+package com.tebreca.kwant.general;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a simulation at a fixed rate independent of the frame rate, catching up with as many ticks as real time
+ * passed. Rendering interpolates between the last two ticks with {@link #alpha()}.
+ */
+@SuppressWarnings("unused")
+public class FixedTimestep {
+
+    @FunctionalInterface
+    public interface Tick {
+
+        /**
+         * @param tick  number of this tick, counting from 0
+         * @param delta seconds simulated by every tick
+         */
+        void tick(long tick, double delta);
+    }
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final long step;
+    private final double delta;
+    private final int maxTicks;
+    private final Tick tick;
+
+    /**
+     * {@link System#nanoTime()} the state after the last tick belongs to, one value so other threads never see it half
+     * updated
+     */
+    private volatile long simulated = NOT_STARTED;
+    private volatile long ticks;
+
+    /**
+     * @param maxTicks ticks run by one {@link #advance()} at most. When the simulation can't keep up the rest of the
+     *                 time is dropped, slowing it down instead of falling further behind every frame.
+     */
+    public FixedTimestep(double ticksPerSecond, int maxTicks, Tick tick) {
+        if (!(ticksPerSecond > 0 && ticksPerSecond <= 1e9)) {
+            throw new IllegalArgumentException("A tick rate has to be positive and at most 1e9");
+        }
+        if (maxTicks < 1) {
+            throw new IllegalArgumentException("At least one tick has to run per advance");
+        }
+        this.step = (long) (1e9 / ticksPerSecond);
+        this.delta = step / 1e9;
+        this.maxTicks = maxTicks;
+        this.tick = tick;
+    }
+
+    /**
+     * Runs every tick that is due by now, only to be called by one thread
+     *
+     * @return amount of ticks run
+     */
+    public int advance() {
+        long now = System.nanoTime();
+        long last = simulated;
+        if (last == NOT_STARTED) {
+            simulated = now;
+            return 0;
+        }
+        long due = (now - last) / step;
+        if (due > maxTicks) {
+            last += (due - maxTicks) * step;
+            due = maxTicks;
+        }
+        for (int i = 0; i < due; i++) {
+            tick.tick(ticks, delta);
+            ticks++;
+            last += step;
+            simulated = last;
+        }
+        return (int) due;
+    }
+
+    /**
+     * Sleeps until the next tick is due, returning early when interrupted
+     */
+    public void awaitNextTick() {
+        long wait = nextTickNanos() - System.nanoTime();
+        if (wait > 0) {
+            LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the next tick is due
+     */
+    public long nextTickNanos() {
+        long last = simulated;
+        return last == NOT_STARTED ? System.nanoTime() : last + step;
+    }
+
+    /**
+     * @return how far real time is past the last tick, from 0 to 1 of a tick. Rendering draws the state between the
+     * last two ticks at this fraction, safe to call from any thread. It stays at 1 while the simulation is catching up.
+     */
+    public double alpha() {
+        long last = simulated;
+        if (last == NOT_STARTED) {
+            return 1;
+        }
+        return Math.clamp((System.nanoTime() - last) / (double) step, 0, 1);
+    }
+
+    /**
+     * @return amount of ticks run so far
+     */
+    public long ticks() {
+        return ticks;
+    }
+
+    /**
+     * @return seconds simulated by every tick
+     */
+    public double delta() {
+        return delta;
+    }
+}
@@ -0,0 +1,69 @@
+package com.tebreca.kwant.general;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop to a fixed rate. Sleeps for most of the wait and spins for the last part, as sleeping alone wakes up
+ * too late on most platforms. How long to spin follows the measured oversleep, so it spins only as long as needed.
+ */
+@SuppressWarnings("unused")
+public class FrameLimiter {
+
+    private static final long MIN_SPIN = 100_000;
+    private static final long MAX_SPIN = 4_000_000;
+
+    private volatile long interval;
+    private long deadline = -1;
+    private long spin = 1_000_000;
+
+    public FrameLimiter(double framesPerSecond) {
+        this.interval = interval(framesPerSecond);
+    }
+
+    public void rate(double framesPerSecond) {
+        this.interval = interval(framesPerSecond);
+    }
+
+    private static long interval(double framesPerSecond) {
+        if (!(framesPerSecond > 0 && framesPerSecond <= 1e9)) {
+            throw new IllegalArgumentException("A frame limit has to be positive and at most 1e9");
+        }
+        return (long) (1e9 / framesPerSecond);
+    }
+
+    public double rate() {
+        return 1e9 / interval;
+    }
+
+    /**
+     * Waits until one interval after the previous call returned, or returns right away when the loop is already late.
+     * Only to be called by one thread.
+     */
+    public void await() {
+        long now = System.nanoTime();
+        if (deadline < 0) {
+            deadline = now;
+            return;
+        }
+        long target = deadline + interval;
+        if (now >= target) {
+            // Late frames don't make the next ones shorter, unless they're late by less than a frame
+            deadline = now - target < interval ? target : now;
+            return;
+        }
+
+        long remaining;
+        while ((remaining = target - System.nanoTime()) > spin) {
+            long sleep = remaining - spin;
+            long before = System.nanoTime();
+            LockSupport.parkNanos(this, sleep);
+            long overslept = System.nanoTime() - before - sleep;
+            // Grows right away when sleeping got less precise, shrinks slowly when it got better
+            spin = Math.clamp(Math.max(overslept + overslept / 2, spin - spin / 16), MIN_SPIN, MAX_SPIN);
+        }
+        while (System.nanoTime() < target) {
+            Thread.onSpinWait();
+        }
+        deadline = target;
+    }
+}
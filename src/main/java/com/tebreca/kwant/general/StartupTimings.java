@@ -0,0 +1,69 @@
+package com.tebreca.kwant.general;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Wall clock timings of the startup phases of the engine, measured from the start of {@link com.tebreca.kwant.Engine#start()}.
+ * Phases running on different threads overlap.
+ */
+@SuppressWarnings("unused")
+public class StartupTimings {
+
+    /**
+     * @param startMillis time between the start of startup and the start of this phase
+     * @param millis      duration of this phase
+     */
+    public record Phase(String name, String thread, double startMillis, double millis) {
+
+        public double endMillis() {
+            return startMillis + millis;
+        }
+    }
+
+    private final long origin = System.nanoTime();
+    private final Queue<Phase> phases = new ConcurrentLinkedQueue<>();
+    private volatile double firstFrameMillis = Double.NaN;
+
+    /**
+     * @return start time of a phase, to be passed to {@link #end(String, long)} on the same thread
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(String name, long begin) {
+        long now = System.nanoTime();
+        phases.add(new Phase(name, Thread.currentThread().getName(), (begin - origin) / 1e6, (now - begin) / 1e6));
+    }
+
+    public void firstFrame() {
+        firstFrameMillis = (System.nanoTime() - origin) / 1e6;
+    }
+
+    /**
+     * @return every finished phase, by start time
+     */
+    public List<Phase> phases() {
+        return phases.stream().sorted(Comparator.comparingDouble(Phase::startMillis)).toList();
+    }
+
+    /**
+     * @return time from the start of startup until the first frame was submitted, NaN before that
+     */
+    public double firstFrameMillis() {
+        return firstFrameMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Startup timings:%n".formatted());
+        for (Phase phase : phases()) {
+            builder.append("  %-20s %8.2f ms  (%8.2f - %8.2f) on %s%n".formatted(phase.name(), phase.millis(), phase.startMillis(), phase.endMillis(), phase.thread()));
+        }
+        builder.append("  %-20s %8.2f ms%n".formatted("first frame", firstFrameMillis));
+        return builder.toString();
+    }
+}
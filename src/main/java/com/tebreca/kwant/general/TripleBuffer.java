@@ -0,0 +1,65 @@
+package com.tebreca.kwant.general;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free handoff of snapshots from one producing thread to one consuming thread, such as game state from the
+ * simulation to rendering.
+ * <br><br>
+ * Three instances are preallocated: the producer fills one, the consumer reads another, the third holds the latest
+ * published snapshot. Neither side ever waits for the other, the producer may publish faster than the consumer reads
+ * and the consumer then skips to the newest snapshot, or slower and the consumer keeps reading the last one.
+ * Snapshots are reused, so the producer has to overwrite every field it uses each time.
+ */
+@SuppressWarnings("unused")
+public class TripleBuffer<T> {
+
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] snapshots;
+    /**
+     * Index of the middle snapshot, with {@link #FRESH} set while it has not been read yet
+     */
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    public TripleBuffer(Supplier<T> factory) {
+        this.snapshots = new Object[]{factory.get(), factory.get(), factory.get()};
+    }
+
+    /**
+     * @return the snapshot to fill, only to be called by the producing thread
+     */
+    @SuppressWarnings("unchecked")
+    public T write() {
+        return (T) snapshots[back];
+    }
+
+    /**
+     * Publishes the snapshot returned by {@link #write()}, the next call to it returns another one
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * @return the latest published snapshot, only to be called by the consuming thread. It stays valid until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    public T read() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) snapshots[front];
+    }
+
+    /**
+     * @return whether a snapshot was published since the consumer last read
+     */
+    public boolean fresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+}
@@ -1,15 +1,30 @@
 package com.tebreca.kwant.glfw;
 
+import com.tebreca.kwant.glfw.input.InputEvents;
 import com.tebreca.kwant.glfw.window.WindowSettings;
 import org.joml.Vector2i;
+import org.lwjgl.glfw.GLFWFramebufferSizeCallbackI;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 public class WindowManager {
 
+    /**
+     * Seconds between gamepad polls while waiting for events, GLFW has no callbacks for them
+     */
+    private static final double GAMEPAD_POLL_INTERVAL = 0.004;
+
     private long windowId;
 
+    private final List<GLFWFramebufferSizeCallbackI> resizeListeners = new CopyOnWriteArrayList<>();
+
+    private final InputEvents input = new InputEvents(4096);
+
     public void start(WindowSettings windowSettings) {
         glfwDefaultWindowHints();
         glfwWindowHint(GLFW_CLIENT_API, GLFW_NO_API);
@@ -35,15 +50,74 @@ public class WindowManager {
                 windowId = glfwCreateWindow(videomode.width(), videomode.height(), windowSettings.name(), windowSettings.monitorId(), NULL);
             }
         }
+        glfwSetFramebufferSizeCallback(windowId, (window, width, height) -> resizeListeners.forEach(listener -> listener.invoke(window, width, height)));
+        input.install(windowId);
+    }
+
+    /**
+     * Keyboard, mouse, scroll, char and gamepad input of the window, captured on the main thread while polling.
+     * Installing other GLFW input callbacks on the window replaces the ones filling it.
+     */
+    public InputEvents input() {
+        return input;
+    }
+
+    /**
+     * @param listener called on the main thread whenever the framebuffer changes size, including (un)minimizing
+     * @return this
+     */
+    public WindowManager onFramebufferResize(GLFWFramebufferSizeCallbackI listener) {
+        resizeListeners.add(listener);
+        return this;
     }
 
     public void subscribe() {
+        subscribe(() -> {});
+    }
+
+    /**
+     * Polls events until the window should close
+     *
+     * @param onFrame called once per poll, after the events are handled
+     */
+    public void subscribe(Runnable onFrame) {
         while (!glfwWindowShouldClose(windowId)) {
-            glfwPollEvents();
+            if (glfwGetWindowAttrib(windowId, GLFW_ICONIFIED) == GLFW_TRUE) {
+                // Nothing can be presented while minimized, sleep until something happens instead of spinning
+                glfwWaitEvents();
+            } else {
+                glfwPollEvents();
+            }
+            input.pollGamepads();
+            onFrame.run();
         }
     }
 
+    /**
+     * Waits for and handles events until the window should close, without doing anything else. Used when rendering
+     * runs on another thread, events are then handled as soon as they arrive. Wake it with {@link #wake()}.
+     */
+    public void pump() {
+        while (!glfwWindowShouldClose(windowId)) {
+            if (input.hasGamepads()) {
+                glfwWaitEventsTimeout(GAMEPAD_POLL_INTERVAL);
+            } else {
+                glfwWaitEvents();
+            }
+            input.pollGamepads();
+        }
+    }
+
+    /**
+     * Makes the main thread return from waiting for events, callable from any thread
+     */
+    public void wake() {
+        glfwPostEmptyEvent();
+    }
+
     public void cleanup() {
+        input.cleanup();
+        glfwFreeCallbacks(windowId);
         glfwDestroyWindow(windowId);
     }
 
@@ -0,0 +1,230 @@
+package com.tebreca.kwant.glfw.input;
+
+import org.lwjgl.glfw.GLFWGamepadState;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+/**
+ * Single producer, single consumer ring of input events, written by the GLFW callbacks of a window on the main thread
+ * and drained in batches by any one other thread, such as the game or simulation thread.
+ * <br><br>
+ * Events are stored as primitives in a preallocated array, neither side allocates or locks. When the consumer falls
+ * behind more than the capacity, new events are dropped and counted in {@link #dropped()}.
+ * <br><br>
+ * Meaning of the event fields per type:
+ * <ul>
+ *     <li>{@link #KEY}: code is the GLFW key, action and mods as GLFW reports them, x is the scancode</li>
+ *     <li>{@link #CHAR}: code is the unicode codepoint</li>
+ *     <li>{@link #MOUSE_BUTTON}: code is the GLFW button, action and mods as GLFW reports them, x and y the cursor position</li>
+ *     <li>{@link #CURSOR}: x and y are the cursor position in screen coordinates</li>
+ *     <li>{@link #SCROLL}: x and y are the scroll offsets</li>
+ *     <li>{@link #GAMEPAD_BUTTON}: code is the GLFW gamepad button, action is press or release, mods the joystick id</li>
+ *     <li>{@link #GAMEPAD_AXIS}: code is the GLFW gamepad axis, mods the joystick id, x the new value</li>
+ *     <li>{@link #GAMEPAD_CONNECTION}: code is the joystick id, action is {@link org.lwjgl.glfw.GLFW#GLFW_PRESS} when it
+ *     connected as a gamepad and {@link org.lwjgl.glfw.GLFW#GLFW_RELEASE} when it disconnected</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class InputEvents {
+
+    public static final int KEY = 1;
+    public static final int CHAR = 2;
+    public static final int MOUSE_BUTTON = 3;
+    public static final int CURSOR = 4;
+    public static final int SCROLL = 5;
+    public static final int GAMEPAD_BUTTON = 6;
+    public static final int GAMEPAD_AXIS = 7;
+    public static final int GAMEPAD_CONNECTION = 8;
+
+    /**
+     * Longs per event: time, packed type/action/mods/code, x and y
+     */
+    private static final int STRIDE = 4;
+    private static final int JOYSTICKS = GLFW_JOYSTICK_LAST + 1;
+    private static final int BUTTONS = GLFW_GAMEPAD_BUTTON_LAST + 1;
+    private static final int AXES = GLFW_GAMEPAD_AXIS_LAST + 1;
+
+    private final long[] events;
+    private final int mask;
+
+    // Producer side
+    private final AtomicLong head = new AtomicLong();
+    private long cachedTail;
+    private volatile long dropped;
+    private double cursorX;
+    private double cursorY;
+
+    // Consumer side
+    private final AtomicLong tail = new AtomicLong();
+
+    // Gamepads, polled by the producer
+    private final boolean[] gamepads = new boolean[JOYSTICKS];
+    private final byte[][] buttons = new byte[JOYSTICKS][BUTTONS];
+    private final float[][] axes = new float[JOYSTICKS][AXES];
+    private GLFWGamepadState gamepadState;
+
+    /**
+     * @param capacity maximum amount of undrained events, rounded up to a power of two
+     */
+    public InputEvents(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.events = new long[size * STRIDE];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Installs the key, char, mouse, cursor and scroll callbacks of the window and the joystick callback, replacing
+     * any installed before. Called on the main thread.
+     */
+    public void install(long window) {
+        glfwSetKeyCallback(window, (w, key, scancode, action, mods) -> push(KEY, key, action, mods, scancode, 0));
+        glfwSetCharCallback(window, (w, codepoint) -> push(CHAR, codepoint, 0, 0, 0, 0));
+        glfwSetMouseButtonCallback(window, (w, button, action, mods) -> push(MOUSE_BUTTON, button, action, mods, cursorX, cursorY));
+        glfwSetCursorPosCallback(window, (w, x, y) -> {
+            cursorX = x;
+            cursorY = y;
+            push(CURSOR, 0, 0, 0, x, y);
+        });
+        glfwSetScrollCallback(window, (w, x, y) -> push(SCROLL, 0, 0, 0, x, y));
+        glfwSetJoystickCallback((jid, event) -> connection(jid, event == GLFW_CONNECTED && glfwJoystickIsGamepad(jid)));
+
+        gamepadState = GLFWGamepadState.calloc();
+        for (int jid = 0; jid < JOYSTICKS; jid++) {
+            if (glfwJoystickPresent(jid) && glfwJoystickIsGamepad(jid)) {
+                connection(jid, true);
+            }
+        }
+    }
+
+    /**
+     * GLFW has no gamepad callbacks, so this polls the connected gamepads and pushes the buttons and axes that changed.
+     * Called on the main thread after polling events.
+     */
+    public void pollGamepads() {
+        for (int jid = 0; jid < JOYSTICKS; jid++) {
+            if (!gamepads[jid] || !glfwGetGamepadState(jid, gamepadState)) {
+                continue;
+            }
+            byte[] previousButtons = buttons[jid];
+            for (int button = 0; button < BUTTONS; button++) {
+                byte state = gamepadState.buttons(button);
+                if (state != previousButtons[button]) {
+                    previousButtons[button] = state;
+                    push(GAMEPAD_BUTTON, button, state, jid, 0, 0);
+                }
+            }
+            float[] previousAxes = axes[jid];
+            for (int axis = 0; axis < AXES; axis++) {
+                float value = gamepadState.axes(axis);
+                if (value != previousAxes[axis]) {
+                    previousAxes[axis] = value;
+                    push(GAMEPAD_AXIS, axis, 0, jid, value, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether any gamepad is connected, they have to be polled regularly then
+     */
+    public boolean hasGamepads() {
+        for (boolean connected : gamepads) {
+            if (connected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void connection(int jid, boolean connected) {
+        if (gamepads[jid] == connected) {
+            return;
+        }
+        gamepads[jid] = connected;
+        Arrays.fill(buttons[jid], (byte) GLFW_RELEASE);
+        Arrays.fill(axes[jid], 0);
+        push(GAMEPAD_CONNECTION, jid, connected ? GLFW_PRESS : GLFW_RELEASE, 0, 0, 0);
+    }
+
+    /**
+     * Appends an event, only to be called by the producing thread
+     */
+    public void push(int type, int code, int action, int mods, double x, double y) {
+        long position = head.getPlain();
+        if (position - cachedTail > mask) {
+            cachedTail = tail.getAcquire();
+            if (position - cachedTail > mask) {
+                dropped++;
+                return;
+            }
+        }
+        int index = (int) (position & mask) * STRIDE;
+        events[index] = System.nanoTime();
+        events[index + 1] = (long) type << 56 | (long) (action & 0xFF) << 48 | (long) (mods & 0xFFFF) << 32 | (code & 0xFFFFFFFFL);
+        events[index + 2] = Double.doubleToRawLongBits(x);
+        events[index + 3] = Double.doubleToRawLongBits(y);
+        head.setRelease(position + 1);
+    }
+
+    /**
+     * Passes every pushed event to the handler in order, only to be called by the consuming thread
+     *
+     * @return amount of events handled
+     */
+    public int drain(InputHandler handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Passes at most max pushed events to the handler in order, only to be called by the consuming thread
+     *
+     * @return amount of events handled
+     */
+    public int drain(InputHandler handler, int max) {
+        long position = tail.getPlain();
+        int count = (int) Math.min(head.getAcquire() - position, max);
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((position + i) & mask) * STRIDE;
+            long packed = events[index + 1];
+            handler.event((int) (packed >>> 56), (int) packed, (int) (packed >>> 48) & 0xFF, (int) (packed >>> 32) & 0xFFFF,
+                    Double.longBitsToDouble(events[index + 2]), Double.longBitsToDouble(events[index + 3]), events[index]);
+        }
+        // Slots are handed back after the whole batch, the handler reads them in place
+        tail.setRelease(position + count);
+        return count;
+    }
+
+    /**
+     * @return amount of events waiting to be drained
+     */
+    public int pending() {
+        return (int) (head.getAcquire() - tail.getAcquire());
+    }
+
+    /**
+     * @return amount of events dropped because the ring was full
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Removes the joystick callback and frees the gamepad state, the window callbacks are freed with the window
+     */
+    public void cleanup() {
+        var callback = glfwSetJoystickCallback(null);
+        if (callback != null) {
+            callback.free();
+        }
+        if (gamepadState != null) {
+            gamepadState.free();
+        }
+    }
+}
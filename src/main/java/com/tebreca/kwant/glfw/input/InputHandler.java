@@ -0,0 +1,14 @@
+package com.tebreca.kwant.glfw.input;
+
+/**
+ * Receives input events drained from {@link InputEvents}, see its constants for what the arguments mean per type
+ */
+@FunctionalInterface
+public interface InputHandler {
+
+    /**
+     * @param type one of the event types in {@link InputEvents}
+     * @param time {@link System#nanoTime()} at which GLFW reported the event
+     */
+    void event(int type, int code, int action, int mods, double x, double y, long time);
+}
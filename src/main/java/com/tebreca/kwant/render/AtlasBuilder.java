@@ -0,0 +1,429 @@
+package com.tebreca.kwant.render;
+
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.memory.GpuImage;
+import com.tebreca.kwant.vk.memory.MemoryUsage;
+import com.tebreca.kwant.vk.transfer.UploadService;
+import org.lwjgl.stb.STBRPContext;
+import org.lwjgl.stb.STBRPNode;
+import org.lwjgl.stb.STBRPRect;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkImageCreateInfo;
+import org.lwjgl.vulkan.VkImageViewCreateInfo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static org.lwjgl.stb.STBImage.*;
+import static org.lwjgl.stb.STBRectPack.stbrp_init_target;
+import static org.lwjgl.stb.STBRectPack.stbrp_pack_rects;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Decodes images with stb_image and packs them with stb_rect_pack into as few square pages as possible.
+ * <br><br>
+ * Every image is surrounded by a border repeating its edge pixels, so neither linear filtering nor lower mip levels
+ * bleed neighbouring images in. When a cache location is set the packed pages are written there as a raw blob next to
+ * a layout index, later builds with the same images map the blob and upload it as is, skipping decoding and packing.
+ */
+@SuppressWarnings("unused")
+public class AtlasBuilder {
+
+    private static final int MAGIC = 0x4b574154;
+    private static final int VERSION = 1;
+    private static final int CHANNELS = 4;
+
+    private final VulkanManager manager;
+    private final Map<String, File> images = new LinkedHashMap<>();
+    private int pageSize = 2048;
+    private int padding = 2;
+    private int format = VK_FORMAT_R8G8B8A8_SRGB;
+    @Nullable
+    private File cache = null;
+
+    public AtlasBuilder(VulkanManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @param name     name the region of the image is looked up by
+     * @param location location of any image format stb_image can decode
+     * @return this
+     */
+    public AtlasBuilder add(String name, String location) {
+        images.put(name, new File(location));
+        return this;
+    }
+
+    /**
+     * @param pageSize width and height of every page in pixels, 2048 by default
+     * @return this
+     */
+    public AtlasBuilder pageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param padding width of the border repeating the edge pixels around every image, 2 by default
+     * @return this
+     */
+    public AtlasBuilder padding(int padding) {
+        this.padding = padding;
+        return this;
+    }
+
+    /**
+     * @param format VkFormat of the pages, VK_FORMAT_R8G8B8A8_SRGB by default. The pixels are always 4 bytes RGBA.
+     * @return this
+     */
+    public AtlasBuilder format(int format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @param location base location of the cache, the blob and index are stored as location.bin and location.idx
+     * @return this
+     */
+    public AtlasBuilder cache(String location) {
+        this.cache = new File(location);
+        return this;
+    }
+
+    /**
+     * Packs and uploads the atlas on the workers, loading it from the cache instead when it matches the added images
+     *
+     * @return the atlas, once every page has been uploaded
+     */
+    public Mono<TextureAtlas> build() {
+        long key = key();
+        Mono<Packed> packed = Mono.defer(() -> {
+            Packed cached = cache != null ? load(key) : null;
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            DecodedImages decodedImages = new DecodedImages();
+            return Flux.fromIterable(images.entrySet())
+                    .index()
+                    .parallel()
+                    .runOn(manager.workers())
+                    .map(entry -> Tuples.of(entry.getT1(), decodedImages.add(decode(entry.getT2().getKey(), entry.getT2().getValue()))))
+                    .sequential()
+                    .collectSortedList(Comparator.comparingLong(Tuple2::getT1))
+                    // Packing frees the images, until then a failed decode has to free the ones that did succeed
+                    .doOnError(e -> decodedImages.free())
+                    .doOnCancel(decodedImages::free)
+                    .map(decoded -> pack(decoded.stream().map(Tuple2::getT2).toList()))
+                    .doOnNext(result -> {
+                        if (cache != null) {
+                            save(result, key);
+                        }
+                    });
+        }).subscribeOn(manager.workers());
+        return Mono.zip(packed, manager.uploads(), manager.virtualDevice())
+                .flatMap(tuple -> upload(tuple.getT1(), tuple.getT2(), tuple.getT3()));
+    }
+
+    private Mono<TextureAtlas> upload(Packed packed, UploadService uploads, VkDevice device) {
+        List<GpuImage> pages = new ArrayList<>();
+        long[] views = new long[packed.pageCount()];
+        List<Mono<GpuImage>> uploaded = new ArrayList<>();
+        int pageBytes = (int) pixelBytes(1);
+        try (var stack = MemoryStack.stackPush()) {
+            VkImageCreateInfo imageInfo = VkImageCreateInfo.calloc(stack).sType$Default()
+                    .imageType(VK_IMAGE_TYPE_2D)
+                    .format(format)
+                    .mipLevels(1)
+                    .arrayLayers(1)
+                    .samples(VK_SAMPLE_COUNT_1_BIT)
+                    .tiling(VK_IMAGE_TILING_OPTIMAL)
+                    .usage(VK_IMAGE_USAGE_SAMPLED_BIT | VK_IMAGE_USAGE_TRANSFER_DST_BIT)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE)
+                    .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED);
+            imageInfo.extent().set(pageSize, pageSize, 1);
+            VkImageViewCreateInfo viewInfo = VkImageViewCreateInfo.calloc(stack).sType$Default()
+                    .viewType(VK_IMAGE_VIEW_TYPE_2D)
+                    .format(format);
+            viewInfo.subresourceRange().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, 1, 0, 1);
+            var view = stack.callocLong(1);
+            for (int page = 0; page < packed.pageCount(); page++) {
+                GpuImage image = manager.memoryAllocator().image(imageInfo, MemoryUsage.GPU_ONLY);
+                pages.add(image);
+                VulkanUtils.assertResult(vkCreateImageView(device, viewInfo.image(image.handle()), null, view), "Failed to create atlas page view!");
+                views[page] = view.get(0);
+                uploaded.add(uploads.upload(image, packed.pixels().slice(page * pageBytes, pageBytes)));
+            }
+        } finally {
+            // The upload service copied the pixels already
+            packed.release().run();
+        }
+        TextureAtlas atlas = new TextureAtlas(device, manager.memoryAllocator(), pages, views, packed.regions());
+        manager.onCleanup().subscribe(instance -> atlas.destroy());
+        return Flux.merge(uploaded).then(Mono.just(atlas));
+    }
+
+    private Packed pack(List<Decoded> decoded) {
+        int count = decoded.size();
+        int[] page = new int[count];
+        int[] x = new int[count];
+        int[] y = new int[count];
+        try {
+            int pageCount = place(decoded, page, x, y);
+            ByteBuffer pixels = MemoryUtil.memCalloc((int) pixelBytes(pageCount));
+            Map<String, AtlasRegion> regions = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                Decoded image = decoded.get(i);
+                blit(image, pixels, page[i], x[i], y[i]);
+                regions.put(image.name(), AtlasRegion.of(page[i], x[i], y[i], image.width(), image.height(), pageSize));
+            }
+            return new Packed(pageCount, regions, pixels, () -> MemoryUtil.memFree(pixels));
+        } finally {
+            decoded.forEach(image -> stbi_image_free(image.pixels()));
+        }
+    }
+
+    /**
+     * Finds a spot for every image and its border, only looking at their sizes
+     *
+     * @param page receives the page of every image
+     * @param x    receives the x of every image within its page, past its border
+     * @param y    receives the y of every image within its page, past its border
+     * @return amount of pages needed
+     */
+    int place(List<Decoded> decoded, int[] page, int[] x, int[] y) {
+        int count = decoded.size();
+        int pageCount = 0;
+        for (Decoded image : decoded) {
+            if (image.width() + 2 * padding > pageSize || image.height() + 2 * padding > pageSize) {
+                throw new IllegalArgumentException("Image %s does not fit on a %dx%d atlas page".formatted(image.name(), pageSize, pageSize));
+            }
+        }
+
+        STBRPContext context = STBRPContext.calloc();
+        STBRPNode.Buffer nodes = STBRPNode.calloc(pageSize);
+        try {
+            List<Integer> remaining = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                remaining.add(i);
+            }
+            // Every pass fills one page with whatever fits, the rest moves on to the next
+            while (!remaining.isEmpty()) {
+                STBRPRect.Buffer rects = STBRPRect.calloc(remaining.size());
+                try {
+                    for (int i = 0; i < remaining.size(); i++) {
+                        Decoded image = decoded.get(remaining.get(i));
+                        rects.get(i).id(remaining.get(i)).w(image.width() + 2 * padding).h(image.height() + 2 * padding);
+                    }
+                    stbrp_init_target(context, pageSize, pageSize, nodes);
+                    stbrp_pack_rects(context, rects);
+                    remaining.clear();
+                    for (STBRPRect rect : rects) {
+                        if (rect.was_packed()) {
+                            page[rect.id()] = pageCount;
+                            x[rect.id()] = rect.x() + padding;
+                            y[rect.id()] = rect.y() + padding;
+                        } else {
+                            remaining.add(rect.id());
+                        }
+                    }
+                    pageCount++;
+                } finally {
+                    rects.free();
+                }
+            }
+            return pageCount;
+        } finally {
+            nodes.free();
+            context.free();
+        }
+    }
+
+    /**
+     * @return size of the given amount of pages, which has to fit a single buffer
+     */
+    private long pixelBytes(int pageCount) {
+        long size = (long) pageCount * pageSize * pageSize * CHANNELS;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("An atlas of %d %dx%d pages is larger than 2 GiB, use fewer or smaller pages".formatted(pageCount, pageSize, pageSize));
+        }
+        return size;
+    }
+
+    private static Decoded decode(String name, File file) {
+        try (var stack = MemoryStack.stackPush()) {
+            var width = stack.callocInt(1);
+            var height = stack.callocInt(1);
+            var channels = stack.callocInt(1);
+            ByteBuffer pixels = stbi_load(file.getPath(), width, height, channels, CHANNELS);
+            if (pixels == null) {
+                throw new RuntimeException("Failed to decode image %s: %s".formatted(file, stbi_failure_reason()));
+            }
+            return new Decoded(name, pixels, width.get(0), height.get(0));
+        }
+    }
+
+    /**
+     * Copies an image onto its page and repeats its edge pixels into the padding around it
+     */
+    void blit(Decoded image, ByteBuffer pixels, int page, int x, int y) {
+        long pageAddress = MemoryUtil.memAddress(pixels) + (long) page * pageSize * pageSize * CHANNELS;
+        long source = MemoryUtil.memAddress(image.pixels());
+        int width = image.width();
+        int rowBytes = width * CHANNELS;
+        for (int row = -padding; row < image.height() + padding; row++) {
+            long src = source + (long) Math.clamp(row, 0, image.height() - 1) * rowBytes;
+            long dst = pageAddress + ((long) (y + row) * pageSize + x) * CHANNELS;
+            MemoryUtil.memCopy(src, dst, rowBytes);
+            int left = MemoryUtil.memGetInt(src);
+            int right = MemoryUtil.memGetInt(src + rowBytes - CHANNELS);
+            for (int column = 1; column <= padding; column++) {
+                MemoryUtil.memPutInt(dst - (long) column * CHANNELS, left);
+                MemoryUtil.memPutInt(dst + rowBytes + (long) (column - 1) * CHANNELS, right);
+            }
+        }
+    }
+
+    /**
+     * @return a hash of everything that influences the packed result, to tell whether a cache is stale
+     */
+    private long key() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(12).putInt(pageSize).putInt(padding).putInt(VERSION).flip());
+            for (Map.Entry<String, File> entry : images.entrySet()) {
+                File file = entry.getValue();
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+                digest.update(ByteBuffer.allocate(16).putLong(file.length()).putLong(file.lastModified()).flip());
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be present on every JRE", e);
+        }
+    }
+
+    @Nullable
+    private Packed load(long key) {
+        File index = new File(cache.getPath() + ".idx");
+        File blob = new File(cache.getPath() + ".bin");
+        if (!index.isFile() || !blob.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+             FileChannel channel = FileChannel.open(blob.toPath(), StandardOpenOption.READ)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != key || in.readInt() != pageSize) {
+                return null;
+            }
+            int pageCount = in.readInt();
+            int regionCount = in.readInt();
+            Map<String, AtlasRegion> regions = new HashMap<>();
+            for (int i = 0; i < regionCount; i++) {
+                String name = in.readUTF();
+                regions.put(name, AtlasRegion.of(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), pageSize));
+            }
+            long size = pixelBytes(pageCount);
+            if (channel.size() != size) {
+                return null;
+            }
+            ByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new Packed(pageCount, regions, pixels, () -> {});
+        } catch (IOException e) {
+            System.out.printf("Ignoring unreadable atlas cache %s: %s%n", cache, e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(Packed packed, long key) {
+        File index = new File(cache.getPath() + ".idx");
+        File blob = new File(cache.getPath() + ".bin");
+        try {
+            File parent = index.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+            // The blob goes first, the index only exists once the blob it describes is complete
+            Files.deleteIfExists(index.toPath());
+            try (FileChannel channel = FileChannel.open(blob.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer pixels = packed.pixels().duplicate();
+                while (pixels.hasRemaining()) {
+                    channel.write(pixels);
+                }
+            }
+            File temp = new File(index.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(key);
+                out.writeInt(pageSize);
+                out.writeInt(packed.pageCount());
+                out.writeInt(packed.regions().size());
+                for (Map.Entry<String, AtlasRegion> entry : packed.regions().entrySet()) {
+                    AtlasRegion region = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(region.page());
+                    out.writeInt(region.x());
+                    out.writeInt(region.y());
+                    out.writeInt(region.width());
+                    out.writeInt(region.height());
+                }
+            }
+            Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.printf("Failed to write atlas cache %s: %s%n", cache, e.getMessage());
+        }
+    }
+
+    record Decoded(String name, ByteBuffer pixels, int width, int height) {
+
+    }
+
+    /**
+     * Every image decoded for one build, so they can be freed when decoding another one fails
+     */
+    private static final class DecodedImages {
+        private final List<Decoded> images = new ArrayList<>();
+        private boolean freed = false;
+
+        private synchronized Decoded add(Decoded image) {
+            if (freed) {
+                stbi_image_free(image.pixels());
+            } else {
+                images.add(image);
+            }
+            return image;
+        }
+
+        private synchronized void free() {
+            if (!freed) {
+                freed = true;
+                images.forEach(image -> stbi_image_free(image.pixels()));
+                images.clear();
+            }
+        }
+    }
+
+    /**
+     * @param pixels  every page after another, tightly packed RGBA
+     * @param release frees the pixels once uploaded
+     */
+    private record Packed(int pageCount, Map<String, AtlasRegion> regions, ByteBuffer pixels, Runnable release) {
+
+    }
+}
@@ -0,0 +1,14 @@
+package com.tebreca.kwant.render;
+
+/**
+ * Where an image ended up in a {@link TextureAtlas}, in pixels and in texture coordinates of its page
+ *
+ * @param page index of the atlas page holding the image
+ */
+public record AtlasRegion(int page, int x, int y, int width, int height, float u0, float v0, float u1, float v1) {
+
+    static AtlasRegion of(int page, int x, int y, int width, int height, int pageSize) {
+        float scale = 1.0f / pageSize;
+        return new AtlasRegion(page, x, y, width, height, x * scale, y * scale, (x + width) * scale, (y + height) * scale);
+    }
+}
@@ -0,0 +1,468 @@
+package com.tebreca.kwant.render;
+
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.compute.ComputeQueue;
+import com.tebreca.kwant.vk.frame.Frame;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import com.tebreca.kwant.vk.memory.MemoryUsage;
+import com.tebreca.kwant.vk.pipeline.ComputePipeline;
+import com.tebreca.kwant.vk.pipeline.GraphicsPipeline;
+import com.tebreca.kwant.vk.pipeline.PipelineBuilder;
+import com.tebreca.kwant.vk.shader.Shader;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import org.joml.Vector2i;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import static org.lwjgl.system.MemoryUtil.memPutFloat;
+import static org.lwjgl.system.MemoryUtil.memPutInt;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * 2D particles simulated and drawn entirely on the GPU.
+ * <br><br>
+ * Every frame a compute pass on the {@link ComputeQueue} moves the live particles of the previous frame, appends the
+ * survivors to a buffer of its own, compacting it, and appends the particles emitted since. The amount of live
+ * particles ends up in an indirect draw command, so the frame draws them as one instanced indirect draw and particle
+ * data never reaches the CPU. The CPU only writes the emitters of a frame.
+ * <br><br>
+ * There is one particle buffer more than there are frames in flight, so simulating a frame never writes what an
+ * earlier frame may still be drawing. Particles are drawn as 4 vertex triangle strips over the swapchain contents,
+ * see shaders/particle*.comp, shaders/particle.vert and shaders/particle.frag for the reference shaders and layouts.
+ * <br><br>
+ * {@link #emit} has to be called from the thread rendering the frames, between two frames.
+ */
+@SuppressWarnings("unused")
+public class ParticleSystem {
+
+    /**
+     * Bytes per particle: vec2 position, vec2 velocity, float life, float size, RGBA8 color, float lifetime
+     */
+    public static final int STRIDE = 32;
+
+    /**
+     * Bytes per emitter: vec2 position, float direction, spread, speed, lifetime, size, RGBA8 color, uint first, count
+     */
+    public static final int EMITTER_STRIDE = 40;
+
+    /**
+     * Maximum amount of {@link #emit} calls per frame
+     */
+    public static final int MAX_EMITTERS = 1024;
+
+    /**
+     * Bytes of push constants of the compute shaders: vec2 gravity, float delta, drag, uint capacity, emitters, spawned, seed
+     */
+    public static final int SETTINGS_SIZE = 32;
+
+    private static final int VIEW_SIZE = 16;
+    private static final int GROUP_SIZE = 64;
+    private static final int DRAW_SIZE = 16;
+    private static final int BUFFERS = 5;
+
+    private final VkDevice device;
+    private final FrameLoop frameLoop;
+    private final SwapChainManager swapChain;
+    private final MemoryAllocator allocator;
+    private final GraphicsPipeline pipeline;
+    private final ComputePipeline simulate;
+    private final ComputePipeline emit;
+    private final long layout;
+    private final long computeLayout;
+    private final long descriptorPool;
+    private final int capacity;
+
+    private final GpuBuffer[] particles;
+    private final GpuBuffer[] draws;
+    private final GpuBuffer[] emitters;
+    private final long[] emitterAddresses;
+    private final long[] descriptorSets;
+
+    private long emitterFrame = -1;
+    private int emitterCount;
+    private int spawnCount;
+    private boolean initialized = false;
+    private long lastSimulated = -1;
+
+    private float gravityX;
+    private float gravityY;
+    private float drag;
+    private float cameraX;
+    private float cameraY;
+
+    private final VkMemoryBarrier2.Buffer barrier;
+    private final VkDependencyInfo dependency;
+    private final IntBuffer drawReset;
+    private final ByteBuffer settings;
+    private final ByteBuffer view;
+    private final LongBuffer boundSet;
+    private final VkRenderingAttachmentInfo.Buffer colorAttachment;
+    private final VkRenderingInfo renderingInfo;
+    private final VkViewport.Buffer viewport;
+    private final VkRect2D.Buffer scissor;
+    private final LongBuffer vertexBuffers;
+    private final LongBuffer vertexOffsets;
+
+    private ParticleSystem(VkDevice device, VulkanManager manager, FrameLoop frameLoop, SwapChainManager swapChain, ComputeQueue compute,
+                           GraphicsPipeline pipeline, ComputePipeline simulate, ComputePipeline emit,
+                           long layout, long computeLayout, long setLayout, int capacity) {
+        this.device = device;
+        this.frameLoop = frameLoop;
+        this.swapChain = swapChain;
+        this.allocator = manager.memoryAllocator();
+        this.pipeline = pipeline;
+        this.simulate = simulate;
+        this.emit = emit;
+        this.layout = layout;
+        this.computeLayout = computeLayout;
+        this.capacity = capacity;
+
+        int slots = frameLoop.framesInFlight() + 1;
+        particles = new GpuBuffer[slots];
+        draws = new GpuBuffer[slots];
+        emitters = new GpuBuffer[slots];
+        emitterAddresses = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            // Written on the compute queue and read by rendering, shared so neither has to transfer ownership.
+            // Pinned, the descriptor sets hold on to their handles.
+            particles[i] = allocator.sharedBuffer((long) capacity * STRIDE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_VERTEX_BUFFER_BIT,
+                    MemoryUsage.GPU_ONLY, compute.families()).pin();
+            draws[i] = allocator.sharedBuffer(DRAW_SIZE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
+                    MemoryUsage.GPU_ONLY, compute.families()).pin();
+            emitters[i] = allocator.buffer((long) MAX_EMITTERS * EMITTER_STRIDE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, MemoryUsage.CPU_TO_GPU);
+            emitterAddresses[i] = MemoryUtil.memAddress(emitters[i].mapped());
+        }
+        descriptorPool = createDescriptorPool(slots);
+        descriptorSets = allocateDescriptorSets(setLayout, slots);
+
+        barrier = VkMemoryBarrier2.calloc(1);
+        dependency = VkDependencyInfo.calloc().sType$Default().pMemoryBarriers(barrier);
+        drawReset = MemoryUtil.memCallocInt(4).put(0, 4);
+        settings = MemoryUtil.memCalloc(SETTINGS_SIZE);
+        view = MemoryUtil.memCalloc(VIEW_SIZE);
+        boundSet = MemoryUtil.memCallocLong(1);
+
+        colorAttachment = VkRenderingAttachmentInfo.calloc(1);
+        colorAttachment.get(0).sType$Default()
+                .imageLayout(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL)
+                .loadOp(VK_ATTACHMENT_LOAD_OP_LOAD)
+                .storeOp(VK_ATTACHMENT_STORE_OP_STORE);
+        renderingInfo = VkRenderingInfo.calloc().sType$Default()
+                .layerCount(1)
+                .pColorAttachments(colorAttachment);
+        viewport = VkViewport.calloc(1);
+        viewport.get(0).maxDepth(1.0f);
+        scissor = VkRect2D.calloc(1);
+        vertexBuffers = MemoryUtil.memCallocLong(1);
+        vertexOffsets = MemoryUtil.memCallocLong(1);
+    }
+
+    /**
+     * Creates a particle system drawing over the swapchain contents, simulating and recording itself every frame once
+     * created
+     *
+     * @param simulate compute shader moving and compacting the particles, see shaders/particle_simulate.comp
+     * @param emit     compute shader appending emitted particles, see shaders/particle_emit.comp
+     * @param vertex   vertex shader reading the instance layout described by {@link #STRIDE}
+     * @param fragment fragment shader writing to one color attachment
+     * @param capacity maximum amount of live particles
+     */
+    public static Mono<ParticleSystem> create(VulkanManager manager, Shader simulate, Shader emit, Shader vertex, Shader fragment, int capacity) {
+        return Mono.zip(manager.virtualDevice(), manager.frameLoop(), manager.swapChainManager(), manager.computeQueue()).flatMap(tuple -> {
+            VkDevice device = tuple.getT1();
+            long setLayout = manager.descriptorLayouts().layout(VK_SHADER_STAGE_COMPUTE_BIT,
+                    VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER,
+                    VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER);
+            long computeLayout = createLayout(device, VK_SHADER_STAGE_COMPUTE_BIT, SETTINGS_SIZE, setLayout);
+            long layout = createLayout(device, VK_SHADER_STAGE_VERTEX_BIT, VIEW_SIZE);
+
+            PipelineBuilder builder = manager.pipeline()
+                    .withShader(vertex)
+                    .withShader(fragment)
+                    .layout(layout)
+                    .colorFormats(tuple.getT3().format())
+                    .alphaBlending();
+            PipelineBuilder.VertexInputStageConfigurator input = builder.vertexInput();
+            input.instance(0, STRIDE, 0, 0, VK_FORMAT_R32G32_SFLOAT);
+            input.instance(0, STRIDE, 1, 16, VK_FORMAT_R32_SFLOAT);
+            input.instance(0, STRIDE, 2, 20, VK_FORMAT_R32_SFLOAT);
+            input.instance(0, STRIDE, 3, 24, VK_FORMAT_R8G8B8A8_UNORM);
+            input.instance(0, STRIDE, 4, 28, VK_FORMAT_R32_SFLOAT);
+            input.submit();
+            builder.vertexAssembly().topology(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_STRIP).submit();
+
+            return Mono.zip(builder.build(),
+                            manager.computePipeline().shader(simulate).layout(computeLayout).build(),
+                            manager.computePipeline().shader(emit).layout(computeLayout).build())
+                    .doOnError(e -> {
+                        vkDestroyPipelineLayout(device, layout, null);
+                        vkDestroyPipelineLayout(device, computeLayout, null);
+                    })
+                    .map(pipelines -> {
+                        ComputeQueue compute = tuple.getT4();
+                        ParticleSystem system = new ParticleSystem(device, manager, tuple.getT2(), tuple.getT3(), compute,
+                                pipelines.getT1(), pipelines.getT2(), pipelines.getT3(), layout, computeLayout, setLayout, capacity);
+                        compute.everyFrame(system::simulate);
+                        tuple.getT2().onRecord(system::record);
+                        manager.onCleanup().subscribe(instance -> system.destroy());
+                        return system;
+                    });
+        });
+    }
+
+    private static long createLayout(VkDevice device, int stage, int pushConstantSize, long... setLayouts) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkPushConstantRange.Buffer range = VkPushConstantRange.calloc(1, stack);
+            range.get(0).stageFlags(stage).offset(0).size(pushConstantSize);
+            VkPipelineLayoutCreateInfo createInfo = VkPipelineLayoutCreateInfo.calloc(stack).sType$Default()
+                    .pSetLayouts(stack.longs(setLayouts))
+                    .pPushConstantRanges(range);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreatePipelineLayout(device, createInfo, null, handle), "Failed to create particle pipeline layout!");
+            return handle.get(0);
+        }
+    }
+
+    private long createDescriptorPool(int slots) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkDescriptorPoolSize.Buffer size = VkDescriptorPoolSize.calloc(1, stack);
+            size.get(0).type(VK_DESCRIPTOR_TYPE_STORAGE_BUFFER).descriptorCount(slots * BUFFERS);
+            VkDescriptorPoolCreateInfo createInfo = VkDescriptorPoolCreateInfo.calloc(stack).sType$Default()
+                    .maxSets(slots)
+                    .pPoolSizes(size);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateDescriptorPool(device, createInfo, null, handle), "Failed to create particle descriptor pool!");
+            return handle.get(0);
+        }
+    }
+
+    /**
+     * One set per slot, reading the particles of the slot before it and writing its own
+     */
+    private long[] allocateDescriptorSets(long setLayout, int slots) {
+        try (var stack = MemoryStack.stackPush()) {
+            LongBuffer layouts = stack.mallocLong(slots);
+            for (int i = 0; i < slots; i++) {
+                layouts.put(i, setLayout);
+            }
+            VkDescriptorSetAllocateInfo allocateInfo = VkDescriptorSetAllocateInfo.calloc(stack).sType$Default()
+                    .descriptorPool(descriptorPool)
+                    .pSetLayouts(layouts);
+            LongBuffer sets = stack.mallocLong(slots);
+            VulkanUtils.assertResult(vkAllocateDescriptorSets(device, allocateInfo, sets), "Failed to allocate particle descriptor sets!");
+
+            VkDescriptorBufferInfo.Buffer infos = VkDescriptorBufferInfo.calloc(slots * BUFFERS, stack);
+            VkWriteDescriptorSet.Buffer writes = VkWriteDescriptorSet.calloc(slots * BUFFERS, stack);
+            long[] result = new long[slots];
+            for (int i = 0; i < slots; i++) {
+                int previous = (i + slots - 1) % slots;
+                GpuBuffer[] bound = {particles[previous], draws[previous], particles[i], draws[i], emitters[i]};
+                for (int binding = 0; binding < BUFFERS; binding++) {
+                    int index = i * BUFFERS + binding;
+                    infos.get(index).buffer(bound[binding].handle()).offset(0).range(VK_WHOLE_SIZE);
+                    writes.get(index).sType$Default()
+                            .dstSet(sets.get(i))
+                            .dstBinding(binding)
+                            .descriptorType(VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)
+                            .descriptorCount(1)
+                            .pBufferInfo(VkDescriptorBufferInfo.create(infos.address(index), 1));
+                }
+                result[i] = sets.get(i);
+            }
+            vkUpdateDescriptorSets(device, writes, null);
+            return result;
+        }
+    }
+
+    /**
+     * Emits particles in the next frame, spreading out from a point
+     *
+     * @param x         position in pixels
+     * @param y         position in pixels
+     * @param count     amount of particles, those beyond the capacity are dropped
+     * @param direction average direction of movement, counter clockwise in radians
+     * @param spread    angle the directions are spread over, in radians. 2 pi emits in every direction
+     * @param speed     average speed in pixels per second
+     * @param lifetime  average seconds a particle lives, fading out over that time
+     * @param size      width and height in pixels
+     * @param color     as 0xRRGGBBAA
+     * @return this
+     */
+    public ParticleSystem emit(float x, float y, int count, float direction, float spread, float speed, float lifetime, float size, int color) {
+        long frame = frameLoop.frameNumber();
+        if (emitterFrame != frame) {
+            emitterFrame = frame;
+            emitterCount = 0;
+            spawnCount = 0;
+        }
+        if (emitterCount == MAX_EMITTERS) {
+            throw new IllegalStateException("A particle system takes at most %d emitters per frame".formatted(MAX_EMITTERS));
+        }
+        if (count <= 0) {
+            return this;
+        }
+        long address = emitterAddresses[(int) (frame % emitters.length)] + (long) emitterCount * EMITTER_STRIDE;
+        memPutFloat(address, x);
+        memPutFloat(address + 4, y);
+        memPutFloat(address + 8, direction);
+        memPutFloat(address + 12, spread);
+        memPutFloat(address + 16, speed);
+        memPutFloat(address + 20, lifetime);
+        memPutFloat(address + 24, size);
+        // R8G8B8A8 in memory order, the buffer is little endian
+        memPutInt(address + 28, Integer.reverseBytes(color));
+        memPutInt(address + 32, spawnCount);
+        memPutInt(address + 36, count);
+        emitterCount++;
+        spawnCount = (int) Math.min((long) spawnCount + count, capacity);
+        return this;
+    }
+
+    /**
+     * @param x acceleration in pixels per second squared
+     * @param y acceleration in pixels per second squared
+     * @return this
+     */
+    public ParticleSystem gravity(float x, float y) {
+        this.gravityX = x;
+        this.gravityY = y;
+        return this;
+    }
+
+    /**
+     * @param drag fraction of velocity lost per second, 0 by default
+     * @return this
+     */
+    public ParticleSystem drag(float drag) {
+        this.drag = drag;
+        return this;
+    }
+
+    /**
+     * Moves the view, the pixel at the given position ends up in the top left corner
+     *
+     * @return this
+     */
+    public ParticleSystem camera(float x, float y) {
+        this.cameraX = x;
+        this.cameraY = y;
+        return this;
+    }
+
+    /**
+     * @return maximum amount of live particles
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private void simulate(Frame frame, VkCommandBuffer commandBuffer) {
+        int slots = particles.length;
+        int slot = (int) (frame.number() % slots);
+        int previous = (slot + slots - 1) % slots;
+        long now = System.nanoTime();
+        float delta = lastSimulated < 0 ? 0 : Math.min((now - lastSimulated) / 1e9f, 0.1f);
+        lastSimulated = now;
+
+        // Orders against the simulation of the previous frame, submitted earlier on this queue
+        barrier(commandBuffer, VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_WRITE_BIT,
+                VK_PIPELINE_STAGE_2_ALL_TRANSFER_BIT, VK_ACCESS_2_TRANSFER_WRITE_BIT);
+        if (!initialized) {
+            vkCmdUpdateBuffer(commandBuffer, draws[previous].handle(), 0, drawReset);
+            initialized = true;
+        }
+        vkCmdUpdateBuffer(commandBuffer, draws[slot].handle(), 0, drawReset);
+        barrier(commandBuffer, VK_PIPELINE_STAGE_2_ALL_TRANSFER_BIT | VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_TRANSFER_WRITE_BIT | VK_ACCESS_2_SHADER_WRITE_BIT,
+                VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_READ_BIT | VK_ACCESS_2_SHADER_WRITE_BIT);
+
+        boolean emitting = emitterFrame == frame.number() && spawnCount > 0;
+        settings.putFloat(0, gravityX)
+                .putFloat(4, gravityY)
+                .putFloat(8, delta)
+                .putFloat(12, drag)
+                .putInt(16, capacity)
+                .putInt(20, emitting ? emitterCount : 0)
+                .putInt(24, emitting ? spawnCount : 0)
+                .putInt(28, (int) frame.number() * 0x9E3779B9);
+        boundSet.put(0, descriptorSets[slot]);
+        vkCmdBindDescriptorSets(commandBuffer, VK_PIPELINE_BIND_POINT_COMPUTE, computeLayout, 0, boundSet, null);
+        vkCmdPushConstants(commandBuffer, computeLayout, VK_SHADER_STAGE_COMPUTE_BIT, 0, settings);
+        vkCmdBindPipeline(commandBuffer, VK_PIPELINE_BIND_POINT_COMPUTE, simulate.pointer());
+        vkCmdDispatch(commandBuffer, (capacity + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+
+        if (emitting) {
+            emitters[slot].flush(0, (long) emitterCount * EMITTER_STRIDE);
+            barrier(commandBuffer, VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_WRITE_BIT,
+                    VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_READ_BIT | VK_ACCESS_2_SHADER_WRITE_BIT);
+            vkCmdBindPipeline(commandBuffer, VK_PIPELINE_BIND_POINT_COMPUTE, emit.pointer());
+            vkCmdDispatch(commandBuffer, (spawnCount + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+        }
+    }
+
+    private void barrier(VkCommandBuffer commandBuffer, long srcStages, long srcAccess, long dstStages, long dstAccess) {
+        barrier.get(0).sType$Default()
+                .srcStageMask(srcStages)
+                .srcAccessMask(srcAccess)
+                .dstStageMask(dstStages)
+                .dstAccessMask(dstAccess);
+        vkCmdPipelineBarrier2(commandBuffer, dependency);
+    }
+
+    private void record(Frame frame, VkCommandBuffer commandBuffer, int image) {
+        int slot = (int) (frame.number() % particles.length);
+        Vector2i extent = swapChain.extent();
+
+        colorAttachment.get(0).imageView(swapChain.imageView(image));
+        renderingInfo.renderArea().extent().set(extent.x, extent.y);
+        vkCmdBeginRendering(commandBuffer, renderingInfo);
+        viewport.get(0).width(extent.x).height(extent.y);
+        scissor.get(0).extent().set(extent.x, extent.y);
+        vkCmdBindPipeline(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.pointer());
+        vkCmdSetViewport(commandBuffer, 0, viewport);
+        vkCmdSetScissor(commandBuffer, 0, scissor);
+        view.putFloat(0, 2.0f / extent.x)
+                .putFloat(4, 2.0f / extent.y)
+                .putFloat(8, cameraX)
+                .putFloat(12, cameraY);
+        vkCmdPushConstants(commandBuffer, layout, VK_SHADER_STAGE_VERTEX_BIT, 0, view);
+        vertexBuffers.put(0, particles[slot].handle());
+        vkCmdBindVertexBuffers(commandBuffer, 0, vertexBuffers, vertexOffsets);
+        vkCmdDrawIndirect(commandBuffer, draws[slot].handle(), 0, 1, DRAW_SIZE);
+        vkCmdEndRendering(commandBuffer);
+    }
+
+    private void destroy() {
+        for (int i = 0; i < particles.length; i++) {
+            allocator.destroy(particles[i]);
+            allocator.destroy(draws[i]);
+            allocator.destroy(emitters[i]);
+        }
+        vkDestroyDescriptorPool(device, descriptorPool, null);
+        vkDestroyPipeline(device, pipeline.pointer(), null);
+        vkDestroyPipeline(device, simulate.pointer(), null);
+        vkDestroyPipeline(device, emit.pointer(), null);
+        vkDestroyPipelineLayout(device, layout, null);
+        vkDestroyPipelineLayout(device, computeLayout, null);
+        barrier.free();
+        dependency.free();
+        MemoryUtil.memFree(drawReset);
+        MemoryUtil.memFree(settings);
+        MemoryUtil.memFree(view);
+        MemoryUtil.memFree(boundSet);
+        colorAttachment.free();
+        renderingInfo.free();
+        viewport.free();
+        scissor.free();
+        MemoryUtil.memFree(vertexBuffers);
+        MemoryUtil.memFree(vertexOffsets);
+    }
+}
@@ -0,0 +1,338 @@
+package com.tebreca.kwant.render;
+
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.descriptor.BindlessTextures;
+import com.tebreca.kwant.vk.frame.Frame;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import com.tebreca.kwant.vk.memory.MemoryUsage;
+import com.tebreca.kwant.vk.pipeline.GraphicsPipeline;
+import com.tebreca.kwant.vk.pipeline.PipelineBuilder;
+import com.tebreca.kwant.vk.shader.Shader;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import org.joml.Vector2i;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import static org.lwjgl.system.MemoryUtil.memPutFloat;
+import static org.lwjgl.system.MemoryUtil.memPutInt;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Draws any amount of sprites in a single instanced draw call per frame.
+ * <br><br>
+ * Every sprite is one instance, written straight into a persistently mapped vertex buffer without allocating. The
+ * batch keeps one buffer more than there are frames in flight, so the buffer written between two frames is never
+ * read by the GPU at the same time. Sprites are drawn as 4 vertex triangle strips, the vertex shader expands them
+ * from the instance data, see shaders/sprite.vert and shaders/sprite.frag for the reference shaders and layout.
+ * <br><br>
+ * {@link #begin()}, {@link #draw} and {@link #end()} have to be called from the thread rendering the frames, between
+ * two frames.
+ */
+@SuppressWarnings("unused")
+public class SpriteBatch {
+
+    /**
+     * Bytes per sprite: vec2 position, vec2 size, float rotation, uint texture, vec4 uv rect, RGBA8 tint and padding
+     */
+    public static final int STRIDE = 48;
+
+    private static final int PUSH_CONSTANT_SIZE = 16;
+
+    private final VkDevice device;
+    private final FrameLoop frameLoop;
+    private final SwapChainManager swapChain;
+    private final MemoryAllocator allocator;
+    private final GraphicsPipeline pipeline;
+    private final long layout;
+    private final int capacity;
+
+    private final GpuBuffer[] instances;
+    private final long[] addresses;
+    private final int[] counts;
+    private final long[] slotFrames;
+
+    private int slot;
+    private long cursor;
+    private int count;
+
+    private float cameraX;
+    private float cameraY;
+
+    private final VkRenderingAttachmentInfo.Buffer colorAttachment;
+    private final VkRenderingInfo renderingInfo;
+    private final VkViewport.Buffer viewport;
+    private final VkRect2D.Buffer scissor;
+    private final LongBuffer vertexBuffers;
+    private final LongBuffer vertexOffsets;
+    private final LongBuffer descriptorSets;
+    private final ByteBuffer pushConstants;
+
+    private SpriteBatch(VkDevice device, VulkanManager manager, FrameLoop frameLoop, SwapChainManager swapChain, GraphicsPipeline pipeline, long layout, int capacity) {
+        this.device = device;
+        this.frameLoop = frameLoop;
+        this.swapChain = swapChain;
+        this.allocator = manager.memoryAllocator();
+        this.pipeline = pipeline;
+        this.layout = layout;
+        this.capacity = capacity;
+
+        int slots = frameLoop.framesInFlight() + 1;
+        instances = new GpuBuffer[slots];
+        addresses = new long[slots];
+        counts = new int[slots];
+        slotFrames = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            instances[i] = allocator.buffer((long) capacity * STRIDE, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, MemoryUsage.CPU_TO_GPU);
+            addresses[i] = MemoryUtil.memAddress(instances[i].mapped());
+            slotFrames[i] = -1;
+        }
+
+        colorAttachment = VkRenderingAttachmentInfo.calloc(1);
+        colorAttachment.get(0).sType$Default()
+                .imageLayout(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL)
+                .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
+                .storeOp(VK_ATTACHMENT_STORE_OP_STORE);
+        renderingInfo = VkRenderingInfo.calloc().sType$Default()
+                .layerCount(1)
+                .pColorAttachments(colorAttachment);
+        viewport = VkViewport.calloc(1);
+        viewport.get(0).maxDepth(1.0f);
+        scissor = VkRect2D.calloc(1);
+        vertexBuffers = MemoryUtil.memCallocLong(1);
+        vertexOffsets = MemoryUtil.memCallocLong(1);
+        descriptorSets = MemoryUtil.memCallocLong(1);
+        pushConstants = MemoryUtil.memCalloc(PUSH_CONSTANT_SIZE);
+        clearColor(0, 0, 0, 1);
+    }
+
+    /**
+     * Creates a sprite batch rendering to the swapchain, recording itself every frame once created
+     *
+     * @param vertex     vertex shader reading the instance layout described by {@link #STRIDE}
+     * @param fragment   fragment shader writing to one color attachment
+     * @param capacity   maximum amount of sprites per frame
+     * @param setLayouts VkDescriptorSetLayouts of the pipeline layout, for example the textures the fragment shader samples
+     */
+    public static Mono<SpriteBatch> create(VulkanManager manager, Shader vertex, Shader fragment, int capacity, long... setLayouts) {
+        return Mono.zip(manager.virtualDevice(), manager.frameLoop(), manager.swapChainManager()).flatMap(tuple -> {
+            VkDevice device = tuple.getT1();
+            long layout = createLayout(device, setLayouts);
+            PipelineBuilder builder = manager.pipeline()
+                    .withShader(vertex)
+                    .withShader(fragment)
+                    .layout(layout)
+                    .colorFormats(tuple.getT3().format())
+                    .alphaBlending();
+            PipelineBuilder.VertexInputStageConfigurator input = builder.vertexInput();
+            input.instance(0, STRIDE, 0, 0, VK_FORMAT_R32G32_SFLOAT);
+            input.instance(0, STRIDE, 1, 8, VK_FORMAT_R32G32_SFLOAT);
+            input.instance(0, STRIDE, 2, 16, VK_FORMAT_R32_SFLOAT);
+            input.instance(0, STRIDE, 3, 20, VK_FORMAT_R32_UINT);
+            input.instance(0, STRIDE, 4, 24, VK_FORMAT_R32G32B32A32_SFLOAT);
+            input.instance(0, STRIDE, 5, 40, VK_FORMAT_R8G8B8A8_UNORM);
+            input.submit();
+            builder.vertexAssembly().topology(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_STRIP).submit();
+
+            return builder.build()
+                    .doOnError(e -> vkDestroyPipelineLayout(device, layout, null))
+                    .map(pipeline -> {
+                        SpriteBatch batch = new SpriteBatch(device, manager, tuple.getT2(), tuple.getT3(), pipeline, layout, capacity);
+                        tuple.getT2().onRecord(batch::record);
+                        manager.onCleanup().subscribe(instance -> batch.destroy());
+                        return batch;
+                    });
+        });
+    }
+
+    private static long createLayout(VkDevice device, long[] setLayouts) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkPushConstantRange.Buffer range = VkPushConstantRange.calloc(1, stack);
+            range.get(0).stageFlags(VK_SHADER_STAGE_VERTEX_BIT).offset(0).size(PUSH_CONSTANT_SIZE);
+            VkPipelineLayoutCreateInfo createInfo = VkPipelineLayoutCreateInfo.calloc(stack).sType$Default()
+                    .pSetLayouts(stack.longs(setLayouts))
+                    .pPushConstantRanges(range);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreatePipelineLayout(device, createInfo, null, handle), "Failed to create sprite pipeline layout!");
+            return handle.get(0);
+        }
+    }
+
+    /**
+     * Starts collecting the sprites of the next frame, discarding whatever was drawn for it before
+     *
+     * @return this
+     */
+    public SpriteBatch begin() {
+        long frame = frameLoop.frameNumber();
+        slot = (int) (frame % instances.length);
+        slotFrames[slot] = frame;
+        cursor = addresses[slot];
+        count = 0;
+        return this;
+    }
+
+    /**
+     * Draws a sprite covering its whole texture, without rotation or tint
+     *
+     * @param x center of the sprite in pixels
+     * @param y center of the sprite in pixels
+     * @return this
+     */
+    public SpriteBatch draw(float x, float y, float width, float height, int texture) {
+        return draw(x, y, width, height, 0, texture, 0, 0, 1, 1, 0xFFFFFFFF);
+    }
+
+    /**
+     * @param x        center of the sprite in pixels
+     * @param y        center of the sprite in pixels
+     * @param rotation counter clockwise around the center, in radians
+     * @param texture  index of the texture in the array the fragment shader samples
+     * @param tint     multiplied with the texture, as 0xRRGGBBAA
+     * @return this
+     */
+    public SpriteBatch draw(float x, float y, float width, float height, float rotation, int texture,
+                            float u0, float v0, float u1, float v1, int tint) {
+        if (count == capacity) {
+            throw new IllegalStateException("Sprite batch is full, it holds %d sprites per frame".formatted(capacity));
+        }
+        long address = cursor;
+        memPutFloat(address, x);
+        memPutFloat(address + 4, y);
+        memPutFloat(address + 8, width);
+        memPutFloat(address + 12, height);
+        memPutFloat(address + 16, rotation);
+        memPutInt(address + 20, texture);
+        memPutFloat(address + 24, u0);
+        memPutFloat(address + 28, v0);
+        memPutFloat(address + 32, u1);
+        memPutFloat(address + 36, v1);
+        // R8G8B8A8 in memory order, the buffer is little endian
+        memPutInt(address + 40, Integer.reverseBytes(tint));
+        cursor = address + STRIDE;
+        count++;
+        return this;
+    }
+
+    /**
+     * Hands the sprites drawn since {@link #begin()} to the next frame
+     *
+     * @return this
+     */
+    public SpriteBatch end() {
+        counts[slot] = count;
+        if (count > 0) {
+            instances[slot].flush(0, (long) count * STRIDE);
+        }
+        return this;
+    }
+
+    /**
+     * Moves the view, the pixel at the given position ends up in the top left corner
+     *
+     * @return this
+     */
+    public SpriteBatch camera(float x, float y) {
+        this.cameraX = x;
+        this.cameraY = y;
+        return this;
+    }
+
+    /**
+     * @param descriptorSet VkDescriptorSet bound at set 0 while drawing, holding the textures sprites refer to
+     * @return this
+     */
+    public SpriteBatch descriptorSet(long descriptorSet) {
+        descriptorSets.put(0, descriptorSet);
+        return this;
+    }
+
+    /**
+     * Draws with the bindless texture table, the pipeline layout has to be created with {@link BindlessTextures#layout()}
+     * at set 0. The texture of every sprite is then its index in the table, any mix of textures is drawn in one call.
+     *
+     * @return this
+     */
+    public SpriteBatch textures(BindlessTextures textures) {
+        return descriptorSet(textures.descriptorSet());
+    }
+
+    /**
+     * Clears the swapchain image before drawing, to black by default
+     *
+     * @return this
+     */
+    public SpriteBatch clearColor(float r, float g, float b, float a) {
+        colorAttachment.get(0).loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR).clearValue().color().float32(0, r).float32(1, g).float32(2, b).float32(3, a);
+        return this;
+    }
+
+    /**
+     * Draws over whatever earlier recorders rendered instead of clearing
+     *
+     * @return this
+     */
+    public SpriteBatch keepContents() {
+        colorAttachment.get(0).loadOp(VK_ATTACHMENT_LOAD_OP_LOAD);
+        return this;
+    }
+
+    /**
+     * @return maximum amount of sprites per frame
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private void record(Frame frame, VkCommandBuffer commandBuffer, int image) {
+        int recorded = (int) (frame.number() % instances.length);
+        int sprites = slotFrames[recorded] == frame.number() ? counts[recorded] : 0;
+        Vector2i extent = swapChain.extent();
+
+        colorAttachment.get(0).imageView(swapChain.imageView(image));
+        renderingInfo.renderArea().extent().set(extent.x, extent.y);
+        vkCmdBeginRendering(commandBuffer, renderingInfo);
+        if (sprites > 0) {
+            viewport.get(0).width(extent.x).height(extent.y);
+            scissor.get(0).extent().set(extent.x, extent.y);
+            vkCmdBindPipeline(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.pointer());
+            vkCmdSetViewport(commandBuffer, 0, viewport);
+            vkCmdSetScissor(commandBuffer, 0, scissor);
+            if (descriptorSets.get(0) != VK_NULL_HANDLE) {
+                vkCmdBindDescriptorSets(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, layout, 0, descriptorSets, null);
+            }
+            pushConstants.putFloat(0, 2.0f / extent.x)
+                    .putFloat(4, 2.0f / extent.y)
+                    .putFloat(8, cameraX)
+                    .putFloat(12, cameraY);
+            vkCmdPushConstants(commandBuffer, layout, VK_SHADER_STAGE_VERTEX_BIT, 0, pushConstants);
+            vertexBuffers.put(0, instances[recorded].handle());
+            vkCmdBindVertexBuffers(commandBuffer, 0, vertexBuffers, vertexOffsets);
+            vkCmdDraw(commandBuffer, 4, sprites, 0, 0);
+        }
+        vkCmdEndRendering(commandBuffer);
+    }
+
+    private void destroy() {
+        for (GpuBuffer buffer : instances) {
+            allocator.destroy(buffer);
+        }
+        vkDestroyPipeline(device, pipeline.pointer(), null);
+        vkDestroyPipelineLayout(device, layout, null);
+        colorAttachment.free();
+        renderingInfo.free();
+        viewport.free();
+        scissor.free();
+        MemoryUtil.memFree(vertexBuffers);
+        MemoryUtil.memFree(vertexOffsets);
+        MemoryUtil.memFree(descriptorSets);
+        MemoryUtil.memFree(pushConstants);
+    }
+}
@@ -0,0 +1,76 @@
+package com.tebreca.kwant.render;
+
+import com.tebreca.kwant.vk.memory.GpuImage;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import org.lwjgl.vulkan.VkDevice;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.lwjgl.vulkan.VK13.vkDestroyImageView;
+
+/**
+ * Images packed into one or more pages, every page being a single sampled GPU image.
+ * Created through {@link AtlasBuilder}.
+ */
+@SuppressWarnings("unused")
+public class TextureAtlas {
+
+    private final VkDevice device;
+    private final MemoryAllocator allocator;
+    private final List<GpuImage> pages;
+    private final long[] imageViews;
+    private final Map<String, AtlasRegion> regions;
+    private boolean destroyed = false;
+
+    TextureAtlas(VkDevice device, MemoryAllocator allocator, List<GpuImage> pages, long[] imageViews, Map<String, AtlasRegion> regions) {
+        this.device = device;
+        this.allocator = allocator;
+        this.pages = List.copyOf(pages);
+        this.imageViews = imageViews;
+        this.regions = Map.copyOf(regions);
+    }
+
+    /**
+     * @param name name the image was added to the builder with
+     * @return the region of that image, the same across launches for as long as the atlas is cached
+     */
+    public AtlasRegion region(String name) {
+        AtlasRegion region = regions.get(name);
+        if (region == null) {
+            throw new NoSuchElementException("No image named %s in this atlas".formatted(name));
+        }
+        return region;
+    }
+
+    public Map<String, AtlasRegion> regions() {
+        return regions;
+    }
+
+    public int pageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return the image of a page, in VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL
+     */
+    public GpuImage page(int page) {
+        return pages.get(page);
+    }
+
+    public long imageView(int page) {
+        return imageViews[page];
+    }
+
+    public synchronized void destroy() {
+        if (destroyed) {
+            return;
+        }
+        destroyed = true;
+        for (int i = 0; i < pages.size(); i++) {
+            vkDestroyImageView(device, imageViews[i], null);
+            allocator.destroy(pages.get(i));
+        }
+    }
+}
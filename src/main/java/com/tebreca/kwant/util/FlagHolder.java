@@ -6,7 +6,7 @@ package com.tebreca.kwant.util;
  */
 public class FlagHolder<T extends FlagHolder<T>> {
 
-    protected int flags = 0x0b;
+    protected int flags = 0;
 
     //This is by design
     @SuppressWarnings("unchecked")
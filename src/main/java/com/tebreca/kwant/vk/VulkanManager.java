@@ -1,21 +1,47 @@
 package com.tebreca.kwant.vk;
 
+import com.tebreca.kwant.render.AtlasBuilder;
+import com.tebreca.kwant.render.SpriteBatch;
+import com.tebreca.kwant.vk.command.ParallelRecorder;
+import com.tebreca.kwant.vk.command.SecondaryRecorder;
+import com.tebreca.kwant.vk.compute.ComputeQueue;
+import com.tebreca.kwant.vk.descriptor.BindlessTextures;
+import com.tebreca.kwant.vk.descriptor.DescriptorLayoutCache;
+import com.tebreca.kwant.vk.descriptor.FrameDescriptorAllocator;
 import com.tebreca.kwant.vk.device.DeviceScorer;
 import com.tebreca.kwant.vk.device.DeviceSettings;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.frame.FrameReadback;
+import com.tebreca.kwant.vk.graph.RenderGraph;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import com.tebreca.kwant.vk.pipeline.ComputePipelineBuilder;
+import com.tebreca.kwant.vk.pipeline.PipelineBatch;
+import com.tebreca.kwant.vk.profile.FrameStats;
+import com.tebreca.kwant.vk.profile.GpuProfiler;
 import com.tebreca.kwant.vk.pipeline.PipelineBuilder;
+import com.tebreca.kwant.vk.pipeline.PipelineVariantCache;
+import com.tebreca.kwant.vk.pipeline.PipelineCache;
 import com.tebreca.kwant.vk.queue.QueueBuilder;
 import com.tebreca.kwant.vk.queue.QueueFamilyFinder;
 import com.tebreca.kwant.vk.queue.QueueType;
 import com.tebreca.kwant.vk.shader.Shader;
 import com.tebreca.kwant.vk.shader.ShaderBuilder;
+import com.tebreca.kwant.vk.shader.ShaderModuleCache;
 import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import com.tebreca.kwant.vk.sync.Timeline;
+import com.tebreca.kwant.vk.sync.TimelineWaiter;
+import com.tebreca.kwant.vk.transfer.UploadService;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.nio.IntBuffer;
@@ -24,9 +50,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntSupplier;
 import java.util.stream.Stream;
 
 import static org.lwjgl.glfw.GLFWVulkan.glfwCreateWindowSurface;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.vulkan.EXTHeadlessSurface.vkCreateHeadlessSurfaceEXT;
 import static org.lwjgl.vulkan.KHRSurface.vkGetPhysicalDeviceSurfaceSupportKHR;
 import static org.lwjgl.vulkan.VK13.*;
 
@@ -49,9 +79,49 @@ public final class VulkanManager {
 
     private final Sinks.One<SwapChainManager> chainManagerSink = Sinks.one();
 
+    private final Sinks.One<FrameLoop> frameLoopSink = Sinks.one();
+    private FrameLoop frameLoop;
+
+    private final Sinks.One<VkQueue> transferQueueSink = Sinks.one();
+    private final Sinks.One<VkQueue> computeQueueSink = Sinks.one();
+    private final Sinks.One<ComputeQueue> computeSink = Sinks.one();
+    private ComputeQueue compute;
+    private final Sinks.One<UploadService> uploadsSink = Sinks.one();
+    private UploadService uploads;
+    private long stagingRingSize = 16L << 20;
+
+    private final Sinks.One<BindlessTextures> bindlessTexturesSink = Sinks.one();
+    private BindlessTextures bindlessTextures;
+    private boolean descriptorIndexing = false;
+    private int bindlessCapacity = 1 << 14;
+
+    private final Sinks.One<FrameDescriptorAllocator> descriptorAllocatorSink = Sinks.one();
+    private FrameDescriptorAllocator descriptorAllocator;
+    private DescriptorLayoutCache descriptorLayouts;
+    private TimelineWaiter timelineWaiter;
+
+    private final Sinks.One<GpuProfiler> profilerSink = Sinks.one();
+    private GpuProfiler profiler;
+    private int maxProfilerScopes = 64;
+
+    private final Sinks.One<FrameReadback> readbackSink = Sinks.one();
+    private FrameReadback readback;
+
     private final Sinks.One<MemoryStack> onInitSink = Sinks.one();
-    private List<Shader> shaders = new ArrayList<>();
+    private final List<Shader> shaders = new CopyOnWriteArrayList<>();
+    private final ShaderModuleCache shaderModules = new ShaderModuleCache();
+    private final PipelineVariantCache pipelineVariants = new PipelineVariantCache(this);
+
+    @Nullable
+    private File pipelineCacheFile = null;
+    private PipelineCache pipelineCache;
+    private MemoryAllocator memoryAllocator;
 
+    private final Scheduler workers = Schedulers.newParallel("kwant-worker", Runtime.getRuntime().availableProcessors(), true);
+
+    /**
+     * @param window GLFW window to present to, NULL to render headless through VK_EXT_headless_surface
+     */
     public VulkanManager(VkInstance vulkan, DeviceScorer scorer, QueueFamilyFinder queueFamilyFinder, long window) {
         instance = vulkan;
         deviceScorer = scorer;
@@ -61,13 +131,23 @@ public final class VulkanManager {
         presentFamily = findPresentFamily(surface);
         queue(QueueType.GRAPHICS).family(presentFamily).submit().subscribe(vkQueue -> chainManagerSink.tryEmitValue(new SwapChainManager(this, surface, vkQueue)).orThrow());
         chainManagerSink.asMono().subscribe(s -> swapChainManager = s);
+        queue(QueueType.TRANSFER).submit().subscribe(vkQueue -> transferQueueSink.tryEmitValue(vkQueue).orThrow());
+        queue(QueueType.COMPUTE).submit().subscribe(vkQueue -> computeQueueSink.tryEmitValue(vkQueue).orThrow());
 
     }
 
+    /**
+     * @param window GLFW window, NULL for a VK_EXT_headless_surface that presents nowhere
+     */
     private long createSurface(long window) {
         try (var stack = MemoryStack.stackPush()) {
             LongBuffer longBuffer = stack.callocLong(1);
-            VulkanUtils.assertResult(glfwCreateWindowSurface(instance, window, null, longBuffer), "Failed to create window surface!");
+            if (window == NULL) {
+                VkHeadlessSurfaceCreateInfoEXT createInfo = VkHeadlessSurfaceCreateInfoEXT.calloc(stack).sType$Default();
+                VulkanUtils.assertResult(vkCreateHeadlessSurfaceEXT(instance, createInfo, null, longBuffer), "Failed to create headless surface!");
+            } else {
+                VulkanUtils.assertResult(glfwCreateWindowSurface(instance, window, null, longBuffer), "Failed to create window surface!");
+            }
             return longBuffer.get();
         }
     }
@@ -79,13 +159,10 @@ public final class VulkanManager {
             var families = VkQueueFamilyProperties.calloc(size.get(), stack);
             size.clear();
             vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, size, families);
-            families.flip();
-            int i = 0;
-            while (families.hasRemaining()) {
-                VkQueueFamilyProperties familyProperties = families.get();
-                var flag = stack.callocInt(1);
-                vkGetPhysicalDeviceSurfaceSupportKHR(physicalDevice, i++, surface, flag);
-                if (flag.get() == VK_TRUE) {
+            var flag = stack.callocInt(1);
+            for (int i = 0; i < families.capacity(); i++) {
+                vkGetPhysicalDeviceSurfaceSupportKHR(physicalDevice, i, surface, flag);
+                if (flag.get(0) == VK_TRUE) {
                     return i;
                 }
             }
@@ -93,6 +170,13 @@ public final class VulkanManager {
         return 0;
     }
 
+    /**
+     * @return index of the queue family the swapchain presents and the frame loop renders on
+     */
+    public int presentFamily() {
+        return presentFamily;
+    }
+
     public int getIdealFamilyIndex(QueueType type) {
         return idealQueueFamilies.get(type);
     }
@@ -134,6 +218,14 @@ public final class VulkanManager {
         return new QueueBuilder(type, this);
     }
 
+    private int queueCount(int family, MemoryStack stack) {
+        IntBuffer size = stack.callocInt(1);
+        vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, size, null);
+        var families = VkQueueFamilyProperties.calloc(size.get(0), stack);
+        vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, size, families);
+        return families.get(family).queueCount();
+    }
+
     private VkDeviceQueueCreateInfo.Buffer buildQueueCreateInfoBuffer(MemoryStack stack) {
         HashMap<Integer, Integer> indexAmounts = new HashMap<>();
         for (QueueBuilder.QueueInfo info : submittedQueueInfos) {
@@ -145,8 +237,10 @@ public final class VulkanManager {
             Integer family = entry.getKey();
             Integer amount = entry.getValue();
 
+            // Queues beyond what the family offers share its last queue, see createDevice
+            amount = Math.min(amount, queueCount(family, stack));
             var priorities = stack.callocFloat(amount);
-            for (float f : submittedQueueInfos.stream().filter(queueInfo -> queueInfo.familyIndex() == family).map(QueueBuilder.QueueInfo::priority).toList()) {
+            for (float f : submittedQueueInfos.stream().filter(queueInfo -> queueInfo.familyIndex() == family).map(QueueBuilder.QueueInfo::priority).limit(amount).toList()) {
                 priorities.put(f);
             }
             var deviceQueueCreateInfo = VkDeviceQueueCreateInfo.calloc(stack);
@@ -170,6 +264,28 @@ public final class VulkanManager {
             deviceCreateInfo.pQueueCreateInfos(queueCreateInfos);
             deviceCreateInfo.flags(deviceSettings.flags());
             deviceCreateInfo.pEnabledFeatures(deviceSettings.deviceFeatures());
+            // Kwant records with dynamic rendering and synchronization2 throughout, both core since 1.3
+            // Timeline semaphores are required by Vulkan 1.2, GPU futures are built on them
+            VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack).sType$Default()
+                    .timelineSemaphore(true);
+            if (deviceSettings.descriptorIndexing()) {
+                descriptorIndexing = supportsDescriptorIndexing(stack);
+                if (descriptorIndexing) {
+                    vulkan12Features.descriptorIndexing(true)
+                            .runtimeDescriptorArray(true)
+                            .shaderSampledImageArrayNonUniformIndexing(true)
+                            .descriptorBindingPartiallyBound(true)
+                            .descriptorBindingVariableDescriptorCount(true)
+                            .descriptorBindingSampledImageUpdateAfterBind(true)
+                            .descriptorBindingUpdateUnusedWhilePending(true);
+                } else {
+                    System.out.printf("Device does not support descriptor indexing, bindless textures are unavailable%n");
+                }
+            }
+            deviceCreateInfo.pNext(VkPhysicalDeviceVulkan13Features.calloc(stack).sType$Default()
+                    .pNext(vulkan12Features.address())
+                    .synchronization2(true)
+                    .dynamicRendering(true));
             int i = 0;
             if (!extensions.isEmpty()) {
                 var names = stack.mallocPointer(extensions.size());
@@ -179,6 +295,10 @@ public final class VulkanManager {
 
             VulkanUtils.assertResult(vkCreateDevice(physicalDevice, deviceCreateInfo, null, device), "Failed to create Logical Device!");
             this.device = new VkDevice(device.get(), physicalDevice, deviceCreateInfo);
+            this.pipelineCache = new PipelineCache(this.device, pipelineCacheFile);
+            this.memoryAllocator = new MemoryAllocator(instance, this.device);
+            this.descriptorLayouts = new DescriptorLayoutCache(this.device);
+            this.timelineWaiter = new TimelineWaiter(this.device);
 
             virtualDeviceSink.tryEmitValue(this.device).orThrow();
 
@@ -190,10 +310,11 @@ public final class VulkanManager {
             for (Map.Entry<Integer, Integer> entry : indexAmounts.entrySet()) {
                 Integer family = entry.getKey();
                 i = 0;
+                int available = queueCount(family, stack);
                 Stream<QueueBuilder.QueueInfo> queueInfoStream = submittedQueueInfos.stream().filter(queueInfo -> queueInfo.familyIndex() == family);
                 for (QueueBuilder.QueueInfo queueInfo : queueInfoStream.toList()) {
                     PointerBuffer queue = stack.callocPointer(1);
-                    vkGetDeviceQueue(this.device, family, i++, queue);
+                    vkGetDeviceQueue(this.device, family, Math.min(i++, available - 1), queue);
                     long handle = queue.get(0);
                     queueInfo.sink().tryEmitValue(new VkQueue(handle, this.device)).orThrow();
                 }
@@ -203,10 +324,54 @@ public final class VulkanManager {
         }
     }
 
+    private boolean supportsDescriptorIndexing(MemoryStack stack) {
+        VkPhysicalDeviceVulkan12Features supported = VkPhysicalDeviceVulkan12Features.calloc(stack).sType$Default();
+        vkGetPhysicalDeviceFeatures2(physicalDevice, VkPhysicalDeviceFeatures2.calloc(stack).sType$Default().pNext(supported));
+        return supported.descriptorIndexing()
+                && supported.runtimeDescriptorArray()
+                && supported.shaderSampledImageArrayNonUniformIndexing()
+                && supported.descriptorBindingPartiallyBound()
+                && supported.descriptorBindingVariableDescriptorCount()
+                && supported.descriptorBindingSampledImageUpdateAfterBind()
+                && supported.descriptorBindingUpdateUnusedWhilePending();
+    }
+
     public void cleanup() {
         // It may be better not to throw here and just continue. TODO: logger.error to inform user about this problem
+        // Idle first, so cleanup subscribers can destroy their resources right away
+        vkDeviceWaitIdle(device);
+        // Before the cleanup subscribers, they may destroy semaphores the waiter is still waiting on
+        timelineWaiter.destroy();
         onCleanup.tryEmitValue(instance);
+        if (frameLoop != null) {
+            frameLoop.destroy();
+        }
+        if (uploads != null) {
+            uploads.destroy();
+        }
+        if (bindlessTextures != null) {
+            bindlessTextures.destroy();
+        }
+        if (descriptorAllocator != null) {
+            descriptorAllocator.destroy();
+        }
+        if (profiler != null) {
+            profiler.destroy();
+        }
+        if (readback != null) {
+            readback.destroy();
+        }
+        if (compute != null) {
+            compute.destroy();
+        }
+        descriptorLayouts.destroy();
         swapChainManager.destroyChain();
+        pipelineVariants.destroy(device);
+        shaderModules.destroy(device);
+        pipelineCache.save();
+        pipelineCache.destroy();
+        workers.dispose();
+        memoryAllocator.destroy();
         vkDestroyDevice(device, null);
         vkDestroyInstance(instance, null);
     }
@@ -227,6 +392,150 @@ public final class VulkanManager {
         return chainManagerSink.asMono();
     }
 
+    /**
+     * Creates the frame loop once both the device and swapchain manager exist, together with the upload service
+     * flushing at the start of every frame
+     *
+     * @param framesInFlight amount of frames the CPU may record ahead of the GPU
+     */
+    public void createFrameLoop(int framesInFlight) {
+        Mono.zip(virtualDevice(), swapChainManager(), transferQueueSink.asMono()).subscribe(tuple -> {
+            frameLoop = new FrameLoop(tuple.getT1(), tuple.getT2(), presentFamily, framesInFlight);
+            uploads = new UploadService(tuple.getT1(), memoryAllocator, tuple.getT3(), getIdealFamilyIndex(QueueType.TRANSFER), presentFamily, stagingRingSize);
+            frameLoop.onBegin((frame, commandBuffer, imageIndex) -> uploads.flush(frameLoop, commandBuffer));
+            descriptorAllocator = new FrameDescriptorAllocator(tuple.getT1(), framesInFlight, 256);
+            frameLoop.onBegin((frame, commandBuffer, imageIndex) -> descriptorAllocator.reset(frame.index()));
+            descriptorAllocatorSink.tryEmitValue(descriptorAllocator).orThrow();
+            profiler = new GpuProfiler(tuple.getT1(), frameLoop, presentFamily, maxProfilerScopes);
+            profilerSink.tryEmitValue(profiler).orThrow();
+            readback = new FrameReadback(memoryAllocator, tuple.getT2(), frameLoop);
+            readbackSink.tryEmitValue(readback).orThrow();
+            if (descriptorIndexing) {
+                bindlessTextures = new BindlessTextures(tuple.getT1(), frameLoop, bindlessCapacity);
+                bindlessTexturesSink.tryEmitValue(bindlessTextures).orThrow();
+            } else {
+                bindlessTexturesSink.tryEmitError(new IllegalStateException("Descriptor indexing is not enabled on this device")).orThrow();
+            }
+            frameLoopSink.tryEmitValue(frameLoop).orThrow();
+            uploadsSink.tryEmitValue(uploads).orThrow();
+        });
+        Mono.zip(frameLoop(), computeQueueSink.asMono()).subscribe(tuple -> {
+            compute = new ComputeQueue(device, tuple.getT2(), getIdealFamilyIndex(QueueType.COMPUTE), presentFamily, tuple.getT1(), timelineWaiter);
+            computeSink.tryEmitValue(compute).orThrow();
+        });
+    }
+
+    public Mono<FrameLoop> frameLoop() {
+        return frameLoopSink.asMono();
+    }
+
+    /**
+     * Sets the size of the staging ring used for uploads, 16MB by default. Has to be called before the frame loop is created.
+     *
+     * @return this
+     */
+    public VulkanManager stagingRingSize(long bytes) {
+        this.stagingRingSize = bytes;
+        return this;
+    }
+
+    /**
+     * @return the service streaming buffer and image data to the GPU over the transfer queue, once the frame loop exists
+     */
+    public Mono<UploadService> uploads() {
+        return uploadsSink.asMono();
+    }
+
+    /**
+     * Sets the maximum amount of bindless textures, 16384 by default and clamped to the device limits.
+     * Has to be called before the frame loop is created.
+     *
+     * @return this
+     */
+    public VulkanManager bindlessCapacity(int textures) {
+        this.bindlessCapacity = textures;
+        return this;
+    }
+
+    /**
+     * @return the global table of textures shaders address by index, once the frame loop exists. Errors when the
+     * device was created without descriptor indexing, see {@link DeviceSettings#descriptorIndexing()}
+     */
+    public Mono<BindlessTextures> bindlessTextures() {
+        return bindlessTexturesSink.asMono();
+    }
+
+    /**
+     * @return the allocator for descriptor sets living a single frame, reset along with the frame, once the frame loop exists
+     */
+    public Mono<FrameDescriptorAllocator> descriptorAllocator() {
+        return descriptorAllocatorSink.asMono();
+    }
+
+    /**
+     * @return the descriptor set layouts shared by binding signature, null before device creation
+     */
+    public DescriptorLayoutCache descriptorLayouts() {
+        return descriptorLayouts;
+    }
+
+    /**
+     * @return a new timeline semaphore whose submissions complete as Monos, destroyed on cleanup
+     */
+    public Mono<Timeline> timeline() {
+        return virtualDevice().map(device -> {
+            Timeline timeline = new Timeline(device, timelineWaiter);
+            onCleanup().subscribe(instance -> timeline.destroy());
+            return timeline;
+        });
+    }
+
+    /**
+     * @return the thread completing the Monos of every timeline, null before device creation
+     */
+    public TimelineWaiter timelineWaiter() {
+        return timelineWaiter;
+    }
+
+    /**
+     * Sets the maximum amount of profiled scopes per frame, 64 by default. Has to be called before the frame loop is created.
+     *
+     * @return this
+     */
+    public VulkanManager maxProfilerScopes(int scopes) {
+        this.maxProfilerScopes = scopes;
+        return this;
+    }
+
+    /**
+     * @return the profiler timing frames and the scopes within them on the GPU, once the frame loop exists
+     */
+    public Mono<GpuProfiler> profiler() {
+        return profilerSink.asMono();
+    }
+
+    /**
+     * @return CPU, GPU and per-scope timings of every frame, a few frames after it was rendered. Render graph passes are
+     * measured as scopes automatically.
+     */
+    public Flux<FrameStats> frameStats() {
+        return profiler().flatMapMany(GpuProfiler::stats);
+    }
+
+    /**
+     * @return the queue for compute work running alongside rendering, once the frame loop exists
+     */
+    public Mono<ComputeQueue> computeQueue() {
+        return computeSink.asMono();
+    }
+
+    /**
+     * @return copies rendered frames back to host memory on request, once the frame loop exists
+     */
+    public Mono<FrameReadback> readback() {
+        return readbackSink.asMono();
+    }
+
     /**
      * @param location location of the .spv file
      * @return a ShaderBuilder instance for creating the shader
@@ -254,10 +563,113 @@ public final class VulkanManager {
         this.shaders.add(shader);
     }
 
+    /**
+     * Persists the pipeline cache to the given file, it is loaded on device creation and saved again on cleanup.
+     * Has to be called before the device is created to have any effect on loading.
+     *
+     * @param file location of the cache blob, created if it doesn't exist yet
+     * @return this
+     */
+    public VulkanManager persistPipelineCache(@Nullable File file) {
+        this.pipelineCacheFile = file;
+        return this;
+    }
+
+    /**
+     * @return the pipeline cache every pipeline created through kwant goes through, null before device creation
+     */
+    public PipelineCache pipelineCache() {
+        return pipelineCache;
+    }
+
+    /**
+     * @return the shader modules shared by every ShaderBuilder of this manager
+     */
+    public ShaderModuleCache shaderModules() {
+        return shaderModules;
+    }
+
+    /**
+     * @return the pipelines and specialization constants shared by equal requests, destroyed on cleanup
+     */
+    public PipelineVariantCache pipelineVariants() {
+        return pipelineVariants;
+    }
+
+    /**
+     * @return the allocator for all buffers and images, null before device creation
+     */
+    public MemoryAllocator memoryAllocator() {
+        return memoryAllocator;
+    }
+
     public PipelineBuilder pipeline() {
         return new PipelineBuilder(this);
     }
 
+    public ComputePipelineBuilder computePipeline() {
+        return new ComputePipelineBuilder(this);
+    }
+
+    /**
+     * @param capacity maximum amount of sprites per frame
+     * @return a sprite batch drawing to the swapchain every frame, once the frame loop and its pipeline exist
+     * @see SpriteBatch#create(VulkanManager, Shader, Shader, int, long...)
+     */
+    public Mono<SpriteBatch> spriteBatch(Shader vertex, Shader fragment, int capacity, long... setLayouts) {
+        return SpriteBatch.create(this, vertex, fragment, capacity, setLayouts);
+    }
+
+    /**
+     * Records a draw list every frame, split over the workers into secondary command buffers
+     *
+     * @param items    size of the draw list, read once per frame
+     * @param recorder records a part of the draw list on a worker
+     * @return the recorder, once it is part of the frame loop
+     */
+    public Mono<ParallelRecorder> parallelRecorder(IntSupplier items, SecondaryRecorder recorder) {
+        return frameLoop().zipWith(swapChainManager()).map(tuple -> {
+            FrameLoop loop = tuple.getT1();
+            ParallelRecorder parallel = new ParallelRecorder(device, tuple.getT2(), workers, presentFamily, loop.framesInFlight(), items, recorder);
+            loop.onRecord(parallel);
+            onCleanup().subscribe(instance -> parallel.destroy());
+            return parallel;
+        });
+    }
+
+    /**
+     * @return a new render graph recording as part of the frame loop, once the frame loop exists
+     */
+    public Mono<RenderGraph> renderGraph() {
+        return frameLoop().zipWith(swapChainManager()).map(tuple -> {
+            RenderGraph graph = new RenderGraph(device, memoryAllocator, tuple.getT2(), tuple.getT1()).profiler(profiler);
+            tuple.getT1().onRecord(graph);
+            onCleanup().subscribe(instance -> graph.destroy());
+            return graph;
+        });
+    }
+
+    /**
+     * @return a new builder packing images into a texture atlas
+     */
+    public AtlasBuilder atlas() {
+        return new AtlasBuilder(this);
+    }
+
+    /**
+     * @return a new batch for creating many pipelines at once, spread over the worker threads
+     */
+    public PipelineBatch pipelineBatch() {
+        return new PipelineBatch(this);
+    }
+
+    /**
+     * @return scheduler with one daemon thread per core, used by kwant for work that can run off the calling thread
+     */
+    public Scheduler workers() {
+        return workers;
+    }
+
     public Mono<MemoryStack> onInit() {
         return onInitSink.asMono();
     }
@@ -5,9 +5,13 @@ public class VulkanUtils {
 
     public static void assertResult(int result, String error){
         if (result != VK_SUCCESS){
-            AssertionError sub = new AssertionError("Native vulkan call did not return VK_SUCCES (=0), but rather: " + result);
-            throw new RuntimeException(error, sub);
+            throw failure(result, error);
         }
     }
 
-}
\ No newline at end of file
+    public static RuntimeException failure(int result, String error){
+        AssertionError sub = new AssertionError("Native vulkan call did not return VK_SUCCES (=0), but rather: " + result);
+        return new RuntimeException(error, sub);
+    }
+
+}
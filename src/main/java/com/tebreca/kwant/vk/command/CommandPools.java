@@ -0,0 +1,118 @@
+package com.tebreca.kwant.vk.command;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkCommandBufferAllocateInfo;
+import org.lwjgl.vulkan.VkCommandPoolCreateInfo;
+import org.lwjgl.vulkan.VkDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Command pools per recording thread and per frame in flight, so threads never share a pool and every pool is reset
+ * as a whole instead of per buffer.
+ * <br><br>
+ * A thread gets its pools the first time it asks for a command buffer. Buffers are allocated once and handed out again
+ * after every reset of their frame.
+ */
+@SuppressWarnings("unused")
+public class CommandPools {
+
+    private final VkDevice device;
+    private final int queueFamily;
+    private final int frames;
+    private final int level;
+
+    private final List<ThreadPools> threads = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadPools> local = ThreadLocal.withInitial(() -> {
+        ThreadPools pools = new ThreadPools();
+        threads.add(pools);
+        return pools;
+    });
+
+    /**
+     * @param frames amount of frames in flight, every thread gets a pool per frame
+     * @param level  VkCommandBufferLevel of the buffers handed out
+     */
+    public CommandPools(VkDevice device, int queueFamily, int frames, int level) {
+        this.device = device;
+        this.queueFamily = queueFamily;
+        this.frames = frames;
+        this.level = level;
+    }
+
+    /**
+     * @param frame index of the frame in flight the buffer is recorded for
+     * @return a command buffer from the calling thread's pool, not yet begun and valid until that frame is reset
+     */
+    public VkCommandBuffer next(int frame) {
+        return local.get().next(frame);
+    }
+
+    /**
+     * Resets the pools of every thread for the given frame, no thread may be recording into them at the time and the
+     * GPU has to be done with the previous use of the frame
+     */
+    public void reset(int frame) {
+        for (ThreadPools pools : threads) {
+            pools.reset(frame);
+        }
+    }
+
+    public void destroy() {
+        for (ThreadPools pools : threads) {
+            for (long pool : pools.pools) {
+                vkDestroyCommandPool(device, pool, null);
+            }
+        }
+        threads.clear();
+    }
+
+    private final class ThreadPools {
+        private final long[] pools = new long[frames];
+        private final List<List<VkCommandBuffer>> buffers = new ArrayList<>();
+        private final int[] used = new int[frames];
+
+        private ThreadPools() {
+            try (var stack = MemoryStack.stackPush()) {
+                var handle = stack.callocLong(1);
+                VkCommandPoolCreateInfo createInfo = VkCommandPoolCreateInfo.calloc(stack).sType$Default()
+                        .flags(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT)
+                        .queueFamilyIndex(queueFamily);
+                for (int i = 0; i < frames; i++) {
+                    VulkanUtils.assertResult(vkCreateCommandPool(device, createInfo, null, handle), "Failed to create thread command pool!");
+                    pools[i] = handle.get(0);
+                    buffers.add(new ArrayList<>());
+                }
+            }
+        }
+
+        private VkCommandBuffer next(int frame) {
+            List<VkCommandBuffer> allocated = buffers.get(frame);
+            if (used[frame] == allocated.size()) {
+                try (var stack = MemoryStack.stackPush()) {
+                    VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack).sType$Default()
+                            .commandPool(pools[frame])
+                            .level(level)
+                            .commandBufferCount(1);
+                    var pointer = stack.callocPointer(1);
+                    VulkanUtils.assertResult(vkAllocateCommandBuffers(device, allocateInfo, pointer), "Failed to allocate thread command buffer!");
+                    allocated.add(new VkCommandBuffer(pointer.get(0), device));
+                }
+            }
+            return allocated.get(used[frame]++);
+        }
+
+        private void reset(int frame) {
+            if (used[frame] > 0) {
+                VulkanUtils.assertResult(vkResetCommandPool(device, pools[frame], 0), "Failed to reset thread command pool!");
+                used[frame] = 0;
+            }
+        }
+    }
+}
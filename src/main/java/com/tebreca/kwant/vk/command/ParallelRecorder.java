@@ -0,0 +1,180 @@
+package com.tebreca.kwant.vk.command;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.Frame;
+import com.tebreca.kwant.vk.frame.FrameRecorder;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import org.joml.Vector2i;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Splits a frame's draw list over the worker threads, each recording its part into a secondary command buffer.
+ * <br><br>
+ * The render thread records the first part itself and waits for the workers, then executes the secondary buffers in
+ * order of their part, so the result is the same as recording the whole list on one thread. Every part covers at
+ * least {@link #minItemsPerTask(int)} items, smaller lists are recorded on fewer threads.
+ */
+@SuppressWarnings("unused")
+public class ParallelRecorder implements FrameRecorder {
+
+    private final SwapChainManager swapChain;
+    private final Scheduler workers;
+    private final CommandPools pools;
+    private final IntSupplier items;
+    private final SecondaryRecorder recorder;
+    private final int maxTasks;
+    private int minItemsPerTask = 64;
+
+    private final VkCommandBuffer[] recorded;
+    private final Runnable[] tasks;
+    // The render thread is always registered, every scheduled task registers itself until it is done
+    private final Phaser done = new Phaser(1);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final PointerBuffer executed;
+    // What the tasks of the current frame record, written before they are scheduled
+    private Frame frame;
+    private int parts;
+    private int count;
+    private final VkRenderingAttachmentInfo.Buffer colorAttachment;
+    private final VkRenderingInfo renderingInfo;
+
+    /**
+     * @param queueFamily family of the queue the frames are submitted to
+     * @param items       size of the draw list, read once per frame
+     * @param recorder    records a part of the draw list
+     */
+    public ParallelRecorder(VkDevice device, SwapChainManager swapChain, Scheduler workers, int queueFamily, int framesInFlight,
+                            IntSupplier items, SecondaryRecorder recorder) {
+        this.swapChain = swapChain;
+        this.workers = workers;
+        this.pools = new CommandPools(device, queueFamily, framesInFlight, VK_COMMAND_BUFFER_LEVEL_SECONDARY);
+        this.items = items;
+        this.recorder = recorder;
+        this.maxTasks = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.recorded = new VkCommandBuffer[maxTasks];
+        this.tasks = new Runnable[maxTasks];
+        for (int task = 1; task < maxTasks; task++) {
+            int part = task;
+            tasks[task] = () -> recordTask(part);
+        }
+        this.executed = MemoryUtil.memCallocPointer(maxTasks);
+
+        colorAttachment = VkRenderingAttachmentInfo.calloc(1);
+        colorAttachment.get(0).sType$Default()
+                .imageLayout(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL)
+                .loadOp(VK_ATTACHMENT_LOAD_OP_LOAD)
+                .storeOp(VK_ATTACHMENT_STORE_OP_STORE);
+        renderingInfo = VkRenderingInfo.calloc().sType$Default()
+                .flags(VK_RENDERING_CONTENTS_SECONDARY_COMMAND_BUFFERS_BIT)
+                .layerCount(1)
+                .pColorAttachments(colorAttachment);
+    }
+
+    /**
+     * @param minItemsPerTask least amount of items worth handing to another thread, 64 by default
+     * @return this
+     */
+    public ParallelRecorder minItemsPerTask(int minItemsPerTask) {
+        this.minItemsPerTask = Math.max(1, minItemsPerTask);
+        return this;
+    }
+
+    /**
+     * Clears the swapchain image before executing the secondary buffers, instead of drawing over earlier recorders
+     *
+     * @return this
+     */
+    public ParallelRecorder clearColor(float r, float g, float b, float a) {
+        colorAttachment.get(0).loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR).clearValue().color().float32(0, r).float32(1, g).float32(2, b).float32(3, a);
+        return this;
+    }
+
+    @Override
+    public void record(Frame frame, VkCommandBuffer commandBuffer, int imageIndex) {
+        int count = items.getAsInt();
+        // The frame's fence has been waited on, so neither the GPU nor any worker uses these pools anymore
+        pools.reset(frame.index());
+        int parts = Math.clamp((count + minItemsPerTask - 1) / minItemsPerTask, 1, maxTasks);
+
+        this.frame = frame;
+        this.parts = parts;
+        this.count = count;
+        failure.set(null);
+        try {
+            for (int task = 1; task < parts; task++) {
+                done.register();
+                try {
+                    workers.schedule(tasks[task]);
+                } catch (RuntimeException e) {
+                    done.arriveAndDeregister();
+                    throw e;
+                }
+            }
+            recorded[0] = recordPart(frame, 0, parts, count);
+        } finally {
+            // Even when failing, the workers record into this frame's pools, which the next reset would pull from under them
+            done.arriveAndAwaitAdvance();
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException("Failed to record frame on a worker", failure.get());
+        }
+
+        Vector2i extent = swapChain.extent();
+        colorAttachment.get(0).imageView(swapChain.imageView(imageIndex));
+        renderingInfo.renderArea().extent().set(extent.x, extent.y);
+        executed.clear();
+        for (int part = 0; part < parts; part++) {
+            executed.put(recorded[part]);
+        }
+        vkCmdBeginRendering(commandBuffer, renderingInfo);
+        vkCmdExecuteCommands(commandBuffer, executed.flip());
+        vkCmdEndRendering(commandBuffer);
+    }
+
+    private void recordTask(int part) {
+        try {
+            recorded[part] = recordPart(frame, part, parts, count);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            done.arriveAndDeregister();
+        }
+    }
+
+    private VkCommandBuffer recordPart(Frame frame, int part, int parts, int count) {
+        int from = (int) ((long) count * part / parts);
+        int to = (int) ((long) count * (part + 1) / parts);
+        VkCommandBuffer commandBuffer = pools.next(frame.index());
+        try (var stack = MemoryStack.stackPush()) {
+            VkCommandBufferInheritanceRenderingInfo rendering = VkCommandBufferInheritanceRenderingInfo.calloc(stack).sType$Default()
+                    .pColorAttachmentFormats(stack.ints(swapChain.format()))
+                    .rasterizationSamples(VK_SAMPLE_COUNT_1_BIT);
+            VkCommandBufferInheritanceInfo inheritance = VkCommandBufferInheritanceInfo.calloc(stack).sType$Default()
+                    .pNext(rendering);
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack).sType$Default()
+                    .flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT | VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT)
+                    .pInheritanceInfo(inheritance);
+            VulkanUtils.assertResult(vkBeginCommandBuffer(commandBuffer, beginInfo), "Failed to begin secondary command buffer!");
+        }
+        recorder.record(frame, commandBuffer, from, to);
+        VulkanUtils.assertResult(vkEndCommandBuffer(commandBuffer), "Failed to end secondary command buffer!");
+        return commandBuffer;
+    }
+
+    public void destroy() {
+        pools.destroy();
+        MemoryUtil.memFree(executed);
+        colorAttachment.free();
+        renderingInfo.free();
+    }
+}
@@ -0,0 +1,19 @@
+package com.tebreca.kwant.vk.command;
+
+import com.tebreca.kwant.vk.frame.Frame;
+import org.lwjgl.vulkan.VkCommandBuffer;
+
+/**
+ * Records part of a frame's draw list into a secondary command buffer, on any of the worker threads
+ */
+@FunctionalInterface
+public interface SecondaryRecorder {
+
+    /**
+     * @param commandBuffer secondary command buffer, already begun inside the frame's rendering to the swapchain image.
+     *                      Dynamic state such as the viewport is not inherited and has to be set again.
+     * @param from          first item of the draw list to record
+     * @param to            item after the last item to record
+     */
+    void record(Frame frame, VkCommandBuffer commandBuffer, int from, int to);
+}
@@ -0,0 +1,251 @@
+package com.tebreca.kwant.vk.compute;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.Frame;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.sync.Timeline;
+import com.tebreca.kwant.vk.sync.TimelineWaiter;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Submits compute work to its own queue, ideally of a family without graphics, so it runs alongside rendering.
+ * <br><br>
+ * Dispatches are recorded and submitted on the render thread at the start of the next frame, all of a frame in one
+ * submission. Being the only thread submitting, the compute queue may be the graphics queue itself on devices without
+ * a separate one. Completion is tracked with a timeline: a frame consuming the results waits on it only at the stages
+ * reading them, so compute for one frame overlaps with rasterizing the frames before it.
+ * <br><br>
+ * Compute runs ahead of the frames still in flight. Resources written for a frame should belong to its frame slot,
+ * see {@link Frame#index()}, and be shared between both families, see {@link #families()}.
+ */
+@SuppressWarnings("unused")
+public class ComputeQueue {
+
+    /**
+     * Stages at which a frame waits for the compute work it consumes by default
+     */
+    public static final int CONSUMER_STAGES = VK_PIPELINE_STAGE_DRAW_INDIRECT_BIT | VK_PIPELINE_STAGE_VERTEX_INPUT_BIT
+            | VK_PIPELINE_STAGE_VERTEX_SHADER_BIT | VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT;
+
+    private final VkDevice device;
+    private final VkQueue queue;
+    private final int family;
+    private final int graphicsFamily;
+    private final FrameLoop frameLoop;
+    private final Timeline timeline;
+    private final long commandPool;
+
+    private final ArrayDeque<VkCommandBuffer> free = new ArrayDeque<>();
+    private final ArrayDeque<InFlight> inFlight = new ArrayDeque<>();
+    private volatile ComputeRecorder[] everyFrame = new ComputeRecorder[0];
+    private List<Dispatch> pending = new ArrayList<>();
+    private List<Dispatch> recording = new ArrayList<>();
+
+    private final VkCommandBufferBeginInfo beginInfo;
+    private final VkCommandBufferSubmitInfo.Buffer commandBufferInfo;
+    private final VkSemaphoreSubmitInfo.Buffer signalInfo;
+    private final VkSubmitInfo2.Buffer submitInfo;
+    private int consumerStages = CONSUMER_STAGES;
+
+    public ComputeQueue(VkDevice device, VkQueue queue, int family, int graphicsFamily, FrameLoop frameLoop, TimelineWaiter waiter) {
+        this.device = device;
+        this.queue = queue;
+        this.family = family;
+        this.graphicsFamily = graphicsFamily;
+        this.frameLoop = frameLoop;
+        this.timeline = new Timeline(device, waiter);
+        try (var stack = MemoryStack.stackPush()) {
+            VkCommandPoolCreateInfo createInfo = VkCommandPoolCreateInfo.calloc(stack).sType$Default()
+                    .flags(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT | VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT)
+                    .queueFamilyIndex(family);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateCommandPool(device, createInfo, null, handle), "Failed to create compute command pool!");
+            commandPool = handle.get(0);
+        }
+        beginInfo = VkCommandBufferBeginInfo.calloc().sType$Default().flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+        commandBufferInfo = VkCommandBufferSubmitInfo.calloc(1);
+        commandBufferInfo.get(0).sType$Default();
+        signalInfo = VkSemaphoreSubmitInfo.calloc(1);
+        signalInfo.get(0).sType$Default()
+                .semaphore(timeline.semaphore())
+                .stageMask(VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+        submitInfo = VkSubmitInfo2.calloc(1);
+        submitInfo.get(0).sType$Default()
+                .pCommandBufferInfos(commandBufferInfo)
+                .pSignalSemaphoreInfos(signalInfo);
+        frameLoop.onBegin(this::submit);
+    }
+
+    /**
+     * Dispatches work whose results are read by the CPU or by a later dispatch, frames do not wait on it
+     *
+     * @return completes with the timeline value once the GPU has executed the work
+     */
+    public Mono<Long> dispatch(ComputeRecorder recorder) {
+        return enqueue(recorder, false);
+    }
+
+    /**
+     * Dispatches work whose results are read by the frame it is submitted with, that frame waits on it at the
+     * consumer stages
+     *
+     * @return completes with the timeline value once the GPU has executed the work
+     */
+    public Mono<Long> dispatchForFrame(ComputeRecorder recorder) {
+        return enqueue(recorder, true);
+    }
+
+    /**
+     * Adds work recorded into every frame's submission, before the one-off dispatches, and consumed by that frame.
+     * Recorders are called in the order they were added, without allocating per frame.
+     *
+     * @return this
+     */
+    public synchronized ComputeQueue everyFrame(ComputeRecorder recorder) {
+        ComputeRecorder[] recorders = Arrays.copyOf(everyFrame, everyFrame.length + 1);
+        recorders[everyFrame.length] = recorder;
+        everyFrame = recorders;
+        return this;
+    }
+
+    private synchronized Mono<Long> enqueue(ComputeRecorder recorder, boolean consumed) {
+        Sinks.One<Long> sink = Sinks.one();
+        pending.add(new Dispatch(recorder, consumed, sink));
+        return sink.asMono();
+    }
+
+    /**
+     * @param stages VkPipelineStageFlags at which frames wait for the compute work they consume, {@link #CONSUMER_STAGES} by default
+     * @return this
+     */
+    public ComputeQueue consumerStages(int stages) {
+        this.consumerStages = stages;
+        return this;
+    }
+
+    private void submit(Frame frame, VkCommandBuffer graphicsCommands, int imageIndex) {
+        ComputeRecorder[] recorders = everyFrame;
+        synchronized (this) {
+            if (pending.isEmpty() && recorders.length == 0) {
+                return;
+            }
+            List<Dispatch> swap = recording;
+            recording = pending;
+            pending = swap;
+        }
+        long completed = timeline.completed();
+        while (!inFlight.isEmpty() && inFlight.peek().value() <= completed) {
+            free.add(inFlight.poll().commandBuffer());
+        }
+        VkCommandBuffer commandBuffer = free.isEmpty() ? allocate() : free.poll();
+        boolean consumed = recorders.length > 0;
+        try {
+            VulkanUtils.assertResult(vkBeginCommandBuffer(commandBuffer, beginInfo), "Failed to begin compute command buffer!");
+            for (ComputeRecorder recorder : recorders) {
+                recorder.record(frame, commandBuffer);
+            }
+            for (Dispatch dispatch : recording) {
+                dispatch.recorder().record(frame, commandBuffer);
+                consumed |= dispatch.consumed();
+            }
+            VulkanUtils.assertResult(vkEndCommandBuffer(commandBuffer), "Failed to end compute command buffer!");
+        } catch (RuntimeException e) {
+            vkResetCommandBuffer(commandBuffer, 0);
+            free.add(commandBuffer);
+            recording.forEach(dispatch -> dispatch.sink().tryEmitError(e));
+            recording.clear();
+            if (recorders.length > 0) {
+                throw e;
+            }
+            return;
+        }
+
+        long value = timeline.next();
+        prepare(commandBuffer, value);
+        int result = vkQueueSubmit2(queue, submitInfo, VK_NULL_HANDLE);
+        if (result != VK_SUCCESS) {
+            RuntimeException failure = VulkanUtils.failure(result, "Failed to submit compute work!");
+            recording.forEach(dispatch -> dispatch.sink().tryEmitError(failure));
+            recording.clear();
+            throw failure;
+        }
+        inFlight.add(new InFlight(commandBuffer, value));
+        if (consumed) {
+            frameLoop.waitOn(timeline.semaphore(), value, consumerStages);
+        }
+        if (!recording.isEmpty()) {
+            Mono<Long> done = timeline.at(value);
+            for (Dispatch dispatch : recording) {
+                done.subscribe(dispatch.sink()::tryEmitValue, dispatch.sink()::tryEmitError);
+            }
+            recording.clear();
+        }
+    }
+
+    private void prepare(VkCommandBuffer commandBuffer, long value) {
+        commandBufferInfo.get(0).commandBuffer(commandBuffer);
+        signalInfo.get(0).value(value);
+    }
+
+    private VkCommandBuffer allocate() {
+        try (var stack = MemoryStack.stackPush()) {
+            VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack).sType$Default()
+                    .commandPool(commandPool)
+                    .level(VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                    .commandBufferCount(1);
+            var pointer = stack.callocPointer(1);
+            VulkanUtils.assertResult(vkAllocateCommandBuffers(device, allocateInfo, pointer), "Failed to allocate compute command buffer!");
+            return new VkCommandBuffer(pointer.get(0), device);
+        }
+    }
+
+    /**
+     * @return the families buffers written by compute and read by rendering are shared between, for
+     * VK_SHARING_MODE_CONCURRENT. A single family when compute runs on the graphics family.
+     */
+    public int[] families() {
+        return dedicated() ? new int[]{family, graphicsFamily} : new int[]{family};
+    }
+
+    /**
+     * @return whether compute runs on a different queue family than rendering
+     */
+    public boolean dedicated() {
+        return family != graphicsFamily;
+    }
+
+    public Timeline timeline() {
+        return timeline;
+    }
+
+    /**
+     * Destroys the command buffers and timeline, the device has to be idle
+     */
+    public void destroy() {
+        vkDestroyCommandPool(device, commandPool, null);
+        timeline.destroy();
+        beginInfo.free();
+        commandBufferInfo.free();
+        signalInfo.free();
+        submitInfo.free();
+    }
+
+    private record Dispatch(ComputeRecorder recorder, boolean consumed, Sinks.One<Long> sink) {
+
+    }
+
+    private record InFlight(VkCommandBuffer commandBuffer, long value) {
+
+    }
+}
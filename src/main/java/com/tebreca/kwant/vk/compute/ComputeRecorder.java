@@ -0,0 +1,17 @@
+package com.tebreca.kwant.vk.compute;
+
+import com.tebreca.kwant.vk.frame.Frame;
+import org.lwjgl.vulkan.VkCommandBuffer;
+
+/**
+ * Records compute work, called on the render thread at the start of the frame it is submitted with
+ */
+@FunctionalInterface
+public interface ComputeRecorder {
+
+    /**
+     * @param frame         the frame started alongside, its resources are no longer used by the GPU
+     * @param commandBuffer command buffer of the compute queue, already begun
+     */
+    void record(Frame frame, VkCommandBuffer commandBuffer);
+}
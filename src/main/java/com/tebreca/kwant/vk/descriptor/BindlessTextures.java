@@ -0,0 +1,213 @@
+package com.tebreca.kwant.vk.descriptor;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Global table of sampled textures, addressed by index from shaders through a single descriptor set.
+ * <br><br>
+ * The set holds one runtime sized array of combined image samplers at binding 0, declared in GLSL as
+ * {@code layout(set = 0, binding = 0) uniform sampler2D textures[];} and indexed with {@code nonuniformEXT}.
+ * The binding is partially bound and updated after bind, so textures can be registered while frames using the set are
+ * in flight. Unregistered indices are only handed out again once those frames have completed.
+ */
+@SuppressWarnings("unused")
+public class BindlessTextures {
+
+    private final VkDevice device;
+    private final FrameLoop frameLoop;
+    private final int capacity;
+    private final long layout;
+    private final long pool;
+    private final long descriptorSet;
+    private final long linearSampler;
+    private final long nearestSampler;
+
+    private final BitSet used = new BitSet();
+    private final List<Integer> retiring = new ArrayList<>();
+
+    /**
+     * @param capacity maximum amount of textures, clamped to what the device supports
+     */
+    public BindlessTextures(VkDevice device, FrameLoop frameLoop, int capacity) {
+        this.device = device;
+        this.frameLoop = frameLoop;
+        try (var stack = MemoryStack.stackPush()) {
+            VkPhysicalDeviceVulkan12Properties limits = VkPhysicalDeviceVulkan12Properties.calloc(stack).sType$Default();
+            vkGetPhysicalDeviceProperties2(device.getPhysicalDevice(), VkPhysicalDeviceProperties2.calloc(stack).sType$Default().pNext(limits));
+            this.capacity = Math.min(capacity, Math.min(limits.maxDescriptorSetUpdateAfterBindSampledImages(),
+                    limits.maxPerStageDescriptorUpdateAfterBindSampledImages()));
+
+            VkDescriptorSetLayoutBinding.Buffer binding = VkDescriptorSetLayoutBinding.calloc(1, stack);
+            binding.get(0).binding(0)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                    .descriptorCount(this.capacity)
+                    .stageFlags(VK_SHADER_STAGE_ALL);
+            VkDescriptorSetLayoutBindingFlagsCreateInfo bindingFlags = VkDescriptorSetLayoutBindingFlagsCreateInfo.calloc(stack).sType$Default()
+                    .pBindingFlags(stack.ints(VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT
+                            | VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT
+                            | VK_DESCRIPTOR_BINDING_UPDATE_UNUSED_WHILE_PENDING_BIT
+                            | VK_DESCRIPTOR_BINDING_VARIABLE_DESCRIPTOR_COUNT_BIT));
+            VkDescriptorSetLayoutCreateInfo layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack).sType$Default()
+                    .pNext(bindingFlags)
+                    .flags(VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT)
+                    .pBindings(binding);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateDescriptorSetLayout(device, layoutInfo, null, handle), "Failed to create bindless descriptor set layout!");
+            this.layout = handle.get(0);
+
+            VkDescriptorPoolSize.Buffer size = VkDescriptorPoolSize.calloc(1, stack);
+            size.get(0).type(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER).descriptorCount(this.capacity);
+            VkDescriptorPoolCreateInfo poolInfo = VkDescriptorPoolCreateInfo.calloc(stack).sType$Default()
+                    .flags(VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT)
+                    .maxSets(1)
+                    .pPoolSizes(size);
+            VulkanUtils.assertResult(vkCreateDescriptorPool(device, poolInfo, null, handle), "Failed to create bindless descriptor pool!");
+            this.pool = handle.get(0);
+
+            VkDescriptorSetVariableDescriptorCountAllocateInfo count = VkDescriptorSetVariableDescriptorCountAllocateInfo.calloc(stack).sType$Default()
+                    .pDescriptorCounts(stack.ints(this.capacity));
+            VkDescriptorSetAllocateInfo allocateInfo = VkDescriptorSetAllocateInfo.calloc(stack).sType$Default()
+                    .pNext(count)
+                    .descriptorPool(pool)
+                    .pSetLayouts(stack.longs(layout));
+            VulkanUtils.assertResult(vkAllocateDescriptorSets(device, allocateInfo, handle), "Failed to allocate bindless descriptor set!");
+            this.descriptorSet = handle.get(0);
+        }
+        this.linearSampler = createSampler(VK_FILTER_LINEAR);
+        this.nearestSampler = createSampler(VK_FILTER_NEAREST);
+        // Indices are released at the start of a frame, so the deferral covers every frame that could still sample them
+        frameLoop.onBegin((frame, commandBuffer, imageIndex) -> retire());
+    }
+
+    private long createSampler(int filter) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkSamplerCreateInfo createInfo = VkSamplerCreateInfo.calloc(stack).sType$Default()
+                    .magFilter(filter)
+                    .minFilter(filter)
+                    .mipmapMode(filter == VK_FILTER_LINEAR ? VK_SAMPLER_MIPMAP_MODE_LINEAR : VK_SAMPLER_MIPMAP_MODE_NEAREST)
+                    .addressModeU(VK_SAMPLER_ADDRESS_MODE_CLAMP_TO_EDGE)
+                    .addressModeV(VK_SAMPLER_ADDRESS_MODE_CLAMP_TO_EDGE)
+                    .addressModeW(VK_SAMPLER_ADDRESS_MODE_CLAMP_TO_EDGE)
+                    .maxLod(VK_LOD_CLAMP_NONE);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateSampler(device, createInfo, null, handle), "Failed to create sampler!");
+            return handle.get(0);
+        }
+    }
+
+    /**
+     * Registers a texture sampled with linear filtering
+     *
+     * @param imageView view of an image in VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL
+     * @return index of the texture in the shader's texture array
+     */
+    public int register(long imageView) {
+        return register(imageView, linearSampler);
+    }
+
+    /**
+     * @param imageView view of an image in VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL
+     * @param sampler   VkSampler to sample it with, see {@link #linearSampler()} and {@link #nearestSampler()}
+     * @return index of the texture in the shader's texture array
+     */
+    public synchronized int register(long imageView, long sampler) {
+        int index = used.nextClearBit(0);
+        if (index >= capacity) {
+            throw new IllegalStateException("Bindless texture table is full, %d textures registered".formatted(capacity));
+        }
+        used.set(index);
+        try (var stack = MemoryStack.stackPush()) {
+            VkDescriptorImageInfo.Buffer image = VkDescriptorImageInfo.calloc(1, stack);
+            image.get(0).imageView(imageView)
+                    .sampler(sampler)
+                    .imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+            VkWriteDescriptorSet.Buffer write = VkWriteDescriptorSet.calloc(1, stack);
+            write.get(0).sType$Default()
+                    .dstSet(descriptorSet)
+                    .dstBinding(0)
+                    .dstArrayElement(index)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                    .descriptorCount(1)
+                    .pImageInfo(image);
+            vkUpdateDescriptorSets(device, write, null);
+        }
+        return index;
+    }
+
+    /**
+     * Frees an index, it is not handed out again before every frame recorded so far has completed.
+     * The image view may be destroyed after that as well, shaders just should no longer sample this index.
+     */
+    public synchronized void unregister(int index) {
+        if (index < 0 || index >= capacity || !used.get(index) || retiring.contains(index)) {
+            throw new IllegalArgumentException("Texture %d is not registered".formatted(index));
+        }
+        retiring.add(index);
+    }
+
+    private void retire() {
+        List<Integer> indices;
+        synchronized (this) {
+            if (retiring.isEmpty()) {
+                return;
+            }
+            indices = List.copyOf(retiring);
+            retiring.clear();
+        }
+        frameLoop.defer(() -> {
+            synchronized (this) {
+                indices.forEach(used::clear);
+            }
+        });
+    }
+
+    /**
+     * @return the VkDescriptorSetLayout to put in pipeline layouts sampling from this table
+     */
+    public long layout() {
+        return layout;
+    }
+
+    /**
+     * @return the VkDescriptorSet holding every registered texture, it stays the same for the lifetime of the table
+     */
+    public long descriptorSet() {
+        return descriptorSet;
+    }
+
+    public long linearSampler() {
+        return linearSampler;
+    }
+
+    public long nearestSampler() {
+        return nearestSampler;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return amount of indices currently taken, including those waiting to be reused
+     */
+    public synchronized int registered() {
+        return used.cardinality();
+    }
+
+    public void destroy() {
+        vkDestroySampler(device, linearSampler, null);
+        vkDestroySampler(device, nearestSampler, null);
+        vkDestroyDescriptorPool(device, pool, null);
+        vkDestroyDescriptorSetLayout(device, layout, null);
+    }
+}
@@ -0,0 +1,128 @@
+package com.tebreca.kwant.vk.descriptor;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkDescriptorSetLayoutBinding;
+import org.lwjgl.vulkan.VkDescriptorSetLayoutCreateInfo;
+import org.lwjgl.vulkan.VkDevice;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Shares descriptor set layouts between everything declaring the same bindings, so identical layouts are created once
+ * and pipelines built against them stay compatible.
+ * <br><br>
+ * Layouts are keyed by binding number, descriptor type, count and stage flags. Layouts using immutable samplers or
+ * binding flags are not cached, create those directly.
+ */
+@SuppressWarnings("unused")
+public class DescriptorLayoutCache {
+
+    private final VkDevice device;
+    private final Map<Signature, Long> layouts = new ConcurrentHashMap<>();
+
+    public DescriptorLayoutCache(VkDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Layout with one descriptor per binding, binding i having descriptor type i
+     *
+     * @param stageFlags      shader stages every binding is visible to
+     * @param descriptorTypes VkDescriptorType per binding
+     */
+    public long layout(int stageFlags, int... descriptorTypes) {
+        int[] key = new int[descriptorTypes.length * 4];
+        for (int i = 0; i < descriptorTypes.length; i++) {
+            key[i * 4] = i;
+            key[i * 4 + 1] = descriptorTypes[i];
+            key[i * 4 + 2] = 1;
+            key[i * 4 + 3] = stageFlags;
+        }
+        return layout(new Signature(key));
+    }
+
+    /**
+     * @param bindings bindings of the layout in any order, their immutable samplers are ignored
+     */
+    public long layout(VkDescriptorSetLayoutBinding.Buffer bindings) {
+        int[] key = new int[bindings.remaining() * 4];
+        for (int i = 0; i < bindings.remaining(); i++) {
+            VkDescriptorSetLayoutBinding binding = bindings.get(bindings.position() + i);
+            key[i * 4] = binding.binding();
+            key[i * 4 + 1] = binding.descriptorType();
+            key[i * 4 + 2] = binding.descriptorCount();
+            key[i * 4 + 3] = binding.stageFlags();
+        }
+        return layout(new Signature(sort(key)));
+    }
+
+    private long layout(Signature signature) {
+        return layouts.computeIfAbsent(signature, this::create);
+    }
+
+    /**
+     * Sorts the bindings of a key by binding number, so declaration order does not matter
+     */
+    private static int[] sort(int[] key) {
+        int count = key.length / 4;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(key[a * 4], key[b * 4]));
+        int[] sorted = new int[key.length];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(key, order[i] * 4, sorted, i * 4, 4);
+        }
+        return sorted;
+    }
+
+    private long create(Signature signature) {
+        int[] key = signature.key();
+        try (var stack = MemoryStack.stackPush()) {
+            VkDescriptorSetLayoutBinding.Buffer bindings = VkDescriptorSetLayoutBinding.calloc(key.length / 4, stack);
+            for (int i = 0; i < bindings.capacity(); i++) {
+                bindings.get(i).binding(key[i * 4])
+                        .descriptorType(key[i * 4 + 1])
+                        .descriptorCount(key[i * 4 + 2])
+                        .stageFlags(key[i * 4 + 3]);
+            }
+            VkDescriptorSetLayoutCreateInfo createInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack).sType$Default()
+                    .pBindings(bindings);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateDescriptorSetLayout(device, createInfo, null, handle), "Failed to create descriptor set layout!");
+            return handle.get(0);
+        }
+    }
+
+    public int size() {
+        return layouts.size();
+    }
+
+    public void destroy() {
+        layouts.values().forEach(layout -> vkDestroyDescriptorSetLayout(device, layout, null));
+        layouts.clear();
+    }
+
+    /**
+     * Binding, descriptor type, count and stage flags of every binding, ordered by binding
+     */
+    private record Signature(int[] key) {
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature other && Arrays.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(key);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.tebreca.kwant.vk.descriptor;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.Frame;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkDescriptorPoolCreateInfo;
+import org.lwjgl.vulkan.VkDescriptorPoolSize;
+import org.lwjgl.vulkan.VkDescriptorSetAllocateInfo;
+import org.lwjgl.vulkan.VkDevice;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Descriptor sets that live for a single frame, for per-draw data that changes every frame.
+ * <br><br>
+ * Every frame in flight allocates from its own pools, which are reset as a whole once the frame's fence has signaled
+ * instead of freeing sets one by one. When a pool runs out another one is taken, first from the pools recycled by
+ * earlier resets and otherwise newly created, each new pool being twice as large as the last up to a limit.
+ * Pools are only destroyed with the allocator.
+ * <br><br>
+ * Allocating does not allocate on the Java heap. The allocator is not thread safe, it is meant to be used from the
+ * render thread while recording.
+ */
+@SuppressWarnings("unused")
+public class FrameDescriptorAllocator {
+
+    private static final int[] TYPES = {
+            VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER,
+            VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC,
+            VK_DESCRIPTOR_TYPE_STORAGE_BUFFER,
+            VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER,
+            VK_DESCRIPTOR_TYPE_SAMPLED_IMAGE,
+            VK_DESCRIPTOR_TYPE_STORAGE_IMAGE
+    };
+    // Descriptors of each type per set a pool is sized for
+    private static final float[] RATIOS = {2, 1, 2, 2, 1, 1};
+    private static final int MAX_SETS_PER_POOL = 4096;
+
+    private final VkDevice device;
+    private final long[][] pools;
+    private final int[] poolCounts;
+    private long[] recycled = new long[4];
+    private int recycledCount = 0;
+    private int setsPerPool;
+    private int created = 0;
+
+    private final VkDescriptorSetAllocateInfo allocateInfo;
+    private final LongBuffer layouts;
+    private final LongBuffer set;
+
+    /**
+     * @param setsPerPool amount of sets the first pools are sized for
+     */
+    public FrameDescriptorAllocator(VkDevice device, int framesInFlight, int setsPerPool) {
+        this.device = device;
+        this.setsPerPool = setsPerPool;
+        this.pools = new long[framesInFlight][4];
+        this.poolCounts = new int[framesInFlight];
+        this.layouts = MemoryUtil.memCallocLong(1);
+        this.set = MemoryUtil.memCallocLong(1);
+        this.allocateInfo = VkDescriptorSetAllocateInfo.calloc().sType$Default()
+                .pSetLayouts(layouts);
+        for (int frame = 0; frame < framesInFlight; frame++) {
+            addPool(frame);
+        }
+    }
+
+    /**
+     * @param layout VkDescriptorSetLayout of the set, for example from {@link DescriptorLayoutCache}
+     * @return a VkDescriptorSet valid until the frame is recorded again, its contents undefined
+     */
+    public long allocate(Frame frame, long layout) {
+        return allocate(frame.index(), layout);
+    }
+
+    public long allocate(int frame, long layout) {
+        layouts.put(0, layout);
+        allocateInfo.descriptorPool(pools[frame][poolCounts[frame] - 1]);
+        int result = vkAllocateDescriptorSets(device, allocateInfo, set);
+        if (result == VK_ERROR_OUT_OF_POOL_MEMORY || result == VK_ERROR_FRAGMENTED_POOL) {
+            allocateInfo.descriptorPool(addPool(frame));
+            result = vkAllocateDescriptorSets(device, allocateInfo, set);
+        }
+        VulkanUtils.assertResult(result, "Failed to allocate frame descriptor set!");
+        return set.get(0);
+    }
+
+    /**
+     * Resets every pool of a frame, recycling all but its first for the other frames.
+     * Called at the start of the frame, after its fence has been waited on.
+     */
+    public void reset(int frame) {
+        long[] framePools = pools[frame];
+        for (int i = 0; i < poolCounts[frame]; i++) {
+            VulkanUtils.assertResult(vkResetDescriptorPool(device, framePools[i], 0), "Failed to reset descriptor pool!");
+            if (i > 0) {
+                if (recycledCount == recycled.length) {
+                    recycled = Arrays.copyOf(recycled, recycledCount * 2);
+                }
+                recycled[recycledCount++] = framePools[i];
+            }
+        }
+        poolCounts[frame] = 1;
+    }
+
+    private long addPool(int frame) {
+        long pool = recycledCount > 0 ? recycled[--recycledCount] : createPool();
+        if (poolCounts[frame] == pools[frame].length) {
+            pools[frame] = Arrays.copyOf(pools[frame], poolCounts[frame] * 2);
+        }
+        pools[frame][poolCounts[frame]++] = pool;
+        return pool;
+    }
+
+    private long createPool() {
+        try (var stack = MemoryStack.stackPush()) {
+            VkDescriptorPoolSize.Buffer sizes = VkDescriptorPoolSize.calloc(TYPES.length, stack);
+            for (int i = 0; i < TYPES.length; i++) {
+                sizes.get(i).type(TYPES[i]).descriptorCount((int) Math.ceil(RATIOS[i] * setsPerPool));
+            }
+            // Without FREE_DESCRIPTOR_SET the driver can allocate linearly from the pool
+            VkDescriptorPoolCreateInfo createInfo = VkDescriptorPoolCreateInfo.calloc(stack).sType$Default()
+                    .maxSets(setsPerPool)
+                    .pPoolSizes(sizes);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateDescriptorPool(device, createInfo, null, handle), "Failed to create descriptor pool!");
+            created++;
+            setsPerPool = Math.min(setsPerPool * 2, MAX_SETS_PER_POOL);
+            return handle.get(0);
+        }
+    }
+
+    /**
+     * @return amount of descriptor pools created so far, stays the same once the allocator has warmed up
+     */
+    public int poolsCreated() {
+        return created;
+    }
+
+    public void destroy() {
+        for (int frame = 0; frame < pools.length; frame++) {
+            for (int i = 0; i < poolCounts[frame]; i++) {
+                vkDestroyDescriptorPool(device, pools[frame][i], null);
+            }
+        }
+        for (int i = 0; i < recycledCount; i++) {
+            vkDestroyDescriptorPool(device, recycled[i], null);
+        }
+        allocateInfo.free();
+        MemoryUtil.memFree(layouts);
+        MemoryUtil.memFree(set);
+    }
+}
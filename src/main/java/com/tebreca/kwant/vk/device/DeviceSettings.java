@@ -2,7 +2,12 @@ package com.tebreca.kwant.vk.device;
 
 import org.lwjgl.vulkan.VkPhysicalDeviceFeatures;
 
-public record DeviceSettings(VkPhysicalDeviceFeatures deviceFeatures, int flags) {
-
-
+/**
+ * @param descriptorIndexing enables the descriptor indexing features bindless textures rely on, when the device supports them
+ */
+public record DeviceSettings(VkPhysicalDeviceFeatures deviceFeatures, int flags, boolean descriptorIndexing) {
+
+    public DeviceSettings(VkPhysicalDeviceFeatures deviceFeatures, int flags) {
+        this(deviceFeatures, flags, true);
+    }
 }
@@ -0,0 +1,13 @@
+package com.tebreca.kwant.vk.frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A rendered swapchain image copied to host memory
+ *
+ * @param frame  number of the frame, see {@link FrameLoop#frameNumber()}
+ * @param format VkFormat of the pixels, 4 bytes per pixel
+ * @param pixels tightly packed rows from top to bottom, owned by the receiver
+ */
+public record CapturedFrame(long frame, int width, int height, int format, ByteBuffer pixels) {
+}
@@ -0,0 +1,90 @@
+package com.tebreca.kwant.vk.frame;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * The per frame-in-flight resources of the frame loop, reused every {@link FrameLoop#framesInFlight()} frames
+ */
+public final class Frame {
+
+    private final int index;
+    private final long fence;
+    private final long imageAvailable;
+    private final long commandPool;
+    private final VkCommandBuffer commandBuffer;
+
+    private long number = -1;
+
+    Frame(VkDevice device, int index, int queueFamily) {
+        this.index = index;
+        try (var stack = MemoryStack.stackPush()) {
+            var handle = stack.callocLong(1);
+            VkFenceCreateInfo fenceCreateInfo = VkFenceCreateInfo.calloc(stack).sType$Default().flags(VK_FENCE_CREATE_SIGNALED_BIT);
+            VulkanUtils.assertResult(vkCreateFence(device, fenceCreateInfo, null, handle), "Failed to create frame fence!");
+            fence = handle.get(0);
+
+            VkSemaphoreCreateInfo semaphoreCreateInfo = VkSemaphoreCreateInfo.calloc(stack).sType$Default();
+            VulkanUtils.assertResult(vkCreateSemaphore(device, semaphoreCreateInfo, null, handle), "Failed to create frame semaphore!");
+            imageAvailable = handle.get(0);
+
+            // Buffers are never reset on their own, the whole pool is reset once per frame
+            VkCommandPoolCreateInfo poolCreateInfo = VkCommandPoolCreateInfo.calloc(stack).sType$Default()
+                    .flags(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT)
+                    .queueFamilyIndex(queueFamily);
+            VulkanUtils.assertResult(vkCreateCommandPool(device, poolCreateInfo, null, handle), "Failed to create frame command pool!");
+            commandPool = handle.get(0);
+
+            VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack).sType$Default()
+                    .commandPool(commandPool)
+                    .level(VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                    .commandBufferCount(1);
+            var pointer = stack.callocPointer(1);
+            VulkanUtils.assertResult(vkAllocateCommandBuffers(device, allocateInfo, pointer), "Failed to allocate frame command buffer!");
+            commandBuffer = new VkCommandBuffer(pointer.get(0), device);
+        }
+    }
+
+    /**
+     * @return which of the frames in flight this is, in [0, framesInFlight)
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * @return the amount of frames rendered before this one, increasing every time this frame is reused
+     */
+    public long number() {
+        return number;
+    }
+
+    void begin(long number) {
+        this.number = number;
+    }
+
+    public long fence() {
+        return fence;
+    }
+
+    public long imageAvailable() {
+        return imageAvailable;
+    }
+
+    public long commandPool() {
+        return commandPool;
+    }
+
+    public VkCommandBuffer commandBuffer() {
+        return commandBuffer;
+    }
+
+    void destroy(VkDevice device) {
+        vkDestroyCommandPool(device, commandPool, null);
+        vkDestroySemaphore(device, imageAvailable, null);
+        vkDestroyFence(device, fence, null);
+    }
+}
@@ -0,0 +1,353 @@
+package com.tebreca.kwant.vk.frame;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import static org.lwjgl.vulkan.KHRSwapchain.*;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Acquire, record, submit and present loop on top of the swapchain, with a fixed amount of frames in flight.
+ * <br><br>
+ * Every frame in flight has its own fence, image available semaphore and command pool. The only point where the CPU
+ * waits on the GPU is the fence of the frame about to be reused. All native structs used per frame are allocated once,
+ * rendering a frame does not allocate.
+ * <br><br>
+ * When the swapchain is out of date it is recreated before the next frame, without waiting for the device to idle.
+ * The replaced swapchain is destroyed once every frame that was in flight at that point has completed.
+ */
+@SuppressWarnings("unused")
+public class FrameLoop {
+
+    private final VkDevice device;
+    private final SwapChainManager swapChain;
+    private final VkQueue queue;
+    private final Frame[] frames;
+
+    private static final int MAX_WAITS = 16;
+
+    private volatile FrameRecorder[] beginHooks = new FrameRecorder[0];
+    private volatile FrameRecorder[] recorders = new FrameRecorder[0];
+    private volatile FrameRecorder[] endHooks = new FrameRecorder[0];
+    private int waitCount;
+
+    // Indexed by swapchain image, presentation may still read the semaphore until the image is acquired again
+    private long[] renderFinished;
+    private long[] imageFences;
+
+    private final VkCommandBufferBeginInfo beginInfo;
+    private final VkImageMemoryBarrier.Buffer barrier;
+    private final VkSubmitInfo submitInfo;
+    private final VkPresentInfoKHR presentInfo;
+    private final IntBuffer imageIndex;
+    private final IntBuffer waitStages;
+    private final LongBuffer waitSemaphores;
+    private final LongBuffer waitValues;
+    private final VkTimelineSemaphoreSubmitInfo timelineInfo;
+    private final LongBuffer signalSemaphores;
+    private final LongBuffer swapchains;
+    private final PointerBuffer commandBuffers;
+
+    private long frameNumber = 0;
+
+    private final ArrayDeque<Deferred> deferred = new ArrayDeque<>();
+
+    public FrameLoop(VkDevice device, SwapChainManager swapChain, int queueFamily, int framesInFlight) {
+        this.device = device;
+        this.swapChain = swapChain;
+        this.queue = swapChain.getPresentQueue();
+        this.frames = new Frame[Math.max(1, framesInFlight)];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Frame(device, i, queueFamily);
+        }
+        createImageResources();
+
+        beginInfo = VkCommandBufferBeginInfo.calloc().sType$Default().flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+        barrier = VkImageMemoryBarrier.calloc(1).sType$Default()
+                .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED);
+        barrier.subresourceRange().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, 1, 0, 1);
+
+        imageIndex = MemoryUtil.memCallocInt(1);
+        waitStages = MemoryUtil.memCallocInt(MAX_WAITS);
+        waitSemaphores = MemoryUtil.memCallocLong(MAX_WAITS);
+        waitValues = MemoryUtil.memCallocLong(MAX_WAITS);
+        signalSemaphores = MemoryUtil.memCallocLong(1);
+        swapchains = MemoryUtil.memCallocLong(1);
+        commandBuffers = MemoryUtil.memCallocPointer(1);
+
+        // Values are ignored for binary semaphores, so the timeline info is always chained
+        timelineInfo = VkTimelineSemaphoreSubmitInfo.calloc().sType$Default()
+                .pWaitSemaphoreValues(waitValues);
+        submitInfo = VkSubmitInfo.calloc().sType$Default()
+                .pNext(timelineInfo)
+                .pWaitSemaphores(waitSemaphores)
+                .pWaitDstStageMask(waitStages)
+                .pCommandBuffers(commandBuffers)
+                .pSignalSemaphores(signalSemaphores);
+        presentInfo = VkPresentInfoKHR.calloc().sType$Default()
+                .pWaitSemaphores(signalSemaphores)
+                .swapchainCount(1)
+                .pSwapchains(swapchains)
+                .pImageIndices(imageIndex);
+    }
+
+    private void createImageResources() {
+        int images = swapChain.imageCount();
+        renderFinished = new long[images];
+        imageFences = new long[images];
+        try (var stack = MemoryStack.stackPush()) {
+            var handle = stack.callocLong(1);
+            VkSemaphoreCreateInfo semaphoreCreateInfo = VkSemaphoreCreateInfo.calloc(stack).sType$Default();
+            for (int i = 0; i < images; i++) {
+                VulkanUtils.assertResult(vkCreateSemaphore(device, semaphoreCreateInfo, null, handle), "Failed to create render finished semaphore!");
+                renderFinished[i] = handle.get(0);
+            }
+        }
+    }
+
+    /**
+     * Adds a hook that records into every frame, hooks are called in the order they were added
+     *
+     * @return this
+     */
+    public synchronized FrameLoop onRecord(FrameRecorder recorder) {
+        FrameRecorder[] next = Arrays.copyOf(recorders, recorders.length + 1);
+        next[recorders.length] = recorder;
+        recorders = next;
+        return this;
+    }
+
+    /**
+     * Adds a hook that runs at the start of every frame, before the swapchain image is transitioned and before any
+     * {@link #onRecord(FrameRecorder)} hook. Meant for engine services such as uploads that prepare resources for the
+     * frame.
+     *
+     * @return this
+     */
+    public synchronized FrameLoop onBegin(FrameRecorder hook) {
+        FrameRecorder[] next = Arrays.copyOf(beginHooks, beginHooks.length + 1);
+        next[beginHooks.length] = hook;
+        beginHooks = next;
+        return this;
+    }
+
+    /**
+     * Adds a hook that runs at the end of every frame, after every {@link #onRecord(FrameRecorder)} hook and after the
+     * swapchain image has been transitioned for presentation.
+     *
+     * @return this
+     */
+    public synchronized FrameLoop onEnd(FrameRecorder hook) {
+        FrameRecorder[] next = Arrays.copyOf(endHooks, endHooks.length + 1);
+        next[endHooks.length] = hook;
+        endHooks = next;
+        return this;
+    }
+
+    /**
+     * Makes the submission of the frame currently being recorded wait on the given binary semaphore.
+     * Only call this from a hook of this loop.
+     *
+     * @param semaphore binary semaphore that is or will be signaled by an earlier submission
+     * @param stage     VkPipelineStageFlags at which the frame waits
+     * @return this
+     */
+    public FrameLoop waitOn(long semaphore, int stage) {
+        return waitOn(semaphore, 0, stage);
+    }
+
+    /**
+     * Makes the submission of the frame currently being recorded wait until a timeline semaphore reaches a value.
+     * Only call this from a hook of this loop.
+     *
+     * @param semaphore timeline semaphore
+     * @param value     value to wait for, the signaling submission may still be made later
+     * @param stage     VkPipelineStageFlags at which the frame waits
+     * @return this
+     */
+    public FrameLoop waitOn(long semaphore, long value, int stage) {
+        if (waitCount == MAX_WAITS) {
+            throw new IllegalStateException("A frame can wait on at most %d semaphores".formatted(MAX_WAITS));
+        }
+        waitSemaphores.put(waitCount, semaphore);
+        waitValues.put(waitCount, value);
+        waitStages.put(waitCount, stage);
+        waitCount++;
+        return this;
+    }
+
+    /**
+     * Renders and presents a single frame, waiting only if the frame about to be reused is still in flight
+     */
+    public void renderFrame() {
+        if (swapChain.outOfDate()) {
+            if (swapChain.minimized() || !recreateSwapChain()) {
+                return;
+            }
+        }
+
+        Frame frame = frames[(int) (frameNumber % frames.length)];
+        VulkanUtils.assertResult(vkWaitForFences(device, frame.fence(), true, Long.MAX_VALUE), "Failed to wait for frame fence!");
+        collect();
+
+        int result = vkAcquireNextImageKHR(device, swapChain.swapchain(), Long.MAX_VALUE, frame.imageAvailable(), VK_NULL_HANDLE, imageIndex);
+        if (result == VK_ERROR_OUT_OF_DATE_KHR) {
+            // Nothing was submitted, this frame's resources are simply used again for the next attempt
+            swapChain.invalidate();
+            return;
+        } else if (result != VK_SUBOPTIMAL_KHR) {
+            VulkanUtils.assertResult(result, "Failed to acquire swapchain image!");
+        }
+        int image = imageIndex.get(0);
+
+        // With fewer frames in flight than images this never waits, with more it keeps two frames off one image
+        long previous = imageFences[image];
+        if (previous != VK_NULL_HANDLE && previous != frame.fence()) {
+            VulkanUtils.assertResult(vkWaitForFences(device, previous, true, Long.MAX_VALUE), "Failed to wait for image fence!");
+        }
+        imageFences[image] = frame.fence();
+
+        VulkanUtils.assertResult(vkResetFences(device, frame.fence()), "Failed to reset frame fence!");
+        VulkanUtils.assertResult(vkResetCommandPool(device, frame.commandPool(), 0), "Failed to reset frame command pool!");
+        frame.begin(frameNumber);
+
+        waitCount = 0;
+        waitOn(frame.imageAvailable(), VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
+
+        VkCommandBuffer commandBuffer = frame.commandBuffer();
+        VulkanUtils.assertResult(vkBeginCommandBuffer(commandBuffer, beginInfo), "Failed to begin frame command buffer!");
+        for (FrameRecorder hook : beginHooks) {
+            hook.record(frame, commandBuffer, image);
+        }
+        transition(commandBuffer, image, VK_IMAGE_LAYOUT_UNDEFINED, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL,
+                VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, 0,
+                VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, VK_ACCESS_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
+        for (FrameRecorder recorder : recorders) {
+            recorder.record(frame, commandBuffer, image);
+        }
+        transition(commandBuffer, image, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL, VK_IMAGE_LAYOUT_PRESENT_SRC_KHR,
+                VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT,
+                VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, 0);
+        for (FrameRecorder hook : endHooks) {
+            hook.record(frame, commandBuffer, image);
+        }
+        VulkanUtils.assertResult(vkEndCommandBuffer(commandBuffer), "Failed to end frame command buffer!");
+
+        submitInfo.waitSemaphoreCount(waitCount);
+        timelineInfo.waitSemaphoreValueCount(waitCount);
+        signalSemaphores.put(0, renderFinished[image]);
+        commandBuffers.put(0, commandBuffer);
+        VulkanUtils.assertResult(vkQueueSubmit(queue, submitInfo, frame.fence()), "Failed to submit frame!");
+
+        swapchains.put(0, swapChain.swapchain());
+        result = vkQueuePresentKHR(queue, presentInfo);
+        if (result == VK_ERROR_OUT_OF_DATE_KHR || result == VK_SUBOPTIMAL_KHR) {
+            swapChain.invalidate();
+        } else {
+            VulkanUtils.assertResult(result, "Failed to present frame!");
+        }
+        frameNumber++;
+    }
+
+    /**
+     * @return false if the surface currently has no area to render to
+     */
+    private boolean recreateSwapChain() {
+        Runnable retired = swapChain.recreate();
+        if (retired == null) {
+            return false;
+        }
+        defer(retired);
+        long[] oldRenderFinished = renderFinished;
+        defer(() -> {
+            for (long semaphore : oldRenderFinished) {
+                vkDestroySemaphore(device, semaphore, null);
+            }
+        });
+        createImageResources();
+        return true;
+    }
+
+    /**
+     * Destroys something once every frame submitted so far has completed on the GPU, without waiting for it
+     *
+     * @param destructor ran on the render thread at the start of a later frame
+     * @return this
+     */
+    public FrameLoop defer(Runnable destructor) {
+        deferred.add(new Deferred(frameNumber, destructor));
+        return this;
+    }
+
+    /**
+     * Runs the destructors of which all frames up to their submission have completed.
+     * Frames finish in submission order, so after waiting on the fence of frame n every frame before n is done too.
+     */
+    private void collect() {
+        long completed = frameNumber - frames.length;
+        while (!deferred.isEmpty() && deferred.peek().frame() <= completed + 1) {
+            deferred.poll().destructor().run();
+        }
+    }
+
+    private void transition(VkCommandBuffer commandBuffer, int image, int oldLayout, int newLayout, int srcStage, int srcAccess, int dstStage, int dstAccess) {
+        barrier.image(swapChain.image(image))
+                .oldLayout(oldLayout)
+                .newLayout(newLayout)
+                .srcAccessMask(srcAccess)
+                .dstAccessMask(dstAccess);
+        vkCmdPipelineBarrier(commandBuffer, srcStage, dstStage, 0, null, null, barrier);
+    }
+
+    public int framesInFlight() {
+        return frames.length;
+    }
+
+    /**
+     * @return amount of frames submitted so far
+     */
+    public long frameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Destroys all frame resources, the device has to be idle
+     */
+    public void destroy() {
+        while (!deferred.isEmpty()) {
+            deferred.poll().destructor().run();
+        }
+        for (Frame frame : frames) {
+            frame.destroy(device);
+        }
+        for (long semaphore : renderFinished) {
+            vkDestroySemaphore(device, semaphore, null);
+        }
+        beginInfo.free();
+        barrier.free();
+        submitInfo.free();
+        timelineInfo.free();
+        presentInfo.free();
+        MemoryUtil.memFree(imageIndex);
+        MemoryUtil.memFree(waitStages);
+        MemoryUtil.memFree(waitSemaphores);
+        MemoryUtil.memFree(waitValues);
+        MemoryUtil.memFree(signalSemaphores);
+        MemoryUtil.memFree(swapchains);
+        MemoryUtil.memFree(commandBuffers);
+    }
+
+    private record Deferred(long frame, Runnable destructor) {
+
+    }
+}
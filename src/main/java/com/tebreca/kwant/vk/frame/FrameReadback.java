@@ -0,0 +1,161 @@
+package com.tebreca.kwant.vk.frame;
+
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import com.tebreca.kwant.vk.memory.MemoryUsage;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import org.joml.Vector2i;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Copies rendered frames back to host memory, for headless rendering and screenshots.
+ * <br><br>
+ * A requested frame is copied into a host visible buffer of its frame slot at the end of recording, and handed out
+ * when the slot comes around again and its fence has been waited on, so capturing never stalls the frame loop.
+ * Frames nobody asked for are not copied.
+ */
+@SuppressWarnings("unused")
+public class FrameReadback {
+
+    private final MemoryAllocator allocator;
+    private final SwapChainManager swapChain;
+
+    private final GpuBuffer[] buffers;
+    private final CapturedFrame[] captured;
+    private final List<List<Sinks.One<CapturedFrame>>> waiting = new ArrayList<>();
+    private List<Sinks.One<CapturedFrame>> requested = new ArrayList<>();
+
+    private final VkImageMemoryBarrier2.Buffer imageBarrier;
+    private final VkMemoryBarrier2.Buffer hostBarrier;
+    private final VkDependencyInfo dependency;
+    private final VkBufferImageCopy.Buffer region;
+
+    public FrameReadback(MemoryAllocator allocator, SwapChainManager swapChain, FrameLoop frameLoop) {
+        this.allocator = allocator;
+        this.swapChain = swapChain;
+        int frames = frameLoop.framesInFlight();
+        this.buffers = new GpuBuffer[frames];
+        this.captured = new CapturedFrame[frames];
+        for (int i = 0; i < frames; i++) {
+            waiting.add(new ArrayList<>());
+        }
+
+        imageBarrier = VkImageMemoryBarrier2.calloc(1);
+        imageBarrier.get(0).sType$Default()
+                .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .subresourceRange().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, 1, 0, 1);
+        hostBarrier = VkMemoryBarrier2.calloc(1);
+        hostBarrier.get(0).sType$Default()
+                .srcStageMask(VK_PIPELINE_STAGE_2_COPY_BIT)
+                .srcAccessMask(VK_ACCESS_2_TRANSFER_WRITE_BIT)
+                .dstStageMask(VK_PIPELINE_STAGE_2_HOST_BIT)
+                .dstAccessMask(VK_ACCESS_2_HOST_READ_BIT);
+        dependency = VkDependencyInfo.calloc().sType$Default()
+                .pImageMemoryBarriers(imageBarrier);
+        region = VkBufferImageCopy.calloc(1);
+        region.get(0).imageSubresource().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, 0, 1);
+
+        frameLoop.onBegin(this::deliver);
+        frameLoop.onEnd(this::copy);
+    }
+
+    /**
+     * @return the next frame to finish recording, once the GPU has rendered it
+     */
+    public Mono<CapturedFrame> capture() {
+        if (!swapChain.readable()) {
+            return Mono.error(new IllegalStateException("The surface does not allow reading back swapchain images"));
+        }
+        Sinks.One<CapturedFrame> sink = Sinks.one();
+        synchronized (this) {
+            requested.add(sink);
+        }
+        return sink.asMono();
+    }
+
+    private void deliver(Frame frame, VkCommandBuffer commandBuffer, int imageIndex) {
+        List<Sinks.One<CapturedFrame>> sinks = waiting.get(frame.index());
+        if (sinks.isEmpty()) {
+            return;
+        }
+        CapturedFrame layout = captured[frame.index()];
+        GpuBuffer buffer = buffers[frame.index()];
+        int size = layout.width() * layout.height() * 4;
+        buffer.invalidate(0, size);
+        ByteBuffer pixels = ByteBuffer.allocateDirect(size);
+        pixels.put(buffer.mapped().slice(0, size)).flip();
+        CapturedFrame result = new CapturedFrame(layout.frame(), layout.width(), layout.height(), layout.format(), pixels);
+        sinks.forEach(sink -> sink.tryEmitValue(result));
+        sinks.clear();
+    }
+
+    private void copy(Frame frame, VkCommandBuffer commandBuffer, int imageIndex) {
+        List<Sinks.One<CapturedFrame>> sinks;
+        synchronized (this) {
+            if (requested.isEmpty()) {
+                return;
+            }
+            sinks = requested;
+            requested = new ArrayList<>();
+        }
+        Vector2i extent = swapChain.extent();
+        int size = extent.x * extent.y * 4;
+        int slot = frame.index();
+        // The slot's fence has been waited on this frame, so its previous buffer is no longer in use
+        if (buffers[slot] == null || buffers[slot].size() < size) {
+            if (buffers[slot] != null) {
+                allocator.destroy(buffers[slot]);
+            }
+            buffers[slot] = allocator.buffer(size, VK_BUFFER_USAGE_TRANSFER_DST_BIT, MemoryUsage.GPU_TO_CPU);
+        }
+        captured[slot] = new CapturedFrame(frame.number(), extent.x, extent.y, swapChain.format(), null);
+        waiting.get(slot).addAll(sinks);
+
+        long image = swapChain.image(imageIndex);
+        transition(commandBuffer, image, VK_IMAGE_LAYOUT_PRESENT_SRC_KHR, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL,
+                VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT, VK_ACCESS_2_MEMORY_WRITE_BIT,
+                VK_PIPELINE_STAGE_2_COPY_BIT, VK_ACCESS_2_TRANSFER_READ_BIT);
+        region.get(0).imageExtent().set(extent.x, extent.y, 1);
+        vkCmdCopyImageToBuffer(commandBuffer, image, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, buffers[slot].handle(), region);
+
+        dependency.pMemoryBarriers(hostBarrier);
+        transition(commandBuffer, image, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, VK_IMAGE_LAYOUT_PRESENT_SRC_KHR,
+                VK_PIPELINE_STAGE_2_COPY_BIT, 0,
+                VK_PIPELINE_STAGE_2_NONE, 0);
+        dependency.pMemoryBarriers(null);
+    }
+
+    private void transition(VkCommandBuffer commandBuffer, long image, int oldLayout, int newLayout,
+                            long srcStages, long srcAccess, long dstStages, long dstAccess) {
+        imageBarrier.get(0).image(image)
+                .oldLayout(oldLayout)
+                .newLayout(newLayout)
+                .srcStageMask(srcStages)
+                .srcAccessMask(srcAccess)
+                .dstStageMask(dstStages)
+                .dstAccessMask(dstAccess);
+        vkCmdPipelineBarrier2(commandBuffer, dependency);
+    }
+
+    public void destroy() {
+        for (GpuBuffer buffer : buffers) {
+            if (buffer != null) {
+                allocator.destroy(buffer);
+            }
+        }
+        imageBarrier.free();
+        hostBarrier.free();
+        dependency.free();
+        region.free();
+    }
+}
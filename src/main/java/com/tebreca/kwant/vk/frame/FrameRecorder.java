@@ -0,0 +1,19 @@
+package com.tebreca.kwant.vk.frame;
+
+import org.lwjgl.vulkan.VkCommandBuffer;
+
+/**
+ * Records the commands of a single frame. Called on the render thread every frame, so implementations should not
+ * allocate.
+ */
+@FunctionalInterface
+public interface FrameRecorder {
+
+    /**
+     * @param frame         the frame being recorded, its resources are free for reuse
+     * @param commandBuffer the frame's primary command buffer, already begun. The swapchain image is in
+     *                      VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL and is transitioned for presentation afterwards
+     * @param imageIndex    index of the acquired swapchain image
+     */
+    void record(Frame frame, VkCommandBuffer commandBuffer, int imageIndex);
+}
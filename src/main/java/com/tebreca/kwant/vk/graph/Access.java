@@ -0,0 +1,90 @@
+package com.tebreca.kwant.vk.graph;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * How a pass accesses a resource of the render graph, with the synchronization2 stage and access masks, image layout
+ * and image usage belonging to that access
+ */
+public enum Access {
+    COLOR_ATTACHMENT(VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT, VK_ACCESS_2_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_2_COLOR_ATTACHMENT_WRITE_BIT,
+            VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL, true, VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT),
+    DEPTH_ATTACHMENT(VK_PIPELINE_STAGE_2_EARLY_FRAGMENT_TESTS_BIT | VK_PIPELINE_STAGE_2_LATE_FRAGMENT_TESTS_BIT,
+            VK_ACCESS_2_DEPTH_STENCIL_ATTACHMENT_READ_BIT | VK_ACCESS_2_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT,
+            VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL, true, VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT),
+    DEPTH_READ(VK_PIPELINE_STAGE_2_EARLY_FRAGMENT_TESTS_BIT | VK_PIPELINE_STAGE_2_LATE_FRAGMENT_TESTS_BIT, VK_ACCESS_2_DEPTH_STENCIL_ATTACHMENT_READ_BIT,
+            VK_IMAGE_LAYOUT_DEPTH_STENCIL_READ_ONLY_OPTIMAL, false, VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT),
+    FRAGMENT_SAMPLED(VK_PIPELINE_STAGE_2_FRAGMENT_SHADER_BIT, VK_ACCESS_2_SHADER_SAMPLED_READ_BIT,
+            VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL, false, VK_IMAGE_USAGE_SAMPLED_BIT),
+    COMPUTE_SAMPLED(VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_SAMPLED_READ_BIT,
+            VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL, false, VK_IMAGE_USAGE_SAMPLED_BIT),
+    COMPUTE_STORAGE_READ(VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_STORAGE_READ_BIT,
+            VK_IMAGE_LAYOUT_GENERAL, false, VK_IMAGE_USAGE_STORAGE_BIT),
+    COMPUTE_STORAGE_WRITE(VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK_ACCESS_2_SHADER_STORAGE_READ_BIT | VK_ACCESS_2_SHADER_STORAGE_WRITE_BIT,
+            VK_IMAGE_LAYOUT_GENERAL, true, VK_IMAGE_USAGE_STORAGE_BIT),
+    VERTEX_STORAGE_READ(VK_PIPELINE_STAGE_2_VERTEX_SHADER_BIT, VK_ACCESS_2_SHADER_STORAGE_READ_BIT,
+            VK_IMAGE_LAYOUT_GENERAL, false, VK_IMAGE_USAGE_STORAGE_BIT),
+    TRANSFER_READ(VK_PIPELINE_STAGE_2_ALL_TRANSFER_BIT, VK_ACCESS_2_TRANSFER_READ_BIT,
+            VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, false, VK_IMAGE_USAGE_TRANSFER_SRC_BIT),
+    TRANSFER_WRITE(VK_PIPELINE_STAGE_2_ALL_TRANSFER_BIT, VK_ACCESS_2_TRANSFER_WRITE_BIT,
+            VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, true, VK_IMAGE_USAGE_TRANSFER_DST_BIT),
+    /**
+     * Buffers only
+     */
+    VERTEX_INPUT(VK_PIPELINE_STAGE_2_VERTEX_ATTRIBUTE_INPUT_BIT, VK_ACCESS_2_VERTEX_ATTRIBUTE_READ_BIT,
+            VK_IMAGE_LAYOUT_UNDEFINED, false, 0),
+    /**
+     * Buffers only
+     */
+    INDIRECT_COMMAND(VK_PIPELINE_STAGE_2_DRAW_INDIRECT_BIT, VK_ACCESS_2_INDIRECT_COMMAND_READ_BIT,
+            VK_IMAGE_LAYOUT_UNDEFINED, false, 0);
+
+    private final long stages;
+    private final long access;
+    private final int layout;
+    private final boolean write;
+    private final int imageUsage;
+
+    Access(long stages, long access, int layout, boolean write, int imageUsage) {
+        this.stages = stages;
+        this.access = access;
+        this.layout = layout;
+        this.write = write;
+        this.imageUsage = imageUsage;
+    }
+
+    /**
+     * @return VkPipelineStageFlags2 this access happens in
+     */
+    public long stages() {
+        return stages;
+    }
+
+    /**
+     * @return VkAccessFlags2 of this access
+     */
+    public long access() {
+        return access;
+    }
+
+    /**
+     * @return VkImageLayout images have to be in, VK_IMAGE_LAYOUT_UNDEFINED for buffer only accesses
+     */
+    public int layout() {
+        return layout;
+    }
+
+    /**
+     * @return whether this access writes, writes also keep earlier writers of the resource alive
+     */
+    public boolean write() {
+        return write;
+    }
+
+    /**
+     * @return VkImageUsageFlags an image needs for this access
+     */
+    public int imageUsage() {
+        return imageUsage;
+    }
+}
@@ -0,0 +1,20 @@
+package com.tebreca.kwant.vk.graph;
+
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+
+/**
+ * A buffer imported into the render graph, its contents survive the frame
+ */
+public final class GraphBuffer extends GraphResource {
+
+    private final GpuBuffer buffer;
+
+    GraphBuffer(String name, GpuBuffer buffer) {
+        super(name, true);
+        this.buffer = buffer;
+    }
+
+    public GpuBuffer buffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,88 @@
+package com.tebreca.kwant.vk.graph;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * An image of the render graph. Transient images are created by the graph and may share memory with other transient
+ * images, so their contents only live from their first to their last use within a frame. Handles can change between
+ * frames, they should be read while recording a pass.
+ */
+public final class GraphImage extends GraphResource {
+
+    private final int format;
+    private final float scale;
+    private final int fixedWidth;
+    private final int fixedHeight;
+    private final int importedLayout;
+
+    int usage;
+    long handle;
+    long view;
+    int width;
+    int height;
+
+    GraphImage(String name, boolean imported, int format, float scale, int width, int height, int importedLayout) {
+        super(name, imported);
+        this.format = format;
+        this.scale = scale;
+        this.fixedWidth = width;
+        this.fixedHeight = height;
+        this.importedLayout = importedLayout;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int format() {
+        return format;
+    }
+
+    public long handle() {
+        return handle;
+    }
+
+    public long view() {
+        return view;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return layout an imported image is in before and after the graph
+     */
+    int importedLayout() {
+        return importedLayout;
+    }
+
+    /**
+     * Sets the size of a transient image for the given swapchain extent
+     *
+     * @return whether the size changed
+     */
+    boolean resize(int swapchainWidth, int swapchainHeight) {
+        int newWidth = scale > 0 ? Math.max(1, (int) (swapchainWidth * scale)) : fixedWidth;
+        int newHeight = scale > 0 ? Math.max(1, (int) (swapchainHeight * scale)) : fixedHeight;
+        boolean changed = newWidth != width || newHeight != height;
+        width = newWidth;
+        height = newHeight;
+        return changed;
+    }
+
+    /**
+     * @return VkImageAspectFlags covering the whole image
+     */
+    int aspect() {
+        return switch (format) {
+            case VK_FORMAT_D16_UNORM, VK_FORMAT_D32_SFLOAT, VK_FORMAT_X8_D24_UNORM_PACK32 -> VK_IMAGE_ASPECT_DEPTH_BIT;
+            case VK_FORMAT_D16_UNORM_S8_UINT, VK_FORMAT_D24_UNORM_S8_UINT, VK_FORMAT_D32_SFLOAT_S8_UINT ->
+                    VK_IMAGE_ASPECT_DEPTH_BIT | VK_IMAGE_ASPECT_STENCIL_BIT;
+            case VK_FORMAT_S8_UINT -> VK_IMAGE_ASPECT_STENCIL_BIT;
+            default -> VK_IMAGE_ASPECT_COLOR_BIT;
+        };
+    }
+}
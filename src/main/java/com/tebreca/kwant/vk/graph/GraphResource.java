@@ -0,0 +1,31 @@
+package com.tebreca.kwant.vk.graph;
+
+/**
+ * An image or buffer passes of a {@link RenderGraph} declare accesses to
+ */
+public abstract sealed class GraphResource permits GraphImage, GraphBuffer {
+
+    private final String name;
+    private final boolean imported;
+
+    GraphResource(String name, boolean imported) {
+        this.name = name;
+        this.imported = imported;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return whether the resource lives outside the graph, writing to it keeps a pass from being culled
+     */
+    public boolean imported() {
+        return imported;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,691 @@
+package com.tebreca.kwant.vk.graph;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.Frame;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.frame.FrameRecorder;
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import com.tebreca.kwant.vk.profile.GpuProfiler;
+import com.tebreca.kwant.vk.swapchain.SwapChainManager;
+import org.joml.Vector2i;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Frame graph recording its passes with the barriers between them worked out ahead of time.
+ * <br><br>
+ * Passes declare which resources they read and write and run in declaration order. On {@link #compile()} passes whose
+ * writes are never read by a later pass are culled, unless they write an imported resource or are marked as having
+ * side effects. Writes are assumed to keep the earlier contents of a resource, so they keep its earlier writers alive.
+ * All barriers a pass needs are merged into a single vkCmdPipelineBarrier2 call before it. Transient images that are
+ * never alive at the same time share the same memory.
+ * <br><br>
+ * The graph records itself as part of the frame loop, transient images scaled to the swapchain are recreated when the
+ * swapchain is resized.
+ */
+@SuppressWarnings("unused")
+public class RenderGraph implements FrameRecorder {
+
+    private final VkDevice device;
+    private final MemoryAllocator allocator;
+    private final SwapChainManager swapChain;
+    private final FrameLoop frameLoop;
+
+    private final List<GraphResource> resources = new ArrayList<>();
+    private final List<Pass> passes = new ArrayList<>();
+    private final GraphImage backbuffer;
+
+    private List<Pass> executed = List.of();
+    private List<Lifetime> lifetimes = List.of();
+    private final List<GraphImage> images = new ArrayList<>();
+    private final List<CompiledPass> compiled = new ArrayList<>();
+    @Nullable
+    private Barriers finalBarriers;
+    private final List<Long> memory = new ArrayList<>();
+    private long transientMemory = 0;
+    private long unaliasedMemory = 0;
+    private boolean built = false;
+    private int builtWidth = -1;
+    private int builtHeight = -1;
+    @Nullable
+    private GpuProfiler profiler;
+
+    public RenderGraph(VkDevice device, MemoryAllocator allocator, SwapChainManager swapChain, FrameLoop frameLoop) {
+        this.device = device;
+        this.allocator = allocator;
+        this.swapChain = swapChain;
+        this.frameLoop = frameLoop;
+        this.backbuffer = new GraphImage("backbuffer", true, swapChain.format(), 0, 0, 0, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+        resources.add(backbuffer);
+    }
+
+    /**
+     * @return the swapchain image of the frame being recorded, in VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL outside the graph
+     */
+    public GraphImage backbuffer() {
+        return backbuffer;
+    }
+
+    /**
+     * @param scale size relative to the swapchain, recreated whenever the swapchain is resized
+     * @return an image created and owned by the graph, its contents do not survive the frame
+     */
+    public GraphImage transientImage(String name, int format, float scale) {
+        GraphImage image = new GraphImage(name, false, format, scale, 0, 0, VK_IMAGE_LAYOUT_UNDEFINED);
+        resources.add(image);
+        return image;
+    }
+
+    /**
+     * @return an image of fixed size created and owned by the graph, its contents do not survive the frame
+     */
+    public GraphImage transientImage(String name, int format, int width, int height) {
+        GraphImage image = new GraphImage(name, false, format, 0, width, height, VK_IMAGE_LAYOUT_UNDEFINED);
+        resources.add(image);
+        return image;
+    }
+
+    /**
+     * @param layout VkImageLayout the image is in before the graph runs, the graph leaves it in that layout again
+     * @return an image owned by the game that passes may access
+     */
+    public GraphImage importImage(String name, long image, long view, int format, int width, int height, int layout) {
+        GraphImage imported = new GraphImage(name, true, format, 0, width, height, layout);
+        imported.handle = image;
+        imported.view = view;
+        resources.add(imported);
+        return imported;
+    }
+
+    /**
+     * @return a buffer owned by the game that passes may access
+     */
+    public GraphBuffer importBuffer(String name, GpuBuffer buffer) {
+        GraphBuffer imported = new GraphBuffer(name, buffer);
+        resources.add(imported);
+        return imported;
+    }
+
+    /**
+     * @return a builder for a pass running after every pass added before
+     */
+    public PassBuilder pass(String name) {
+        return new PassBuilder(name);
+    }
+
+    /**
+     * Measures the GPU time of every executed pass as a scope named after the pass
+     *
+     * @return this
+     */
+    public RenderGraph profiler(@Nullable GpuProfiler profiler) {
+        this.profiler = profiler;
+        return this;
+    }
+
+    /**
+     * Culls the passes and works out the lifetimes of the transient images. Images and barriers are created on the
+     * next recorded frame.
+     *
+     * @return this
+     */
+    public synchronized RenderGraph compile() {
+        Set<GraphResource> needed = new HashSet<>();
+        boolean[] alive = new boolean[passes.size()];
+        for (int i = passes.size() - 1; i >= 0; i--) {
+            Pass pass = passes.get(i);
+            boolean keep = pass.sideEffect();
+            for (Use use : pass.uses()) {
+                keep |= use.write() && (use.resource().imported() || needed.contains(use.resource()));
+            }
+            if (keep) {
+                alive[i] = true;
+                pass.uses().forEach(use -> needed.add(use.resource()));
+            }
+        }
+        List<Pass> order = new ArrayList<>();
+        for (int i = 0; i < passes.size(); i++) {
+            if (alive[i]) {
+                order.add(passes.get(i));
+            }
+        }
+
+        Map<GraphImage, Lifetime> found = new LinkedHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            for (Use use : order.get(i).uses()) {
+                if (use.resource() instanceof GraphImage image && !image.imported()) {
+                    Lifetime lifetime = found.computeIfAbsent(image, key -> new Lifetime(key));
+                    lifetime.first = Math.min(lifetime.first, i);
+                    lifetime.last = i;
+                    lifetime.usage |= use.usage();
+                }
+            }
+        }
+        executed = List.copyOf(order);
+        lifetimes = new ArrayList<>(found.values());
+        lifetimes.sort(Comparator.comparingInt(lifetime -> lifetime.first));
+        built = false;
+        return this;
+    }
+
+    @Override
+    public synchronized void record(Frame frame, VkCommandBuffer commandBuffer, int imageIndex) {
+        Vector2i extent = swapChain.extent();
+        if (!built || extent.x != builtWidth || extent.y != builtHeight) {
+            build(extent.x, extent.y);
+        }
+        backbuffer.handle = swapChain.image(imageIndex);
+        backbuffer.view = swapChain.imageView(imageIndex);
+        backbuffer.width = extent.x;
+        backbuffer.height = extent.y;
+
+        for (CompiledPass pass : compiled) {
+            if (pass.barriers() != null) {
+                pass.barriers().record(commandBuffer);
+            }
+            int scope = profiler == null ? -1 : profiler.begin(commandBuffer, pass.pass().name());
+            pass.pass().recorder().record(frame, commandBuffer, imageIndex);
+            if (profiler != null) {
+                profiler.end(commandBuffer, scope);
+            }
+        }
+        if (finalBarriers != null) {
+            finalBarriers.record(commandBuffer);
+        }
+    }
+
+    private void build(int width, int height) {
+        releaseImages();
+        createImages(width, height);
+        compileBarriers();
+        builtWidth = width;
+        builtHeight = height;
+        built = true;
+    }
+
+    /**
+     * Creates the transient images, assigning them to memory shared with images whose lifetime ended before theirs
+     */
+    private void createImages(int width, int height) {
+        List<AliasGroup> groups = new ArrayList<>();
+        unaliasedMemory = 0;
+        try (var stack = MemoryStack.stackPush()) {
+            VkImageCreateInfo imageInfo = VkImageCreateInfo.calloc(stack).sType$Default()
+                    .imageType(VK_IMAGE_TYPE_2D)
+                    .mipLevels(1)
+                    .arrayLayers(1)
+                    .samples(VK_SAMPLE_COUNT_1_BIT)
+                    .tiling(VK_IMAGE_TILING_OPTIMAL)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE)
+                    .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED);
+            VkMemoryRequirements requirements = VkMemoryRequirements.calloc(stack);
+            var handle = stack.callocLong(1);
+            for (Lifetime lifetime : lifetimes) {
+                GraphImage image = lifetime.image;
+                images.add(image);
+                image.resize(width, height);
+                image.usage = lifetime.usage;
+                imageInfo.format(image.format()).usage(lifetime.usage).extent().set(image.width, image.height, 1);
+                VulkanUtils.assertResult(vkCreateImage(device, imageInfo, null, handle), "Failed to create transient image %s!".formatted(image.name()));
+                image.handle = handle.get(0);
+                vkGetImageMemoryRequirements(device, image.handle, requirements);
+                unaliasedMemory += requirements.size();
+
+                AliasGroup group = null;
+                for (AliasGroup candidate : groups) {
+                    if (candidate.last < lifetime.first && (candidate.memoryTypeBits & requirements.memoryTypeBits()) != 0) {
+                        group = candidate;
+                        break;
+                    }
+                }
+                if (group == null) {
+                    group = new AliasGroup();
+                    groups.add(group);
+                }
+                lifetime.predecessor = group.members.isEmpty() ? null : group.members.getLast();
+                group.members.add(lifetime);
+                group.last = lifetime.last;
+                group.size = Math.max(group.size, requirements.size());
+                group.alignment = Math.max(group.alignment, requirements.alignment());
+                group.memoryTypeBits &= requirements.memoryTypeBits();
+            }
+
+            transientMemory = 0;
+            long address = requirements.address();
+            for (AliasGroup group : groups) {
+                // The first image of a group shares its memory with the last one of the previous frame, maybe itself
+                group.members.getFirst().predecessor = group.members.getLast();
+                MemoryUtil.memPutLong(address + VkMemoryRequirements.SIZE, group.size);
+                MemoryUtil.memPutLong(address + VkMemoryRequirements.ALIGNMENT, group.alignment);
+                MemoryUtil.memPutInt(address + VkMemoryRequirements.MEMORYTYPEBITS, group.memoryTypeBits);
+                long allocation = allocator.allocate(requirements);
+                memory.add(allocation);
+                transientMemory += group.size;
+                for (Lifetime member : group.members) {
+                    allocator.bindImage(allocation, member.image.handle);
+                }
+            }
+
+            VkImageViewCreateInfo viewInfo = VkImageViewCreateInfo.calloc(stack).sType$Default().viewType(VK_IMAGE_VIEW_TYPE_2D);
+            for (Lifetime lifetime : lifetimes) {
+                GraphImage image = lifetime.image;
+                // Views of depth stencil images only cover depth, so they can be sampled
+                int aspect = image.aspect() == (VK_IMAGE_ASPECT_DEPTH_BIT | VK_IMAGE_ASPECT_STENCIL_BIT) ? VK_IMAGE_ASPECT_DEPTH_BIT : image.aspect();
+                viewInfo.image(image.handle).format(image.format()).subresourceRange().set(aspect, 0, 1, 0, 1);
+                VulkanUtils.assertResult(vkCreateImageView(device, viewInfo, null, handle), "Failed to create transient image view %s!".formatted(image.name()));
+                image.view = handle.get(0);
+            }
+        }
+    }
+
+    /**
+     * Destroys the transient images and their memory once the frames still using them completed
+     */
+    private void releaseImages() {
+        long[] handles = new long[images.size()];
+        long[] views = new long[images.size()];
+        for (int i = 0; i < images.size(); i++) {
+            GraphImage image = images.get(i);
+            handles[i] = image.handle;
+            views[i] = image.view;
+            image.handle = VK_NULL_HANDLE;
+            image.view = VK_NULL_HANDLE;
+        }
+        images.clear();
+        long[] allocations = memory.stream().mapToLong(Long::longValue).toArray();
+        memory.clear();
+        frameLoop.defer(() -> destroyImages(handles, views, allocations));
+    }
+
+    private void destroyImages(long[] images, long[] views, long[] allocations) {
+        for (int i = 0; i < images.length; i++) {
+            if (views[i] != VK_NULL_HANDLE) {
+                vkDestroyImageView(device, views[i], null);
+            }
+            if (images[i] != VK_NULL_HANDLE) {
+                vkDestroyImage(device, images[i], null);
+            }
+        }
+        for (long allocation : allocations) {
+            allocator.free(allocation);
+        }
+    }
+
+    /**
+     * Walks the executed passes keeping track of how every resource was last accessed, adding a barrier wherever the
+     * next access is not yet synchronized with the previous ones
+     */
+    private void compileBarriers() {
+        freeBarriers();
+        Map<GraphResource, State> states = new HashMap<>();
+        Map<GraphImage, Lifetime> byImage = new HashMap<>();
+        lifetimes.forEach(lifetime -> byImage.put(lifetime.image, lifetime));
+        Map<GraphImage, Barrier> firstBarriers = new HashMap<>();
+        List<List<Barrier>> passBarriers = new ArrayList<>(executed.size());
+
+        for (Pass pass : executed) {
+            List<Barrier> barriers = new ArrayList<>();
+            passBarriers.add(barriers);
+            for (Use use : pass.uses()) {
+                GraphResource resource = use.resource();
+                State state = states.computeIfAbsent(resource, key -> initialState(key, byImage, states));
+                boolean image = resource instanceof GraphImage;
+                boolean transition = image && state.layout != use.layout();
+                if (use.write() || transition) {
+                    boolean covered = !transition && state.untouched
+                            && (state.dstStages & use.stages()) == use.stages() && (state.dstAccess & use.access()) == use.access();
+                    if (!covered) {
+                        Barrier barrier = new Barrier(resource, state.writeStages | state.readStages, state.writeAccess,
+                                use.stages(), use.access(), state.layout, use.layout());
+                        barriers.add(barrier);
+                        if (image && !resource.imported() && state.layout == VK_IMAGE_LAYOUT_UNDEFINED) {
+                            firstBarriers.put((GraphImage) resource, barrier);
+                        }
+                    }
+                    if (image) {
+                        state.layout = use.layout();
+                    }
+                    state.writeStages = use.stages();
+                    state.writeAccess = use.write() ? use.access() : 0;
+                    state.readStages = use.write() ? 0 : use.stages();
+                    state.visibleStages = use.stages();
+                } else {
+                    if (state.writeStages != 0 && (state.visibleStages & use.stages()) != use.stages()) {
+                        barriers.add(new Barrier(resource, state.writeStages, state.writeAccess, use.stages(), use.access(), state.layout, state.layout));
+                        state.visibleStages |= use.stages();
+                    }
+                    state.readStages |= use.stages();
+                }
+                state.untouched = false;
+            }
+        }
+
+        // Images sharing memory with an image used later in the previous frame wait for its last access
+        for (Map.Entry<GraphImage, Barrier> entry : firstBarriers.entrySet()) {
+            Lifetime predecessor = byImage.get(entry.getKey()).predecessor;
+            if (predecessor != null && predecessor.first >= byImage.get(entry.getKey()).first) {
+                State last = states.get(predecessor.image);
+                entry.getValue().srcStages = last.writeStages | last.readStages;
+                entry.getValue().srcAccess = last.writeAccess;
+            }
+        }
+        // Only now, the native barriers copy the masks when they are built
+        for (int i = 0; i < executed.size(); i++) {
+            List<Barrier> barriers = passBarriers.get(i);
+            compiled.add(new CompiledPass(executed.get(i), barriers.isEmpty() ? null : new Barriers(barriers)));
+        }
+
+        List<Barrier> closing = new ArrayList<>();
+        for (Map.Entry<GraphResource, State> entry : states.entrySet()) {
+            if (!(entry.getKey() instanceof GraphImage image) || !image.imported()) {
+                continue;
+            }
+            State state = entry.getValue();
+            if (image == backbuffer) {
+                // The frame loop continues with a barrier from color attachment writes in this layout
+                if (state.layout != VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL || ((state.writeStages | state.readStages) & ~VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT) != 0) {
+                    closing.add(new Barrier(image, state.writeStages | state.readStages, state.writeAccess,
+                            VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT, VK_ACCESS_2_COLOR_ATTACHMENT_WRITE_BIT,
+                            state.layout, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL));
+                }
+            } else if (state.layout != image.importedLayout()) {
+                closing.add(new Barrier(image, state.writeStages | state.readStages, state.writeAccess,
+                        VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT, VK_ACCESS_2_MEMORY_READ_BIT | VK_ACCESS_2_MEMORY_WRITE_BIT,
+                        state.layout, image.importedLayout()));
+            }
+        }
+        finalBarriers = closing.isEmpty() ? null : new Barriers(closing);
+    }
+
+    private State initialState(GraphResource resource, Map<GraphImage, Lifetime> lifetimes, Map<GraphResource, State> states) {
+        State state = new State();
+        if (resource == backbuffer) {
+            // Left by the frame loop's transition, which already made it available to color attachment access
+            state.layout = VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL;
+            state.writeStages = VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT;
+            state.visibleStages = VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT;
+            state.untouched = true;
+            state.dstStages = VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT;
+            state.dstAccess = VK_ACCESS_2_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_2_COLOR_ATTACHMENT_WRITE_BIT;
+        } else if (resource.imported()) {
+            // Nothing is known about what happened to it before the graph
+            state.layout = resource instanceof GraphImage image ? image.importedLayout() : VK_IMAGE_LAYOUT_UNDEFINED;
+            state.writeStages = VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT;
+            state.writeAccess = VK_ACCESS_2_MEMORY_WRITE_BIT;
+        } else {
+            state.layout = VK_IMAGE_LAYOUT_UNDEFINED;
+            Lifetime predecessor = lifetimes.get((GraphImage) resource).predecessor;
+            State previous = predecessor != null ? states.get(predecessor.image) : null;
+            if (previous != null) {
+                state.writeStages = previous.writeStages | previous.readStages;
+                state.writeAccess = previous.writeAccess;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return bytes of memory allocated for the transient images
+     */
+    public long transientMemory() {
+        return transientMemory;
+    }
+
+    /**
+     * @return bytes the transient images would take up without sharing memory
+     */
+    public long unaliasedMemory() {
+        return unaliasedMemory;
+    }
+
+    /**
+     * @return names of the passes that survived culling, in execution order
+     */
+    public List<String> executedPasses() {
+        return executed.stream().map(Pass::name).toList();
+    }
+
+    private void freeBarriers() {
+        compiled.forEach(pass -> {
+            if (pass.barriers() != null) {
+                pass.barriers().free();
+            }
+        });
+        compiled.clear();
+        if (finalBarriers != null) {
+            finalBarriers.free();
+            finalBarriers = null;
+        }
+    }
+
+    public synchronized void destroy() {
+        freeBarriers();
+        for (GraphImage image : images) {
+            if (image.view != VK_NULL_HANDLE) {
+                vkDestroyImageView(device, image.view, null);
+            }
+            if (image.handle != VK_NULL_HANDLE) {
+                vkDestroyImage(device, image.handle, null);
+            }
+        }
+        images.clear();
+        memory.forEach(allocator::free);
+        memory.clear();
+    }
+
+    public final class PassBuilder {
+        private final String name;
+        private final List<Use> uses = new ArrayList<>();
+        private boolean sideEffect = false;
+
+        private PassBuilder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param access an access that only reads
+         * @return this
+         */
+        public PassBuilder read(GraphResource resource, Access access) {
+            if (access.write()) {
+                throw new IllegalArgumentException("%s writes, declare it with write".formatted(access));
+            }
+            return use(resource, access);
+        }
+
+        /**
+         * @param access an access that writes
+         * @return this
+         */
+        public PassBuilder write(GraphResource resource, Access access) {
+            if (!access.write()) {
+                throw new IllegalArgumentException("%s only reads, declare it with read".formatted(access));
+            }
+            return use(resource, access);
+        }
+
+        private PassBuilder use(GraphResource resource, Access access) {
+            if (resource instanceof GraphImage && access.imageUsage() == 0) {
+                throw new IllegalArgumentException("%s can only be used on buffers".formatted(access));
+            }
+            for (int i = 0; i < uses.size(); i++) {
+                Use use = uses.get(i);
+                if (use.resource() == resource) {
+                    if (resource instanceof GraphImage && use.layout() != access.layout()) {
+                        throw new IllegalArgumentException("Pass %s uses %s in two different layouts".formatted(name, resource));
+                    }
+                    uses.set(i, new Use(resource, use.stages() | access.stages(), use.access() | access.access(),
+                            use.layout(), use.write() || access.write(), use.usage() | access.imageUsage()));
+                    return this;
+                }
+            }
+            uses.add(new Use(resource, access.stages(), access.access(), access.layout(), access.write(), access.imageUsage()));
+            return this;
+        }
+
+        /**
+         * Keeps this pass from being culled even if nothing reads what it writes
+         *
+         * @return this
+         */
+        public PassBuilder sideEffect() {
+            this.sideEffect = true;
+            return this;
+        }
+
+        /**
+         * Adds the pass to the graph, {@link #compile()} has to be called again afterwards
+         *
+         * @param recorder records the pass, every barrier for its declared accesses is already recorded
+         * @return the graph
+         */
+        public RenderGraph execute(FrameRecorder recorder) {
+            synchronized (RenderGraph.this) {
+                passes.add(new Pass(name, List.copyOf(uses), sideEffect, recorder));
+            }
+            return RenderGraph.this;
+        }
+    }
+
+    private record Pass(String name, List<Use> uses, boolean sideEffect, FrameRecorder recorder) {
+
+    }
+
+    private record Use(GraphResource resource, long stages, long access, int layout, boolean write, int usage) {
+
+    }
+
+    private record CompiledPass(Pass pass, @Nullable Barriers barriers) {
+
+    }
+
+    private static final class Lifetime {
+        private final GraphImage image;
+        private int first = Integer.MAX_VALUE;
+        private int last = -1;
+        private int usage = 0;
+        @Nullable
+        private Lifetime predecessor;
+
+        private Lifetime(GraphImage image) {
+            this.image = image;
+        }
+    }
+
+    private static final class AliasGroup {
+        private final List<Lifetime> members = new ArrayList<>();
+        private int last = -1;
+        private long size = 0;
+        private long alignment = 1;
+        private int memoryTypeBits = -1;
+    }
+
+    private static final class State {
+        private int layout;
+        private long writeStages;
+        private long writeAccess;
+        private long readStages;
+        private long visibleStages;
+        // Set while nothing accessed the resource since a barrier made it available to dstStages and dstAccess
+        private boolean untouched;
+        private long dstStages;
+        private long dstAccess;
+    }
+
+    private static final class Barrier {
+        private final GraphResource resource;
+        private long srcStages;
+        private long srcAccess;
+        private final long dstStages;
+        private final long dstAccess;
+        private final int oldLayout;
+        private final int newLayout;
+
+        private Barrier(GraphResource resource, long srcStages, long srcAccess, long dstStages, long dstAccess, int oldLayout, int newLayout) {
+            this.resource = resource;
+            this.srcStages = srcStages;
+            this.srcAccess = srcAccess;
+            this.dstStages = dstStages;
+            this.dstAccess = dstAccess;
+            this.oldLayout = oldLayout;
+            this.newLayout = newLayout;
+        }
+    }
+
+    /**
+     * The barriers of one point in the graph, kept in native memory so recording them does not allocate
+     */
+    private static final class Barriers {
+        private final List<Barrier> images = new ArrayList<>();
+        private final List<Barrier> buffers = new ArrayList<>();
+        private final VkDependencyInfo dependency;
+        @Nullable
+        private final VkImageMemoryBarrier2.Buffer imageBarriers;
+        @Nullable
+        private final VkBufferMemoryBarrier2.Buffer bufferBarriers;
+
+        private Barriers(List<Barrier> barriers) {
+            for (Barrier barrier : barriers) {
+                (barrier.resource instanceof GraphImage ? images : buffers).add(barrier);
+            }
+            imageBarriers = images.isEmpty() ? null : VkImageMemoryBarrier2.calloc(images.size());
+            bufferBarriers = buffers.isEmpty() ? null : VkBufferMemoryBarrier2.calloc(buffers.size());
+            for (int i = 0; i < images.size(); i++) {
+                Barrier barrier = images.get(i);
+                VkImageMemoryBarrier2 struct = imageBarriers.get(i).sType$Default()
+                        .srcStageMask(barrier.srcStages)
+                        .srcAccessMask(barrier.srcAccess)
+                        .dstStageMask(barrier.dstStages)
+                        .dstAccessMask(barrier.dstAccess)
+                        .oldLayout(barrier.oldLayout)
+                        .newLayout(barrier.newLayout)
+                        .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED);
+                struct.subresourceRange().set(((GraphImage) barrier.resource).aspect(), 0, VK_REMAINING_MIP_LEVELS, 0, VK_REMAINING_ARRAY_LAYERS);
+            }
+            for (int i = 0; i < buffers.size(); i++) {
+                Barrier barrier = buffers.get(i);
+                bufferBarriers.get(i).sType$Default()
+                        .srcStageMask(barrier.srcStages)
+                        .srcAccessMask(barrier.srcAccess)
+                        .dstStageMask(barrier.dstStages)
+                        .dstAccessMask(barrier.dstAccess)
+                        .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .offset(0)
+                        .size(VK_WHOLE_SIZE);
+            }
+            dependency = VkDependencyInfo.calloc().sType$Default()
+                    .pImageMemoryBarriers(imageBarriers)
+                    .pBufferMemoryBarriers(bufferBarriers);
+        }
+
+        private void record(VkCommandBuffer commandBuffer) {
+            // Handles are filled in every time, the swapchain image and defragmented buffers change between frames
+            for (int i = 0; i < images.size(); i++) {
+                VkImageMemoryBarrier2.nimage(imageBarriers.address(i), ((GraphImage) images.get(i).resource).handle);
+            }
+            for (int i = 0; i < buffers.size(); i++) {
+                VkBufferMemoryBarrier2.nbuffer(bufferBarriers.address(i), ((GraphBuffer) buffers.get(i).resource).buffer().handle());
+            }
+            vkCmdPipelineBarrier2(commandBuffer, dependency);
+        }
+
+        private void free() {
+            dependency.free();
+            if (imageBarriers != null) {
+                imageBarriers.free();
+            }
+            if (bufferBarriers != null) {
+                bufferBarriers.free();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.tebreca.kwant.vk.memory;
+
+/**
+ * Snapshot of everything the allocator has allocated from the device
+ *
+ * @param blockCount         amount of VkDeviceMemory blocks
+ * @param allocationCount    amount of live allocations inside those blocks
+ * @param blockBytes         bytes allocated from the device
+ * @param allocationBytes    bytes in use by live allocations
+ * @param unusedRangeCount   amount of free ranges between allocations
+ * @param largestUnusedRange size of the largest free range
+ */
+public record AllocatorStatistics(int blockCount, int allocationCount, long blockBytes, long allocationBytes,
+                                  int unusedRangeCount, long largestUnusedRange) {
+
+    public long unusedBytes() {
+        return blockBytes - allocationBytes;
+    }
+
+    /**
+     * @return 0 when all free memory is one contiguous range, approaching 1 when it is scattered over many small ranges
+     */
+    public double fragmentation() {
+        long unused = unusedBytes();
+        return unused <= 0 ? 0 : 1 - (double) largestUnusedRange / unused;
+    }
+}
@@ -0,0 +1,5 @@
+package com.tebreca.kwant.vk.memory;
+
+public record DefragmentationResult(long bytesMoved, long bytesFreed, int allocationsMoved, int blocksFreed) {
+
+}
@@ -0,0 +1,119 @@
+package com.tebreca.kwant.vk.memory;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.util.vma.Vma.vmaFlushAllocation;
+import static org.lwjgl.util.vma.Vma.vmaInvalidateAllocation;
+
+/**
+ * A VkBuffer with its VMA allocation. GPU only buffers may be moved by defragmentation, always use {@link #handle()}
+ * at recording time rather than storing it, or {@link #pin()} the buffer when the handle has to be stored.
+ */
+public final class GpuBuffer {
+
+    private final long allocator;
+    private final long allocation;
+    private final long size;
+    private final int usage;
+    private final MemoryUsage memoryUsage;
+    @Nullable
+    private final ByteBuffer mapped;
+    @Nullable
+    private final int[] concurrentFamilies;
+
+    private volatile long handle;
+    private volatile boolean pinned = false;
+
+    GpuBuffer(long allocator, long handle, long allocation, long size, int usage, MemoryUsage memoryUsage, @Nullable ByteBuffer mapped,
+              @Nullable int[] concurrentFamilies) {
+        this.allocator = allocator;
+        this.handle = handle;
+        this.allocation = allocation;
+        this.size = size;
+        this.usage = usage;
+        this.memoryUsage = memoryUsage;
+        this.mapped = mapped;
+        this.concurrentFamilies = concurrentFamilies;
+    }
+
+    public long handle() {
+        return handle;
+    }
+
+    void handle(long handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Keeps defragmentation from moving this buffer, for buffers whose handle is stored, for example in descriptor sets
+     *
+     * @return this
+     */
+    public GpuBuffer pin() {
+        this.pinned = true;
+        return this;
+    }
+
+    /**
+     * @return whether the handle of this buffer never changes
+     */
+    public boolean pinned() {
+        return pinned;
+    }
+
+    public long allocation() {
+        return allocation;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return VkBufferUsageFlags this buffer was created with
+     */
+    public int usage() {
+        return usage;
+    }
+
+    public MemoryUsage memoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * @return the persistently mapped memory of this buffer, null for {@link MemoryUsage#GPU_ONLY} buffers
+     */
+    @Nullable
+    public ByteBuffer mapped() {
+        return mapped;
+    }
+
+    /**
+     * @return queue family indices sharing this buffer concurrently, null for exclusive buffers
+     */
+    @Nullable
+    int[] concurrentFamilies() {
+        return concurrentFamilies;
+    }
+
+    /**
+     * Makes CPU writes visible to the GPU, a no-op on host coherent memory
+     *
+     * @return this
+     */
+    public GpuBuffer flush(long offset, long size) {
+        vmaFlushAllocation(allocator, allocation, offset, size);
+        return this;
+    }
+
+    /**
+     * Makes GPU writes visible to the CPU, a no-op on host coherent memory
+     *
+     * @return this
+     */
+    public GpuBuffer invalidate(long offset, long size) {
+        vmaInvalidateAllocation(allocator, allocation, offset, size);
+        return this;
+    }
+}
@@ -0,0 +1,8 @@
+package com.tebreca.kwant.vk.memory;
+
+/**
+ * A VkImage with its VMA allocation, images are never moved by defragmentation
+ */
+public record GpuImage(long handle, long allocation, int format, int width, int height, int mipLevels, int arrayLayers) {
+
+}
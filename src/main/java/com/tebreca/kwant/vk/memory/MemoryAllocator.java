@@ -0,0 +1,337 @@
+package com.tebreca.kwant.vk.memory;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.vma.*;
+import org.lwjgl.vulkan.*;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * VMA backed allocator for buffers and images, owned by the VulkanManager.
+ * <br><br>
+ * Resources are sub-allocated from large device memory blocks, so the amount of vkAllocateMemory calls stays far below
+ * maxMemoryAllocationCount. Host visible resources are persistently mapped.
+ */
+@SuppressWarnings("unused")
+public class MemoryAllocator {
+
+    private static final int TRANSFER_USAGE = VK_BUFFER_USAGE_TRANSFER_SRC_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT;
+
+    private final VkDevice device;
+    private final long allocator;
+
+    private final Map<Long, GpuBuffer> buffers = new ConcurrentHashMap<>();
+    private final Map<Long, GpuImage> images = new ConcurrentHashMap<>();
+    private final List<MemoryPool> pools = new ArrayList<>();
+    private final Set<Long> memory = ConcurrentHashMap.newKeySet();
+
+    public MemoryAllocator(VkInstance instance, VkDevice device) {
+        this.device = device;
+        try (var stack = MemoryStack.stackPush()) {
+            VmaVulkanFunctions functions = VmaVulkanFunctions.calloc(stack).set(instance, device);
+            VmaAllocatorCreateInfo createInfo = VmaAllocatorCreateInfo.calloc(stack)
+                    .instance(instance)
+                    .physicalDevice(device.getPhysicalDevice())
+                    .device(device)
+                    .vulkanApiVersion(VK_API_VERSION_1_3)
+                    .pVulkanFunctions(functions);
+            PointerBuffer pointer = stack.callocPointer(1);
+            VulkanUtils.assertResult(vmaCreateAllocator(createInfo, pointer), "Failed to create memory allocator!");
+            allocator = pointer.get(0);
+        }
+    }
+
+    /**
+     * @param size        size in bytes
+     * @param usage       VkBufferUsageFlags
+     * @param memoryUsage how the buffer is accessed
+     */
+    public GpuBuffer buffer(long size, int usage, MemoryUsage memoryUsage) {
+        return buffer(size, usage, memoryUsage, VK_NULL_HANDLE, null);
+    }
+
+    /**
+     * Creates a buffer used by several queue families without ownership transfers, for example by async compute and
+     * rendering
+     *
+     * @param families queue family indices using the buffer, duplicates are ignored
+     */
+    public GpuBuffer sharedBuffer(long size, int usage, MemoryUsage memoryUsage, int... families) {
+        int[] distinct = Arrays.stream(families).distinct().toArray();
+        return buffer(size, usage, memoryUsage, VK_NULL_HANDLE, distinct.length > 1 ? distinct : null);
+    }
+
+    /**
+     * Allocates the buffer from the given pool, use pools for many small allocations that come and go often
+     */
+    public GpuBuffer buffer(long size, MemoryPool pool) {
+        return buffer(size, pool.bufferUsage(), pool.memoryUsage(), pool.handle(), null);
+    }
+
+    private GpuBuffer buffer(long size, int usage, MemoryUsage memoryUsage, long pool, @Nullable int[] concurrentFamilies) {
+        if (memoryUsage.mapped() && size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A mapped buffer of %d bytes is larger than 2 GiB, which a ByteBuffer can't cover".formatted(size));
+        }
+        try (var stack = MemoryStack.stackPush()) {
+            VkBufferCreateInfo bufferCreateInfo = VkBufferCreateInfo.calloc(stack).sType$Default()
+                    .size(size)
+                    .usage(usage)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            if (concurrentFamilies != null) {
+                bufferCreateInfo.sharingMode(VK_SHARING_MODE_CONCURRENT)
+                        .pQueueFamilyIndices(stack.ints(concurrentFamilies));
+            }
+            VmaAllocationCreateInfo allocationCreateInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .usage(memoryUsage.vmaUsage())
+                    .flags(memoryUsage.allocationFlags())
+                    .pool(pool);
+            LongBuffer handle = stack.callocLong(1);
+            PointerBuffer allocation = stack.callocPointer(1);
+            VmaAllocationInfo info = VmaAllocationInfo.calloc(stack);
+            VulkanUtils.assertResult(vmaCreateBuffer(allocator, bufferCreateInfo, allocationCreateInfo, handle, allocation, info), "Failed to allocate buffer of %d bytes!".formatted(size));
+
+            ByteBuffer mapped = memoryUsage.mapped() ? MemoryUtil.memByteBuffer(info.pMappedData(), (int) size) : null;
+            GpuBuffer buffer = new GpuBuffer(allocator, handle.get(0), allocation.get(0), size, usage, memoryUsage, mapped, concurrentFamilies);
+            buffers.put(buffer.allocation(), buffer);
+            return buffer;
+        }
+    }
+
+    /**
+     * @param createInfo fully populated create info of the image
+     */
+    public GpuImage image(VkImageCreateInfo createInfo, MemoryUsage memoryUsage) {
+        try (var stack = MemoryStack.stackPush()) {
+            VmaAllocationCreateInfo allocationCreateInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .usage(memoryUsage.vmaUsage())
+                    .flags(memoryUsage.allocationFlags());
+            LongBuffer handle = stack.callocLong(1);
+            PointerBuffer allocation = stack.callocPointer(1);
+            VulkanUtils.assertResult(vmaCreateImage(allocator, createInfo, allocationCreateInfo, handle, allocation, null), "Failed to allocate image!");
+            VkExtent3D extent = createInfo.extent();
+            GpuImage image = new GpuImage(handle.get(0), allocation.get(0), createInfo.format(), extent.width(), extent.height(), createInfo.mipLevels(), createInfo.arrayLayers());
+            images.put(image.allocation(), image);
+            return image;
+        }
+    }
+
+    /**
+     * Creates a pool for many small allocations of one kind, keeping them from fragmenting the default blocks
+     *
+     * @param memoryUsage how buffers in the pool are accessed
+     * @param bufferUsage VkBufferUsageFlags of every buffer in the pool
+     * @param blockSize   size of every device memory block of the pool, 0 for the VMA default
+     * @param maxBlocks   maximum amount of blocks, 0 for unlimited
+     */
+    public MemoryPool pool(MemoryUsage memoryUsage, int bufferUsage, long blockSize, int maxBlocks) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkBufferCreateInfo sample = VkBufferCreateInfo.calloc(stack).sType$Default()
+                    .size(1024)
+                    .usage(bufferUsage)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            VmaAllocationCreateInfo allocationCreateInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .usage(memoryUsage.vmaUsage())
+                    .flags(memoryUsage.allocationFlags());
+            var memoryType = stack.callocInt(1);
+            VulkanUtils.assertResult(vmaFindMemoryTypeIndexForBufferInfo(allocator, sample, allocationCreateInfo, memoryType), "No memory type fits the pool!");
+
+            VmaPoolCreateInfo poolCreateInfo = VmaPoolCreateInfo.calloc(stack)
+                    .memoryTypeIndex(memoryType.get(0))
+                    .blockSize(blockSize)
+                    .maxBlockCount(maxBlocks);
+            PointerBuffer pointer = stack.callocPointer(1);
+            VulkanUtils.assertResult(vmaCreatePool(allocator, poolCreateInfo, pointer), "Failed to create memory pool!");
+            MemoryPool pool = new MemoryPool(pointer.get(0), memoryUsage, bufferUsage);
+            synchronized (pools) {
+                pools.add(pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Allocates device local memory for resources created outside of this allocator, for example several images sharing
+     * the same memory. The memory is not mapped.
+     *
+     * @return the VmaAllocation
+     */
+    public long allocate(VkMemoryRequirements requirements) {
+        try (var stack = MemoryStack.stackPush()) {
+            VmaAllocationCreateInfo allocationCreateInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .requiredFlags(VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT);
+            PointerBuffer allocation = stack.callocPointer(1);
+            VulkanUtils.assertResult(vmaAllocateMemory(allocator, requirements, allocationCreateInfo, allocation, null), "Failed to allocate %d bytes of memory!".formatted(requirements.size()));
+            memory.add(allocation.get(0));
+            return allocation.get(0);
+        }
+    }
+
+    /**
+     * Binds an image to memory from {@link #allocate(VkMemoryRequirements)}, at the start of the allocation
+     */
+    public void bindImage(long allocation, long image) {
+        VulkanUtils.assertResult(vmaBindImageMemory(allocator, allocation, image), "Failed to bind image memory!");
+    }
+
+    public void free(long allocation) {
+        memory.remove(allocation);
+        vmaFreeMemory(allocator, allocation);
+    }
+
+    public void destroy(GpuBuffer buffer) {
+        buffers.remove(buffer.allocation());
+        vmaDestroyBuffer(allocator, buffer.handle(), buffer.allocation());
+    }
+
+    public void destroy(GpuImage image) {
+        images.remove(image.allocation());
+        vmaDestroyImage(allocator, image.handle(), image.allocation());
+    }
+
+    /**
+     * Compacts GPU only buffers into fewer memory blocks, copying their contents on the given queue.
+     * Mapped buffers and images are left where they are, as their pointers and layouts are in the hands of the game.
+     * Buffers are only moved when created with both VK_BUFFER_USAGE_TRANSFER_SRC_BIT and
+     * VK_BUFFER_USAGE_TRANSFER_DST_BIT, as the copy needs them, and {@link GpuBuffer#pin() pinned} buffers stay too.
+     * <br><br>
+     * This waits for the copies to finish and is meant for loading screens. None of the moved buffers may be in use by
+     * the GPU while this runs, afterwards their {@link GpuBuffer#handle()} refers to a new VkBuffer.
+     *
+     * @param queue       queue to record the copies on
+     * @param queueFamily family of that queue
+     */
+    public DefragmentationResult defragment(VkQueue queue, int queueFamily) {
+        try (var stack = MemoryStack.stackPush()) {
+            VmaDefragmentationInfo defragmentationInfo = VmaDefragmentationInfo.calloc(stack)
+                    .flags(VMA_DEFRAGMENTATION_FLAG_ALGORITHM_FAST_BIT);
+            PointerBuffer pointer = stack.callocPointer(1);
+            VulkanUtils.assertResult(vmaBeginDefragmentation(allocator, defragmentationInfo, pointer), "Failed to begin defragmentation!");
+            long context = pointer.get(0);
+
+            LongBuffer handle = stack.callocLong(1);
+            VkCommandPoolCreateInfo poolCreateInfo = VkCommandPoolCreateInfo.calloc(stack).sType$Default()
+                    .flags(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT)
+                    .queueFamilyIndex(queueFamily);
+            VulkanUtils.assertResult(vkCreateCommandPool(device, poolCreateInfo, null, handle), "Failed to create defragmentation command pool!");
+            long commandPool = handle.get(0);
+            VulkanUtils.assertResult(vkCreateFence(device, VkFenceCreateInfo.calloc(stack).sType$Default(), null, handle), "Failed to create defragmentation fence!");
+            long fence = handle.get(0);
+            VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack).sType$Default()
+                    .commandPool(commandPool)
+                    .level(VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                    .commandBufferCount(1);
+            VulkanUtils.assertResult(vkAllocateCommandBuffers(device, allocateInfo, pointer), "Failed to allocate defragmentation command buffer!");
+            VkCommandBuffer commandBuffer = new VkCommandBuffer(pointer.get(0), device);
+
+            VmaDefragmentationPassMoveInfo pass = VmaDefragmentationPassMoveInfo.calloc(stack);
+            VkBufferCopy.Buffer region = VkBufferCopy.calloc(1, stack);
+            while (vmaBeginDefragmentationPass(allocator, context, pass) == VK_INCOMPLETE) {
+                List<Runnable> afterCopy = new ArrayList<>();
+                vkBeginCommandBuffer(commandBuffer, VkCommandBufferBeginInfo.calloc(stack).sType$Default().flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT));
+                VmaDefragmentationMove.Buffer moves = pass.pMoves();
+                for (int i = 0; i < pass.moveCount(); i++) {
+                    VmaDefragmentationMove move = moves.get(i);
+                    GpuBuffer buffer = buffers.get(move.srcAllocation());
+                    if (buffer == null || buffer.mapped() != null || buffer.pinned() || (buffer.usage() & TRANSFER_USAGE) != TRANSFER_USAGE) {
+                        move.operation(VMA_DEFRAGMENTATION_MOVE_OPERATION_IGNORE);
+                        continue;
+                    }
+                    long moved = createMoved(stack, buffer, handle);
+                    VulkanUtils.assertResult(vmaBindBufferMemory(allocator, move.dstTmpAllocation(), moved), "Failed to bind moved buffer!");
+                    vkCmdCopyBuffer(commandBuffer, buffer.handle(), moved, region.size(buffer.size()));
+                    long old = buffer.handle();
+                    afterCopy.add(() -> {
+                        vkDestroyBuffer(device, old, null);
+                        buffer.handle(moved);
+                    });
+                }
+                vkEndCommandBuffer(commandBuffer);
+                VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack).sType$Default().pCommandBuffers(stack.pointers(commandBuffer));
+                VulkanUtils.assertResult(vkQueueSubmit(queue, submitInfo, fence), "Failed to submit defragmentation copies!");
+                VulkanUtils.assertResult(vkWaitForFences(device, fence, true, Long.MAX_VALUE), "Failed to wait for defragmentation copies!");
+                vkResetFences(device, fence);
+                vkResetCommandPool(device, commandPool, 0);
+                afterCopy.forEach(Runnable::run);
+                if (vmaEndDefragmentationPass(allocator, context, pass) == VK_SUCCESS) {
+                    break;
+                }
+            }
+
+            VmaDefragmentationStats stats = VmaDefragmentationStats.calloc(stack);
+            vmaEndDefragmentation(allocator, context, stats);
+            vkDestroyFence(device, fence, null);
+            vkDestroyCommandPool(device, commandPool, null);
+            return new DefragmentationResult(stats.bytesMoved(), stats.bytesFreed(), stats.allocationsMoved(), stats.deviceMemoryBlocksFreed());
+        }
+    }
+
+    /**
+     * Creates the buffer a moved one is copied into, with the same usage and sharing
+     */
+    private long createMoved(MemoryStack stack, GpuBuffer buffer, LongBuffer handle) {
+        // A frame of its own, a pass can move many buffers
+        try (var frame = stack.push()) {
+            VkBufferCreateInfo bufferCreateInfo = VkBufferCreateInfo.calloc(frame).sType$Default()
+                    .size(buffer.size())
+                    .usage(buffer.usage())
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            if (buffer.concurrentFamilies() != null) {
+                bufferCreateInfo.sharingMode(VK_SHARING_MODE_CONCURRENT)
+                        .pQueueFamilyIndices(frame.ints(buffer.concurrentFamilies()));
+            }
+            VulkanUtils.assertResult(vkCreateBuffer(device, bufferCreateInfo, null, handle), "Failed to create moved buffer!");
+            return handle.get(0);
+        }
+    }
+
+    public AllocatorStatistics statistics() {
+        try (var stack = MemoryStack.stackPush()) {
+            VmaTotalStatistics statistics = VmaTotalStatistics.calloc(stack);
+            vmaCalculateStatistics(allocator, statistics);
+            return toStatistics(statistics.total());
+        }
+    }
+
+    public AllocatorStatistics statistics(MemoryPool pool) {
+        try (var stack = MemoryStack.stackPush()) {
+            VmaDetailedStatistics statistics = VmaDetailedStatistics.calloc(stack);
+            vmaCalculatePoolStatistics(allocator, pool.handle(), statistics);
+            return toStatistics(statistics);
+        }
+    }
+
+    private static AllocatorStatistics toStatistics(VmaDetailedStatistics detailed) {
+        VmaStatistics statistics = detailed.statistics();
+        return new AllocatorStatistics(statistics.blockCount(), statistics.allocationCount(), statistics.blockBytes(),
+                statistics.allocationBytes(), detailed.unusedRangeCount(), detailed.unusedRangeCount() == 0 ? 0 : detailed.unusedRangeSizeMax());
+    }
+
+    public long raw() {
+        return allocator;
+    }
+
+    public void destroy() {
+        if (!buffers.isEmpty() || !images.isEmpty()) {
+            System.out.printf("Destroying allocator with %d buffers and %d images still alive%n", buffers.size(), images.size());
+            buffers.values().forEach(buffer -> vmaDestroyBuffer(allocator, buffer.handle(), buffer.allocation()));
+            images.values().forEach(image -> vmaDestroyImage(allocator, image.handle(), image.allocation()));
+        }
+        memory.forEach(allocation -> vmaFreeMemory(allocator, allocation));
+        pools.forEach(pool -> vmaDestroyPool(allocator, pool.handle()));
+        vmaDestroyAllocator(allocator);
+    }
+}
@@ -0,0 +1,9 @@
+package com.tebreca.kwant.vk.memory;
+
+/**
+ * A VMA pool of fixed size blocks for many small allocations of one kind, created through
+ * {@link MemoryAllocator#pool(MemoryUsage, int, long, int)}
+ */
+public record MemoryPool(long handle, MemoryUsage memoryUsage, int bufferUsage) {
+
+}
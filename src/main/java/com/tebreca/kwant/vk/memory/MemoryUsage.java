@@ -0,0 +1,42 @@
+package com.tebreca.kwant.vk.memory;
+
+import static org.lwjgl.util.vma.Vma.*;
+
+/**
+ * How a resource is accessed, decides the memory type VMA picks for it
+ */
+public enum MemoryUsage {
+
+    /**
+     * Device local memory, only accessed by the GPU. Fill it through a transfer
+     */
+    GPU_ONLY(VMA_MEMORY_USAGE_AUTO_PREFER_DEVICE, 0),
+    /**
+     * Host visible memory written sequentially by the CPU every frame and read by the GPU, persistently mapped
+     */
+    CPU_TO_GPU(VMA_MEMORY_USAGE_AUTO, VMA_ALLOCATION_CREATE_HOST_ACCESS_SEQUENTIAL_WRITE_BIT | VMA_ALLOCATION_CREATE_MAPPED_BIT),
+    /**
+     * Host visible and cached memory written by the GPU and read back by the CPU, persistently mapped
+     */
+    GPU_TO_CPU(VMA_MEMORY_USAGE_AUTO_PREFER_HOST, VMA_ALLOCATION_CREATE_HOST_ACCESS_RANDOM_BIT | VMA_ALLOCATION_CREATE_MAPPED_BIT);
+
+    private final int vmaUsage;
+    private final int allocationFlags;
+
+    MemoryUsage(int vmaUsage, int allocationFlags) {
+        this.vmaUsage = vmaUsage;
+        this.allocationFlags = allocationFlags;
+    }
+
+    public int vmaUsage() {
+        return vmaUsage;
+    }
+
+    public int allocationFlags() {
+        return allocationFlags;
+    }
+
+    public boolean mapped() {
+        return (allocationFlags & VMA_ALLOCATION_CREATE_MAPPED_BIT) != 0;
+    }
+}
@@ -0,0 +1,6 @@
+package com.tebreca.kwant.vk.pipeline;
+
+
+public record ComputePipeline(long pointer) {
+
+}
@@ -0,0 +1,84 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.util.FlagHolder;
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.shader.Shader;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.LongBuffer;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Builds a compute pipeline from a single shader, through the same pipeline cache as graphics pipelines
+ */
+@SuppressWarnings("unused")
+public class ComputePipelineBuilder extends FlagHolder<ComputePipelineBuilder> {
+
+    private final VulkanManager manager;
+    private Shader shader;
+    private long layout = VK_NULL_HANDLE;
+
+    public ComputePipelineBuilder(VulkanManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @param shader compute shader, built with any stage as the stage is always VK_SHADER_STAGE_COMPUTE_BIT
+     */
+    public ComputePipelineBuilder shader(Shader shader) {
+        this.shader = shader;
+        return this;
+    }
+
+    /**
+     * @param layout VkPipelineLayout the pipeline is created with
+     */
+    public ComputePipelineBuilder layout(long layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    /**
+     * Creates the pipeline on one of the workers as soon as the device exists
+     */
+    public Mono<ComputePipeline> build() {
+        if (shader == null) {
+            return Mono.error(new IllegalStateException("A compute pipeline needs a shader"));
+        }
+        Sinks.One<ComputePipeline> one = Sinks.one();
+        manager.virtualDevice().publishOn(manager.workers()).subscribe(device -> {
+            try {
+                one.tryEmitValue(create(device));
+            } catch (RuntimeException e) {
+                one.tryEmitError(e);
+            }
+        }, one::tryEmitError);
+        return one.asMono();
+    }
+
+    private ComputePipeline create(VkDevice device) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkPipelineCreationFeedback feedback = VkPipelineCreationFeedback.create(stack.ncalloc(VkPipelineCreationFeedback.ALIGNOF, 1, VkPipelineCreationFeedback.SIZEOF));
+            VkPipelineCreationFeedback.Buffer stageFeedback = VkPipelineCreationFeedback.create(stack.ncalloc(VkPipelineCreationFeedback.ALIGNOF, 1, VkPipelineCreationFeedback.SIZEOF), 1);
+            VkComputePipelineCreateInfo.Buffer createInfo = VkComputePipelineCreateInfo.calloc(1, stack);
+            createInfo.get(0).sType$Default()
+                    .pNext(VkPipelineCreationFeedbackCreateInfo.calloc(stack).sType$Default()
+                            .pPipelineCreationFeedback(feedback)
+                            .pPipelineStageCreationFeedbacks(stageFeedback))
+                    .flags(flags)
+                    .stage(shader.populateShaderStageCreateInfo(stack).stage(VK_SHADER_STAGE_COMPUTE_BIT))
+                    .layout(layout);
+
+            LongBuffer handle = stack.callocLong(1);
+            PipelineCache cache = manager.pipelineCache();
+            VulkanUtils.assertResult(vkCreateComputePipelines(device, cache.handle(), createInfo, null, handle), "Failed to create Compute pipeline!");
+            cache.record(feedback);
+            return new ComputePipeline(handle.get(0));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Collects many pipeline states and creates them with as few vkCreateGraphicsPipelines calls as possible.
+ * <br><br>
+ * On submit the states are split into chunks, one per worker of {@link VulkanManager#workers()}, every chunk being a
+ * single vkCreateGraphicsPipelines call through the shared pipeline cache. Pipelines are still delivered one by one
+ * through the Mono returned by {@link #add(PipelineBuilder)}.
+ */
+@SuppressWarnings("unused")
+public class PipelineBatch {
+
+    private final VulkanManager manager;
+    private final List<Pending> pending = new ArrayList<>();
+    private int maxChunkSize = 16;
+
+    public PipelineBatch(VulkanManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @param builder builder to create as part of this batch, it is frozen right away
+     * @return the pipeline, once the chunk it is part of has been created
+     */
+    public Mono<GraphicsPipeline> add(PipelineBuilder builder) {
+        return add(builder.freeze(), true);
+    }
+
+    /**
+     * @param state state to create as part of this batch, it is read on a worker thread after submission and must
+     *              not be freed before the returned Mono completes
+     * @return the pipeline, once the chunk it is part of has been created
+     */
+    public Mono<GraphicsPipeline> add(PipelineState state) {
+        return add(state, false);
+    }
+
+    private Mono<GraphicsPipeline> add(PipelineState state, boolean owned) {
+        Sinks.One<GraphicsPipeline> one = Sinks.one();
+        pending.add(new Pending(state, owned, one));
+        return one.asMono();
+    }
+
+    /**
+     * Caps the amount of pipelines handed to the driver in one call, 16 by default.
+     * Bigger chunks need more stack space on the worker, smaller chunks spread better over the workers.
+     */
+    public PipelineBatch maxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = Math.max(1, maxChunkSize);
+        return this;
+    }
+
+    /**
+     * Starts creating every added pipeline as soon as the device is available, the batch is empty afterwards
+     *
+     * @return every created pipeline of this batch in order of completion, erroring at the end if any failed
+     */
+    public Flux<GraphicsPipeline> submit() {
+        List<Pending> submitted = List.copyOf(pending);
+        pending.clear();
+        if (submitted.isEmpty()) {
+            return Flux.empty();
+        }
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+        int chunkSize = Math.min(maxChunkSize, (submitted.size() + workers - 1) / workers);
+        manager.virtualDevice().subscribe(device -> {
+            for (int i = 0; i < submitted.size(); i += chunkSize) {
+                List<Pending> chunk = submitted.subList(i, Math.min(i + chunkSize, submitted.size()));
+                manager.workers().schedule(() -> create(device, chunk));
+            }
+        }, e -> submitted.forEach(p -> {
+            if (p.owned()) {
+                p.state().free();
+            }
+            p.sink().tryEmitError(e);
+        }));
+        return Flux.fromIterable(submitted).flatMapDelayError(p -> p.sink().asMono(), submitted.size(), 1);
+    }
+
+    private void create(VkDevice device, List<Pending> chunk) {
+        try (var stack = MemoryStack.stackPush()) {
+            int size = chunk.size();
+            VkGraphicsPipelineCreateInfo.Buffer createInfos = VkGraphicsPipelineCreateInfo.calloc(size, stack);
+            // Output only structs, LWJGL has no allocators for these
+            VkPipelineCreationFeedback.Buffer feedbacks = VkPipelineCreationFeedback.create(stack.ncalloc(VkPipelineCreationFeedback.ALIGNOF, size, VkPipelineCreationFeedback.SIZEOF), size);
+            for (int i = 0; i < size; i++) {
+                VkGraphicsPipelineCreateInfo createInfo = createInfos.get(i);
+                chunk.get(i).state().populate(stack, createInfo);
+                int stages = createInfo.stageCount();
+                VkPipelineCreationFeedback.Buffer stageFeedback = VkPipelineCreationFeedback.create(stack.ncalloc(VkPipelineCreationFeedback.ALIGNOF, stages, VkPipelineCreationFeedback.SIZEOF), stages);
+                createInfo.pNext(VkPipelineCreationFeedbackCreateInfo.calloc(stack).sType$Default()
+                        .pNext(createInfo.pNext())
+                        .pPipelineCreationFeedback(feedbacks.get(i))
+                        .pPipelineStageCreationFeedbacks(stageFeedback));
+            }
+
+            LongBuffer pointers = stack.callocLong(size);
+            PipelineCache cache = manager.pipelineCache();
+            int result = vkCreateGraphicsPipelines(device, cache.handle(), createInfos, null, pointers);
+
+            // On failure the driver may still have created part of the chunk, those are null handles otherwise
+            for (int i = 0; i < size; i++) {
+                long handle = pointers.get(i);
+                if (handle == VK_NULL_HANDLE) {
+                    chunk.get(i).sink().tryEmitError(VulkanUtils.failure(result, "Failed to create Graphics pipeline!"));
+                } else {
+                    cache.record(feedbacks.get(i));
+                    chunk.get(i).sink().tryEmitValue(new GraphicsPipeline(handle));
+                }
+            }
+        } catch (RuntimeException e) {
+            chunk.forEach(p -> p.sink().tryEmitError(e));
+        } finally {
+            chunk.stream().filter(Pending::owned).forEach(p -> p.state().free());
+        }
+    }
+
+    /**
+     * @param owned whether the state was frozen by this batch, and is freed once created
+     */
+    private record Pending(PipelineState state, boolean owned, Sinks.One<GraphicsPipeline> sink) {
+
+    }
+}
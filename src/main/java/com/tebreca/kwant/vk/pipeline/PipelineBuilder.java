@@ -2,7 +2,6 @@ package com.tebreca.kwant.vk.pipeline;
 
 import com.tebreca.kwant.util.FlagHolder;
 import com.tebreca.kwant.vk.VulkanManager;
-import com.tebreca.kwant.vk.VulkanUtils;
 import com.tebreca.kwant.vk.shader.Shader;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.NativeType;
@@ -11,27 +10,35 @@ import static org.lwjgl.vulkan.VK13.*;
 
 import org.lwjgl.vulkan.*;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
-import reactor.core.scheduler.Schedulers;
 
-import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Set;
 
 public class PipelineBuilder extends FlagHolder<PipelineBuilder> {
-    private final Mono<MemoryStack> onInit;
-    private final Mono<VkDevice> deviceMono;
-    private Function<MemoryStack, VkPipelineVertexInputStateCreateInfo> vertexInputState = null;
+    private final VulkanManager manager;
+
+    // Vertex bindings as (binding, stride, input rate) and attributes as (binding, location, offset, format)
+    private int vertexInputFlags = 0;
+    private int[] vertexBindings = new int[0];
+    private int[] vertexAttributes = new int[0];
 
     private final List<Shader> shaders = new ArrayList<>();
-    private Function<MemoryStack, VkPipelineInputAssemblyStateCreateInfo> inputAssemblyState = null;
+    private int inputAssemblyFlags = 0;
+    private int topology = VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST;
+    private boolean primitiveRestart = false;
+
+    private int patchControlPoints = 0;
 
-    private Function<MemoryStack, VkPipelineTessellationStateCreateInfo> tesslationState = null;
+    private long layout = VK_NULL_HANDLE;
+    private int[] colorFormats = new int[0];
+    private int cullMode = VK_CULL_MODE_NONE;
+    private boolean alphaBlending = false;
 
     public PipelineBuilder(VulkanManager manager) {
-        onInit = manager.onInit();
-        deviceMono = manager.virtualDevice();
+        this.manager = manager;
     }
 
     /**
@@ -54,53 +61,87 @@ public class PipelineBuilder extends FlagHolder<PipelineBuilder> {
      * @return this builder
      */
     public PipelineBuilder tesselation(int patchControlPoints) {
-        tesslationState = stack -> {
-            VkPipelineTessellationStateCreateInfo calloc = VkPipelineTessellationStateCreateInfo.calloc(stack).sType$Default();
-            calloc.patchControlPoints(patchControlPoints);
-            return calloc;
-        };
+        this.patchControlPoints = patchControlPoints;
         return this;
     }
 
-    public Mono<GraphicsPipeline> build() {
-        Sinks.One<GraphicsPipeline> one = Sinks.one();
-        onInit.subscribeOn(Schedulers.immediate()).subscribe(stack -> {
-            VkDevice device = deviceMono.block();
-            VkGraphicsPipelineCreateInfo.Buffer createInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack).sType$Default();
-
-            createInfo.flags(flags);
-            VkPipelineShaderStageCreateInfo.Buffer shaderBuffer = VkPipelineShaderStageCreateInfo.calloc(this.shaders.size(), stack);
-            this.shaders.stream().map(shader -> shader.populateShaderStageCreateInfo(stack)).forEach(shaderBuffer::put);
-            createInfo.pStages(shaderBuffer.flip());
-
-            if (vertexInputState != null) {
-                createInfo.pVertexInputState(vertexInputState.apply(stack));
-            }
+    /**
+     * @param layout VkPipelineLayout the pipeline is created with
+     */
+    public PipelineBuilder layout(long layout) {
+        this.layout = layout;
+        return this;
+    }
 
-            if (inputAssemblyState != null) {
-                createInfo.pInputAssemblyState(inputAssemblyState.apply(stack));
-            }
+    /**
+     * Sets the formats of the color attachments rendered to with dynamic rendering, one blend attachment is created per format
+     */
+    public PipelineBuilder colorFormats(@NativeType("VkFormat") int... formats) {
+        this.colorFormats = formats.clone();
+        return this;
+    }
 
-            if (tesslationState != null) {
-                createInfo.pTessellationState(tesslationState.apply(stack));
-            }
+    /**
+     * @param cullMode VkCullModeFlags, VK_CULL_MODE_NONE by default
+     */
+    public PipelineBuilder cullMode(int cullMode) {
+        this.cullMode = cullMode;
+        return this;
+    }
+
+    /**
+     * Blends every color attachment with source alpha over the existing contents, this is OFF by default!
+     */
+    public PipelineBuilder alphaBlending() {
+        this.alphaBlending = true;
+        return this;
+    }
 
+    public PipelineBuilder withShader(Shader shader) {
+        shaders.add(shader);
+        return this;
+    }
 
-            LongBuffer pointer = stack.callocLong(1);
+    /**
+     * Builds this pipeline on its own, use {@link VulkanManager#pipelineBatch()} when creating many pipelines at once
+     */
+    public Mono<GraphicsPipeline> build() {
+        PipelineBatch batch = manager.pipelineBatch();
+        Mono<GraphicsPipeline> pipeline = batch.add(this);
+        batch.submit();
+        return pipeline;
+    }
 
-            boolean caching = false; // TODO
-            VulkanUtils.assertResult(vkCreateGraphicsPipelines(device, caching ? 1 : VK_NULL_HANDLE, createInfo, null, pointer), "Failed to create Graphics pipeline!");
-            one.tryEmitValue(new GraphicsPipeline(pointer.get()));
-        });
-        return one.asMono();
+    /**
+     * Freezes the current configuration, later changes to this builder do not affect the returned state
+     *
+     * @return state owning native memory, to be freed by the caller
+     */
+    public PipelineState freeze() {
+        return PipelineState.freeze(flags, layout, shaders, vertexInputFlags, vertexBindings, vertexAttributes,
+                inputAssemblyFlags, topology, primitiveRestart, patchControlPoints, cullMode, alphaBlending, colorFormats);
+    }
+
+    /**
+     * Populates the given create info with this builders state, all nested structs are allocated on the stack
+     */
+    void populate(MemoryStack stack, VkGraphicsPipelineCreateInfo createInfo) {
+        PipelineState state = freeze();
+        try {
+            state.populate(stack, createInfo);
+        } finally {
+            state.free();
+        }
     }
 
 
     public class VertexInputStageConfigurator extends FlagHolder<VertexInputStageConfigurator> {
 
-        private final List<Function<MemoryStack, VkVertexInputAttributeDescription>> inputAttributes = new ArrayList<>();
+        private final List<int[]> inputAttributes = new ArrayList<>();
+
+        private final List<int[]> inputBindings = new ArrayList<>();
 
-        private final List<Function<MemoryStack, VkVertexInputBindingDescription>> inputBindings = new ArrayList<>();
+        private final Set<Integer> boundBindings = new HashSet<>();
 
         private VertexInputStageConfigurator() {
 
@@ -121,47 +162,22 @@ public class PipelineBuilder extends FlagHolder<PipelineBuilder> {
         }
 
         private void populate(int i, int binding, int stride, int location, int offset, int format) {
-            inputBindings.add(m -> {
-                VkVertexInputBindingDescription struct = VkVertexInputBindingDescription.calloc(m);
-                struct.binding(binding);
-                struct.stride(stride);
-                struct.inputRate(i);
-                return struct;
-            });
-            inputAttributes.add(m -> {
-                VkVertexInputAttributeDescription struct = VkVertexInputAttributeDescription.calloc(m);
-                struct.binding(binding);
-                struct.format(format);
-                struct.location(location);
-                struct.offset(offset);
-                return struct;
-            });
+            // Several attributes may share a binding, it is only described once
+            if (boundBindings.add(binding)) {
+                inputBindings.add(new int[]{binding, stride, i});
+            }
+            inputAttributes.add(new int[]{binding, location, offset, format});
         }
 
         public void submit() {
-            PipelineBuilder.this.takeVertexInput((MemoryStack stack) -> {
-                VkVertexInputAttributeDescription.Buffer attributes = VkVertexInputAttributeDescription.calloc(inputAttributes.size(), stack);
-                VkVertexInputBindingDescription.Buffer bindings = VkVertexInputBindingDescription.calloc(inputBindings.size(), stack);
-
-                inputAttributes.stream().map(f -> f.apply(stack)).forEach(attributes::put);
-                inputBindings.stream().map(f -> f.apply(stack)).forEach(bindings::put);
-
-                VkPipelineVertexInputStateCreateInfo calloc = VkPipelineVertexInputStateCreateInfo.calloc(stack).sType$Default();
-
-                calloc.flags(flags);
-                calloc.pVertexAttributeDescriptions(attributes.flip());
-                calloc.pVertexBindingDescriptions(bindings.flip());
-                return calloc;
-            });
+            PipelineBuilder.this.vertexInputFlags = flags;
+            PipelineBuilder.this.vertexBindings = flatten(inputBindings);
+            PipelineBuilder.this.vertexAttributes = flatten(inputAttributes);
         }
-    }
 
-    private void takeVertexInput(Function<MemoryStack, VkPipelineVertexInputStateCreateInfo> function) {
-        this.vertexInputState = function;
-    }
-
-    private void takeInputAssembly(Function<MemoryStack, VkPipelineInputAssemblyStateCreateInfo> function) {
-        this.inputAssemblyState = function;
+        private static int[] flatten(List<int[]> entries) {
+            return entries.stream().flatMapToInt(Arrays::stream).toArray();
+        }
     }
 
     public class InputAssemblyStateConfigurator extends FlagHolder<InputAssemblyStateConfigurator> {
@@ -171,13 +187,9 @@ public class PipelineBuilder extends FlagHolder<PipelineBuilder> {
         private boolean primitiveRestart = false;
 
         public void submit() {
-            PipelineBuilder.this.takeInputAssembly((MemoryStack stack) -> {
-                VkPipelineInputAssemblyStateCreateInfo calloc = VkPipelineInputAssemblyStateCreateInfo.calloc(stack).sType$Default();
-                calloc.flags(flags);
-                calloc.primitiveRestartEnable(primitiveRestart);
-                calloc.topology(topology);
-                return calloc;
-            });
+            PipelineBuilder.this.inputAssemblyFlags = flags;
+            PipelineBuilder.this.topology = topology;
+            PipelineBuilder.this.primitiveRestart = primitiveRestart;
         }
 
         public InputAssemblyStateConfigurator topology(int topology) {
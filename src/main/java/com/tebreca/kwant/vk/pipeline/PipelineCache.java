@@ -0,0 +1,179 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkPhysicalDeviceProperties;
+import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
+import org.lwjgl.vulkan.VkPipelineCreationFeedback;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * VkPipelineCache owned by the VulkanManager, optionally persisted to disk between launches.
+ * <br><br>
+ * The on-disk blob is prefixed by a small kwant header holding the vendor, device, driver version and
+ * pipelineCacheUUID of the device that wrote it. A blob written by any other device or driver is thrown away
+ * rather than handed to the driver.
+ */
+public class PipelineCache {
+
+    private static final int MAGIC = 0x4b575043; // KWPC
+    private static final int HEADER_SIZE = 4 * 4 + VK_UUID_SIZE + 8;
+
+    private final VkDevice device;
+    @Nullable
+    private final File file;
+    private final long handle;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public PipelineCache(VkDevice device, @Nullable File file) {
+        this.device = device;
+        this.file = file;
+        ByteBuffer initialData = file == null ? null : read(file);
+        try (var stack = MemoryStack.stackPush()) {
+            VkPipelineCacheCreateInfo createInfo = VkPipelineCacheCreateInfo.calloc(stack).sType$Default();
+            if (initialData != null) {
+                createInfo.pInitialData(initialData);
+            }
+            var pointer = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreatePipelineCache(device, createInfo, null, pointer), "Failed to create pipeline cache!");
+            handle = pointer.get(0);
+        } finally {
+            MemoryUtil.memFree(initialData);
+        }
+    }
+
+    /**
+     * @return the blob stored in the file, or null if it is missing, corrupt or was written by another device/driver
+     */
+    @Nullable
+    private ByteBuffer read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ); var stack = MemoryStack.stackPush()) {
+            ByteBuffer header = stack.malloc(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header) != HEADER_SIZE || !matches(header.flip(), stack)) {
+                System.out.printf("Discarding stale pipeline cache %s%n", file.getAbsolutePath());
+                return null;
+            }
+            long size = header.getLong(HEADER_SIZE - 8);
+            if (size <= 0 || size != channel.size() - HEADER_SIZE) {
+                System.out.printf("Discarding truncated pipeline cache %s%n", file.getAbsolutePath());
+                return null;
+            }
+            ByteBuffer data = MemoryUtil.memAlloc((int) size);
+            while (data.hasRemaining() && channel.read(data) >= 0) ;
+            return data.flip();
+        } catch (IOException e) {
+            System.out.printf("Failed to read pipeline cache %s: %s%n", file.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean matches(ByteBuffer header, MemoryStack stack) {
+        VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.calloc(stack);
+        vkGetPhysicalDeviceProperties(device.getPhysicalDevice(), properties);
+        boolean matches = header.getInt(0) == MAGIC
+                && header.getInt(4) == properties.vendorID()
+                && header.getInt(8) == properties.deviceID()
+                && header.getInt(12) == properties.driverVersion();
+        ByteBuffer uuid = properties.pipelineCacheUUID();
+        for (int i = 0; i < VK_UUID_SIZE; i++) {
+            matches &= header.get(16 + i) == uuid.get(i);
+        }
+        return matches;
+    }
+
+    private void writeHeader(ByteBuffer header, long size, MemoryStack stack) {
+        VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.calloc(stack);
+        vkGetPhysicalDeviceProperties(device.getPhysicalDevice(), properties);
+        header.putInt(MAGIC).putInt(properties.vendorID()).putInt(properties.deviceID()).putInt(properties.driverVersion());
+        header.put(properties.pipelineCacheUUID());
+        header.putLong(size);
+    }
+
+    /**
+     * Writes the current cache contents to the file this cache was loaded from, does nothing for in-memory caches
+     */
+    public void save() {
+        if (file == null) {
+            return;
+        }
+        ByteBuffer data = null;
+        try (var stack = MemoryStack.stackPush()) {
+            PointerBuffer size = stack.callocPointer(1);
+            VulkanUtils.assertResult(vkGetPipelineCacheData(device, handle, size, null), "Failed to query pipeline cache size!");
+            data = MemoryUtil.memAlloc(HEADER_SIZE + (int) size.get(0)).order(ByteOrder.LITTLE_ENDIAN);
+            VulkanUtils.assertResult(vkGetPipelineCacheData(device, handle, size, data.position(HEADER_SIZE).slice()), "Failed to read pipeline cache data!");
+            data.position(0);
+            writeHeader(data, size.get(0), stack);
+            data.position(0).limit(HEADER_SIZE + (int) size.get(0));
+
+            Path target = file.toPath().toAbsolutePath();
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) channel.write(data);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.printf("Failed to save pipeline cache %s: %s%n", file.getAbsolutePath(), e.getMessage());
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    /**
+     * Counts a pipeline creation towards the hit/miss statistics, based on the creation feedback the driver wrote
+     */
+    public void record(VkPipelineCreationFeedback feedback) {
+        if ((feedback.flags() & VK_PIPELINE_CREATION_FEEDBACK_VALID_BIT) == 0) {
+            return;
+        }
+        if ((feedback.flags() & VK_PIPELINE_CREATION_FEEDBACK_APPLICATION_PIPELINE_CACHE_HIT_BIT) != 0) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return amount of pipelines the driver reported as fully served from this cache
+     */
+    public int hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return amount of pipelines the driver reported as compiled, despite this cache
+     */
+    public int misses() {
+        return misses.get();
+    }
+
+    public long handle() {
+        return handle;
+    }
+
+    public void destroy() {
+        vkDestroyPipelineCache(device, handle, null);
+    }
+}
@@ -0,0 +1,420 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.shader.Shader;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Immutable description of a graphics pipeline, frozen from a {@link PipelineBuilder}.
+ * <br><br>
+ * The whole VkGraphicsPipelineCreateInfo tree is kept as one off-heap image, with the pointers between its structs
+ * stored as offsets into the image. Populating a create info copies the image onto the stack and turns the offsets
+ * back into addresses, so building from a state does not allocate on the Java heap. States compare and hash by the
+ * contents of their image, which makes them usable as keys for pipeline variants.
+ * <br><br>
+ * The {@code with} methods copy the image with one field changed. Shader specialization info is referenced, not
+ * copied, and has to outlive the state. States own native memory, {@link #free()} them when done.
+ */
+@SuppressWarnings("unused")
+public final class PipelineState implements Comparable<PipelineState> {
+
+    private final ByteBuffer image;
+    private final long address;
+    private final Layout layout;
+    private final int hash;
+
+    private PipelineState(ByteBuffer image, Layout layout) {
+        this.image = image;
+        this.address = memAddress(image);
+        this.layout = layout;
+        this.hash = image.hashCode();
+    }
+
+    /**
+     * Offsets of the structs within an image, shared by every state derived from the same freeze
+     *
+     * @param relocations offsets of the pointer fields that point into the image itself
+     */
+    private record Layout(int[] relocations, int stages, int stageCount, int inputAssembly, int rasterization,
+                          int attachments, int attachmentCount, int formats) {
+    }
+
+    static PipelineState freeze(int flags, long pipelineLayout, List<Shader> shaders, int vertexInputFlags, int[] bindings, int[] attributes,
+                                int inputAssemblyFlags, int topology, boolean primitiveRestart, int patchControlPoints,
+                                int cullMode, boolean alphaBlending, int[] colorFormats) {
+        int stageCount = shaders.size();
+        int bindingCount = bindings.length / 3;
+        int attributeCount = attributes.length / 4;
+        int size = align(VkGraphicsPipelineCreateInfo.SIZEOF)
+                + align(VkPipelineRenderingCreateInfo.SIZEOF) + align(colorFormats.length * Integer.BYTES)
+                + align(stageCount * VkPipelineShaderStageCreateInfo.SIZEOF)
+                + align(VkPipelineVertexInputStateCreateInfo.SIZEOF)
+                + align(bindingCount * VkVertexInputBindingDescription.SIZEOF)
+                + align(attributeCount * VkVertexInputAttributeDescription.SIZEOF)
+                + align(VkPipelineInputAssemblyStateCreateInfo.SIZEOF)
+                + align(VkPipelineTessellationStateCreateInfo.SIZEOF)
+                + align(VkPipelineViewportStateCreateInfo.SIZEOF)
+                + align(VkPipelineRasterizationStateCreateInfo.SIZEOF)
+                + align(VkPipelineMultisampleStateCreateInfo.SIZEOF)
+                + align(VkPipelineColorBlendStateCreateInfo.SIZEOF)
+                + align(colorFormats.length * VkPipelineColorBlendAttachmentState.SIZEOF)
+                + align(VkPipelineDynamicStateCreateInfo.SIZEOF) + align(2 * Integer.BYTES);
+        for (Shader shader : shaders) {
+            size += align(shader.name().length() + 1);
+        }
+
+        ByteBuffer image = memCalloc(size);
+        Writer writer = new Writer(memAddress(image));
+
+        VkGraphicsPipelineCreateInfo createInfo = VkGraphicsPipelineCreateInfo.create(writer.reserve(VkGraphicsPipelineCreateInfo.SIZEOF)).sType$Default()
+                .flags(flags)
+                .layout(pipelineLayout);
+
+        int formatsOffset = writer.offset;
+        long formats = writer.reserve(colorFormats.length * Integer.BYTES);
+        for (int i = 0; i < colorFormats.length; i++) {
+            memPutInt(formats + (long) i * Integer.BYTES, colorFormats[i]);
+        }
+        VkPipelineRenderingCreateInfo rendering = VkPipelineRenderingCreateInfo.create(writer.reserve(VkPipelineRenderingCreateInfo.SIZEOF)).sType$Default()
+                .colorAttachmentCount(colorFormats.length);
+        if (colorFormats.length > 0) {
+            memPutAddress(rendering.address() + VkPipelineRenderingCreateInfo.PCOLORATTACHMENTFORMATS, formats);
+            writer.relocate(rendering.address() + VkPipelineRenderingCreateInfo.PCOLORATTACHMENTFORMATS);
+        }
+        createInfo.pNext(rendering);
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PNEXT);
+
+        int stagesOffset = writer.offset;
+        VkPipelineShaderStageCreateInfo.Buffer stages = VkPipelineShaderStageCreateInfo.create(writer.reserve(stageCount * VkPipelineShaderStageCreateInfo.SIZEOF), stageCount);
+        for (int i = 0; i < stageCount; i++) {
+            Shader shader = shaders.get(i);
+            stages.get(i).sType$Default()
+                    .flags(shader.shaderFlags())
+                    .stage(shader.stage())
+                    .module(shader.module())
+                    .pSpecializationInfo(shader.specializationInfo());
+            int length = shader.name().length() + 1;
+            long name = writer.reserve(length);
+            memASCII(shader.name(), true, memByteBuffer(name, length));
+            memPutAddress(stages.address(i) + VkPipelineShaderStageCreateInfo.PNAME, name);
+            writer.relocate(stages.address(i) + VkPipelineShaderStageCreateInfo.PNAME);
+        }
+        createInfo.pStages(stages);
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PSTAGES);
+
+        VkVertexInputBindingDescription.Buffer bindingDescriptions = VkVertexInputBindingDescription.create(writer.reserve(bindingCount * VkVertexInputBindingDescription.SIZEOF), bindingCount);
+        for (int i = 0; i < bindingCount; i++) {
+            bindingDescriptions.get(i).binding(bindings[i * 3]).stride(bindings[i * 3 + 1]).inputRate(bindings[i * 3 + 2]);
+        }
+        VkVertexInputAttributeDescription.Buffer attributeDescriptions = VkVertexInputAttributeDescription.create(writer.reserve(attributeCount * VkVertexInputAttributeDescription.SIZEOF), attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            attributeDescriptions.get(i).binding(attributes[i * 4]).location(attributes[i * 4 + 1]).offset(attributes[i * 4 + 2]).format(attributes[i * 4 + 3]);
+        }
+        VkPipelineVertexInputStateCreateInfo vertexInput = VkPipelineVertexInputStateCreateInfo.create(writer.reserve(VkPipelineVertexInputStateCreateInfo.SIZEOF)).sType$Default()
+                .flags(vertexInputFlags);
+        if (bindingCount > 0) {
+            vertexInput.pVertexBindingDescriptions(bindingDescriptions);
+            writer.relocate(vertexInput.address() + VkPipelineVertexInputStateCreateInfo.PVERTEXBINDINGDESCRIPTIONS);
+        }
+        if (attributeCount > 0) {
+            vertexInput.pVertexAttributeDescriptions(attributeDescriptions);
+            writer.relocate(vertexInput.address() + VkPipelineVertexInputStateCreateInfo.PVERTEXATTRIBUTEDESCRIPTIONS);
+        }
+        createInfo.pVertexInputState(vertexInput);
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PVERTEXINPUTSTATE);
+
+        int inputAssemblyOffset = writer.offset;
+        createInfo.pInputAssemblyState(VkPipelineInputAssemblyStateCreateInfo.create(writer.reserve(VkPipelineInputAssemblyStateCreateInfo.SIZEOF)).sType$Default()
+                .flags(inputAssemblyFlags)
+                .topology(topology)
+                .primitiveRestartEnable(primitiveRestart));
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PINPUTASSEMBLYSTATE);
+
+        long tessellation = writer.reserve(VkPipelineTessellationStateCreateInfo.SIZEOF);
+        if (patchControlPoints > 0) {
+            createInfo.pTessellationState(VkPipelineTessellationStateCreateInfo.create(tessellation).sType$Default()
+                    .patchControlPoints(patchControlPoints));
+            writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PTESSELLATIONSTATE);
+        }
+
+        // Viewport and scissor follow the swapchain, so they are dynamic and pipelines survive a resize
+        createInfo.pViewportState(VkPipelineViewportStateCreateInfo.create(writer.reserve(VkPipelineViewportStateCreateInfo.SIZEOF)).sType$Default()
+                .viewportCount(1)
+                .scissorCount(1));
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PVIEWPORTSTATE);
+
+        int rasterizationOffset = writer.offset;
+        createInfo.pRasterizationState(VkPipelineRasterizationStateCreateInfo.create(writer.reserve(VkPipelineRasterizationStateCreateInfo.SIZEOF)).sType$Default()
+                .polygonMode(VK_POLYGON_MODE_FILL)
+                .cullMode(cullMode)
+                .frontFace(VK_FRONT_FACE_COUNTER_CLOCKWISE)
+                .lineWidth(1.0f));
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PRASTERIZATIONSTATE);
+
+        createInfo.pMultisampleState(VkPipelineMultisampleStateCreateInfo.create(writer.reserve(VkPipelineMultisampleStateCreateInfo.SIZEOF)).sType$Default()
+                .rasterizationSamples(VK_SAMPLE_COUNT_1_BIT));
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PMULTISAMPLESTATE);
+
+        int attachmentsOffset = writer.offset;
+        VkPipelineColorBlendAttachmentState.Buffer attachments = VkPipelineColorBlendAttachmentState.create(writer.reserve(colorFormats.length * VkPipelineColorBlendAttachmentState.SIZEOF), colorFormats.length);
+        for (int i = 0; i < colorFormats.length; i++) {
+            blend(attachments.address(i), alphaBlending);
+        }
+        VkPipelineColorBlendStateCreateInfo colorBlend = VkPipelineColorBlendStateCreateInfo.create(writer.reserve(VkPipelineColorBlendStateCreateInfo.SIZEOF)).sType$Default()
+                .attachmentCount(colorFormats.length);
+        if (colorFormats.length > 0) {
+            colorBlend.pAttachments(attachments);
+            writer.relocate(colorBlend.address() + VkPipelineColorBlendStateCreateInfo.PATTACHMENTS);
+        }
+        createInfo.pColorBlendState(colorBlend);
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PCOLORBLENDSTATE);
+
+        long dynamicStates = writer.reserve(2 * Integer.BYTES);
+        memPutInt(dynamicStates, VK_DYNAMIC_STATE_VIEWPORT);
+        memPutInt(dynamicStates + Integer.BYTES, VK_DYNAMIC_STATE_SCISSOR);
+        VkPipelineDynamicStateCreateInfo dynamic = VkPipelineDynamicStateCreateInfo.create(writer.reserve(VkPipelineDynamicStateCreateInfo.SIZEOF)).sType$Default()
+                .pDynamicStates(memIntBuffer(dynamicStates, 2));
+        writer.relocate(dynamic.address() + VkPipelineDynamicStateCreateInfo.PDYNAMICSTATES);
+        createInfo.pDynamicState(dynamic);
+        writer.relocate(createInfo.address() + VkGraphicsPipelineCreateInfo.PDYNAMICSTATE);
+
+        writer.toOffsets();
+        return new PipelineState(image, new Layout(writer.relocations(), stagesOffset, stageCount, inputAssemblyOffset,
+                rasterizationOffset, attachmentsOffset, colorFormats.length, formatsOffset));
+    }
+
+    private static void blend(long attachment, boolean alphaBlending) {
+        // Written field by field, variants are derived on hot paths and should not create struct wrappers
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.BLENDENABLE, alphaBlending ? VK_TRUE : VK_FALSE);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.SRCCOLORBLENDFACTOR, alphaBlending ? VK_BLEND_FACTOR_SRC_ALPHA : VK_BLEND_FACTOR_ZERO);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.DSTCOLORBLENDFACTOR, alphaBlending ? VK_BLEND_FACTOR_ONE_MINUS_SRC_ALPHA : VK_BLEND_FACTOR_ZERO);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.COLORBLENDOP, VK_BLEND_OP_ADD);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.SRCALPHABLENDFACTOR, alphaBlending ? VK_BLEND_FACTOR_ONE : VK_BLEND_FACTOR_ZERO);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.DSTALPHABLENDFACTOR, alphaBlending ? VK_BLEND_FACTOR_ONE_MINUS_SRC_ALPHA : VK_BLEND_FACTOR_ZERO);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.ALPHABLENDOP, VK_BLEND_OP_ADD);
+        memPutInt(attachment + VkPipelineColorBlendAttachmentState.COLORWRITEMASK,
+                VK_COLOR_COMPONENT_R_BIT | VK_COLOR_COMPONENT_G_BIT | VK_COLOR_COMPONENT_B_BIT | VK_COLOR_COMPONENT_A_BIT);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Copies the image onto the stack with its offsets turned into addresses, and the create info at its start into
+     * the given one. The nested structs live as long as the stack frame.
+     */
+    void populate(MemoryStack stack, VkGraphicsPipelineCreateInfo createInfo) {
+        memCopy(relocated(stack), createInfo.address(), VkGraphicsPipelineCreateInfo.SIZEOF);
+    }
+
+    private long relocated(MemoryStack stack) {
+        int size = image.capacity();
+        long copy = stack.nmalloc(8, size);
+        memCopy(address, copy, size);
+        for (int relocation : layout.relocations()) {
+            memPutAddress(copy + relocation, memGetAddress(copy + relocation) + copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Creates the pipeline right away on the calling thread, without allocating on the Java heap
+     *
+     * @param pipelineCache VkPipelineCache, or VK_NULL_HANDLE
+     * @return the VkPipeline
+     */
+    public long create(VkDevice device, long pipelineCache) {
+        try (var stack = MemoryStack.stackPush()) {
+            long pipeline = stack.nmalloc(8, Long.BYTES);
+            VulkanUtils.assertResult(nvkCreateGraphicsPipelines(device, pipelineCache, 1, relocated(stack), NULL, pipeline), "Failed to create Graphics pipeline!");
+            return memGetLong(pipeline);
+        }
+    }
+
+    private ByteBuffer copy() {
+        ByteBuffer copy = memAlloc(image.capacity());
+        memCopy(address, memAddress(copy), image.capacity());
+        return copy;
+    }
+
+    private PipelineState derive(ByteBuffer copy) {
+        return new PipelineState(copy, layout);
+    }
+
+    /**
+     * @param topology VkPrimitiveTopology
+     * @return a copy of this state with another topology
+     */
+    public PipelineState withTopology(int topology) {
+        ByteBuffer copy = copy();
+        memPutInt(memAddress(copy) + layout.inputAssembly() + VkPipelineInputAssemblyStateCreateInfo.TOPOLOGY, topology);
+        return derive(copy);
+    }
+
+    /**
+     * @param cullMode VkCullModeFlags
+     * @return a copy of this state with another cull mode
+     */
+    public PipelineState withCullMode(int cullMode) {
+        ByteBuffer copy = copy();
+        memPutInt(memAddress(copy) + layout.rasterization() + VkPipelineRasterizationStateCreateInfo.CULLMODE, cullMode);
+        return derive(copy);
+    }
+
+    /**
+     * @return a copy of this state blending every color attachment with source alpha, or not blending at all
+     */
+    public PipelineState withAlphaBlending(boolean alphaBlending) {
+        ByteBuffer copy = copy();
+        for (int i = 0; i < layout.attachmentCount(); i++) {
+            blend(memAddress(copy) + layout.attachments() + (long) i * VkPipelineColorBlendAttachmentState.SIZEOF, alphaBlending);
+        }
+        return derive(copy);
+    }
+
+    /**
+     * @param stage  index of the shader stage, in the order the shaders were added to the builder
+     * @param module VkShaderModule to use instead, with the same entry point name
+     * @return a copy of this state with one shader swapped
+     */
+    public PipelineState withShaderModule(int stage, long module) {
+        if (stage < 0 || stage >= layout.stageCount()) {
+            throw new IndexOutOfBoundsException("Pipeline has %d shader stages".formatted(layout.stageCount()));
+        }
+        ByteBuffer copy = copy();
+        memPutLong(memAddress(copy) + layout.stages() + (long) stage * VkPipelineShaderStageCreateInfo.SIZEOF + VkPipelineShaderStageCreateInfo.MODULE, module);
+        return derive(copy);
+    }
+
+    /**
+     * @param stage          index of the shader stage, in the order the shaders were added to the builder
+     * @param specialization constants for that stage, referenced rather than copied, or null for none
+     * @return a copy of this state with the specialization of one shader swapped
+     */
+    public PipelineState withSpecialization(int stage, @Nullable VkSpecializationInfo specialization) {
+        if (stage < 0 || stage >= layout.stageCount()) {
+            throw new IndexOutOfBoundsException("Pipeline has %d shader stages".formatted(layout.stageCount()));
+        }
+        ByteBuffer copy = copy();
+        memPutAddress(memAddress(copy) + layout.stages() + (long) stage * VkPipelineShaderStageCreateInfo.SIZEOF + VkPipelineShaderStageCreateInfo.PSPECIALIZATIONINFO,
+                specialization == null ? NULL : specialization.address());
+        return derive(copy);
+    }
+
+    /**
+     * @return an equal state with its own image
+     */
+    PipelineState duplicate() {
+        return derive(copy());
+    }
+
+    /**
+     * @return amount of shader stages
+     */
+    public int stageCount() {
+        return layout.stageCount();
+    }
+
+    /**
+     * @param pipelineLayout VkPipelineLayout to create the pipeline with instead
+     * @return a copy of this state with another layout
+     */
+    public PipelineState withLayout(long pipelineLayout) {
+        ByteBuffer copy = copy();
+        memPutLong(memAddress(copy) + VkGraphicsPipelineCreateInfo.LAYOUT, pipelineLayout);
+        return derive(copy);
+    }
+
+    /**
+     * @param attachment index of the color attachment
+     * @param format     VkFormat of that attachment instead
+     * @return a copy of this state rendering to another format
+     */
+    public PipelineState withColorFormat(int attachment, int format) {
+        if (attachment < 0 || attachment >= layout.attachmentCount()) {
+            throw new IndexOutOfBoundsException("Pipeline has %d color attachments".formatted(layout.attachmentCount()));
+        }
+        ByteBuffer copy = copy();
+        memPutInt(memAddress(copy) + layout.formats() + (long) attachment * Integer.BYTES, format);
+        return derive(copy);
+    }
+
+    /**
+     * @return size of the native image in bytes
+     */
+    public int size() {
+        return image.capacity();
+    }
+
+    public void free() {
+        memFree(image);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PipelineState other && hash == other.hash && image.equals(other.image)
+                && Arrays.equals(layout.relocations(), other.layout.relocations());
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(PipelineState other) {
+        // Consistent with equals, equal images can still point into themselves at other places
+        int images = image.compareTo(other.image);
+        return images != 0 ? images : Arrays.compare(layout.relocations(), other.layout.relocations());
+    }
+
+    /**
+     * Reserves space in the image, keeping track of the pointer fields that point back into it
+     */
+    private static final class Writer {
+
+        private final long base;
+        private int offset = 0;
+        private int[] relocations = new int[16];
+        private int relocationCount = 0;
+
+        private Writer(long base) {
+            this.base = base;
+        }
+
+        private long reserve(int size) {
+            long reserved = base + offset;
+            offset += align(size);
+            return reserved;
+        }
+
+        private void relocate(long field) {
+            if (relocationCount == relocations.length) {
+                relocations = Arrays.copyOf(relocations, relocationCount * 2);
+            }
+            relocations[relocationCount++] = (int) (field - base);
+        }
+
+        private void toOffsets() {
+            for (int i = 0; i < relocationCount; i++) {
+                memPutAddress(base + relocations[i], memGetAddress(base + relocations[i]) - base);
+            }
+        }
+
+        private int[] relocations() {
+            int[] sorted = Arrays.copyOf(relocations, relocationCount);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.vk.VulkanManager;
+import com.tebreca.kwant.vk.shader.SpecializationConstants;
+import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkSpecializationInfo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.vulkan.VK13.vkDestroyPipeline;
+
+/**
+ * Creates every distinct pipeline state once, and hands out the same pipeline for equal states afterwards.
+ * <br><br>
+ * Specialization constants are interned: equal constants always resolve to the same VkSpecializationInfo, so the
+ * frozen state of a pipeline identifies its specialization values as well. Pipelines are created on the workers
+ * through {@link PipelineBatch}, {@link #prewarm(Collection)} creates many variants ahead of time in one batch.
+ * <br><br>
+ * The cache owns its pipelines, they are destroyed with it and must not be destroyed by their users.
+ */
+@SuppressWarnings("unused")
+public class PipelineVariantCache {
+
+    private final VulkanManager manager;
+    private final Map<PipelineState, Mono<GraphicsPipeline>> pipelines = new ConcurrentHashMap<>();
+    private final Map<SpecializationConstants, VkSpecializationInfo> specializations = new ConcurrentHashMap<>();
+    private final List<GraphicsPipeline> created = Collections.synchronizedList(new ArrayList<>());
+
+    public PipelineVariantCache(VulkanManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @return the shared specialization info for these constants, valid until this cache is destroyed
+     */
+    public VkSpecializationInfo specialization(SpecializationConstants constants) {
+        VkSpecializationInfo info = specializations.get(constants);
+        if (info != null) {
+            return info;
+        }
+        SpecializationConstants key = constants.copy();
+        return specializations.computeIfAbsent(key, SpecializationConstants::allocate);
+    }
+
+    /**
+     * @param stage index of the shader stage to specialize, in the order the shaders were added to the builder
+     * @return a new state with the interned constants for that stage, owned by the caller
+     */
+    public PipelineState specialize(PipelineState state, int stage, SpecializationConstants constants) {
+        return state.withSpecialization(stage, specialization(constants));
+    }
+
+    /**
+     * @param state state of the pipeline, copied if not cached yet, so the caller may free it right away
+     * @return the pipeline for this state, created on the workers the first time it is requested
+     */
+    public Mono<GraphicsPipeline> get(PipelineState state) {
+        Mono<GraphicsPipeline> cached = pipelines.get(state);
+        if (cached != null) {
+            return cached;
+        }
+        PipelineBatch batch = manager.pipelineBatch();
+        Mono<GraphicsPipeline> pipeline = enqueue(state, batch);
+        batch.submit();
+        return pipeline;
+    }
+
+    /**
+     * Freezes the builder and looks up its state, see {@link #get(PipelineState)}
+     */
+    public Mono<GraphicsPipeline> get(PipelineBuilder builder) {
+        PipelineState state = builder.freeze();
+        try {
+            return get(state);
+        } finally {
+            state.free();
+        }
+    }
+
+    /**
+     * Starts creating every state not cached yet in a single batch, spread over the workers
+     *
+     * @return the pipelines of all given states, in order of completion
+     */
+    public Flux<GraphicsPipeline> prewarm(Collection<PipelineState> states) {
+        PipelineBatch batch = manager.pipelineBatch();
+        List<Mono<GraphicsPipeline>> all = new ArrayList<>(states.size());
+        for (PipelineState state : states) {
+            all.add(enqueue(state, batch));
+        }
+        batch.submit();
+        return Flux.fromIterable(all).flatMapDelayError(pipeline -> pipeline, Math.max(1, all.size()), 1);
+    }
+
+    private Mono<GraphicsPipeline> enqueue(PipelineState state, PipelineBatch batch) {
+        Mono<GraphicsPipeline> cached = pipelines.get(state);
+        if (cached != null) {
+            return cached;
+        }
+        PipelineState key = state.duplicate();
+        Sinks.One<GraphicsPipeline> sink = Sinks.one();
+        Mono<GraphicsPipeline> result = sink.asMono();
+        Mono<GraphicsPipeline> raced = pipelines.putIfAbsent(key, result);
+        if (raced != null) {
+            key.free();
+            return raced;
+        }
+        batch.add(key).subscribe(pipeline -> {
+            created.add(pipeline);
+            sink.tryEmitValue(pipeline);
+        }, e -> {
+            // Not cached, so a later request tries again instead of getting this error forever
+            if (pipelines.remove(key, result)) {
+                key.free();
+            }
+            sink.tryEmitError(e);
+        });
+        return result;
+    }
+
+    /**
+     * @return amount of distinct pipeline states requested so far
+     */
+    public int size() {
+        return pipelines.size();
+    }
+
+    public void destroy(VkDevice device) {
+        synchronized (created) {
+            created.forEach(pipeline -> vkDestroyPipeline(device, pipeline.pointer(), null));
+            created.clear();
+        }
+        pipelines.keySet().forEach(PipelineState::free);
+        pipelines.clear();
+        specializations.values().forEach(SpecializationConstants::free);
+        specializations.clear();
+    }
+}
@@ -0,0 +1,15 @@
+package com.tebreca.kwant.vk.profile;
+
+import java.util.Map;
+
+/**
+ * Timings of a single frame, published a few frames after it was rendered
+ *
+ * @param frame           number of the frame, see {@link com.tebreca.kwant.vk.frame.FrameLoop#frameNumber()}
+ * @param cpuMillis       time spent recording the frame on the render thread
+ * @param intervalMillis  time since the previous frame started, with vsync this follows the present interval
+ * @param gpuMillis       time the GPU spent on the frame's command buffer, NaN if the queue has no timestamps
+ * @param scopes          GPU time per named scope in the order they were first recorded, scopes recorded more than once are summed
+ */
+public record FrameStats(long frame, double cpuMillis, double intervalMillis, double gpuMillis, Map<String, Double> scopes) {
+}
@@ -0,0 +1,203 @@
+package com.tebreca.kwant.vk.profile;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.Frame;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Measures the GPU time of every frame and of named scopes within it with timestamp queries.
+ * <br><br>
+ * Every frame in flight has its own query pool. Its results are read when the frame's slot comes around again, after
+ * its fence has been waited on, so reading never stalls and the stats lag behind by the amount of frames in flight.
+ * Frames of which not every query has been written yet are skipped instead of waited on.
+ * <br><br>
+ * Scopes are only recorded into the frame's primary command buffer, from the render thread.
+ */
+@SuppressWarnings("unused")
+public class GpuProfiler {
+
+    private static final int FRAME_QUERIES = 2;
+
+    private final VkDevice device;
+    private final int maxQueries;
+    private final boolean supported;
+    private final double nanosPerTick;
+    private final long validMask;
+    private final long[] pools;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    // Per frame slot: scope id of every pair of queries, amount of queries written and the cpu side timings
+    private final int[][] scopes;
+    private final int[] used;
+    private final long[] frameNumbers;
+    private final long[] cpuTimes;
+    private final long[] intervals;
+    private final boolean[] pending;
+
+    private final LongBuffer results;
+    private int slot;
+    private long frameStart;
+    private long lastFrameStart = -1;
+
+    private final Sinks.Many<FrameStats> stats = Sinks.many().multicast().directBestEffort();
+
+    /**
+     * @param queueFamily family of the queue the frames are submitted to
+     * @param maxScopes   maximum amount of scopes per frame, scopes beyond it are not measured
+     */
+    public GpuProfiler(VkDevice device, FrameLoop frameLoop, int queueFamily, int maxScopes) {
+        this.device = device;
+        int frames = frameLoop.framesInFlight();
+        this.maxQueries = FRAME_QUERIES + maxScopes * 2;
+        try (var stack = MemoryStack.stackPush()) {
+            VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.malloc(stack);
+            vkGetPhysicalDeviceProperties(device.getPhysicalDevice(), properties);
+            IntBuffer count = stack.callocInt(1);
+            vkGetPhysicalDeviceQueueFamilyProperties(device.getPhysicalDevice(), count, null);
+            VkQueueFamilyProperties.Buffer families = VkQueueFamilyProperties.malloc(count.get(0), stack);
+            vkGetPhysicalDeviceQueueFamilyProperties(device.getPhysicalDevice(), count, families);
+            int validBits = families.get(queueFamily).timestampValidBits();
+
+            this.supported = validBits > 0;
+            this.validMask = validBits >= 64 ? -1L : (1L << validBits) - 1;
+            this.nanosPerTick = properties.limits().timestampPeriod();
+            if (!supported) {
+                System.out.printf("Queue family %d does not support timestamps, GPU times are unavailable%n", queueFamily);
+            }
+
+            this.pools = new long[frames];
+            if (supported) {
+                VkQueryPoolCreateInfo createInfo = VkQueryPoolCreateInfo.calloc(stack).sType$Default()
+                        .queryType(VK_QUERY_TYPE_TIMESTAMP)
+                        .queryCount(maxQueries);
+                LongBuffer handle = stack.callocLong(1);
+                for (int i = 0; i < frames; i++) {
+                    VulkanUtils.assertResult(vkCreateQueryPool(device, createInfo, null, handle), "Failed to create timestamp query pool!");
+                    pools[i] = handle.get(0);
+                }
+            }
+        }
+        this.scopes = new int[frames][maxScopes];
+        this.used = new int[frames];
+        this.frameNumbers = new long[frames];
+        this.cpuTimes = new long[frames];
+        this.intervals = new long[frames];
+        this.pending = new boolean[frames];
+        this.results = MemoryUtil.memAllocLong(maxQueries);
+
+        frameLoop.onBegin(this::beginFrame);
+        frameLoop.onEnd(this::endFrame);
+    }
+
+    private void beginFrame(Frame frame, VkCommandBuffer commandBuffer, int imageIndex) {
+        slot = frame.index();
+        if (pending[slot]) {
+            publish(slot);
+        }
+        frameStart = System.nanoTime();
+        intervals[slot] = lastFrameStart < 0 ? 0 : frameStart - lastFrameStart;
+        lastFrameStart = frameStart;
+        frameNumbers[slot] = frame.number();
+        used[slot] = 0;
+        if (supported) {
+            vkCmdResetQueryPool(commandBuffer, pools[slot], 0, maxQueries);
+            vkCmdWriteTimestamp2(commandBuffer, VK_PIPELINE_STAGE_2_TOP_OF_PIPE_BIT, pools[slot], 0);
+            used[slot] = FRAME_QUERIES;
+        }
+    }
+
+    private void endFrame(Frame frame, VkCommandBuffer commandBuffer, int imageIndex) {
+        if (supported) {
+            vkCmdWriteTimestamp2(commandBuffer, VK_PIPELINE_STAGE_2_BOTTOM_OF_PIPE_BIT, pools[slot], 1);
+        }
+        cpuTimes[slot] = System.nanoTime() - frameStart;
+        pending[slot] = true;
+    }
+
+    /**
+     * Starts measuring a scope, to be ended with {@link #end(VkCommandBuffer, int)} in the same frame
+     *
+     * @return the scope to end, -1 if it is not measured
+     */
+    public int begin(VkCommandBuffer commandBuffer, String name) {
+        int query = used[slot];
+        if (!supported || query + 2 > maxQueries) {
+            return -1;
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        scopes[slot][(query - FRAME_QUERIES) / 2] = id;
+        used[slot] = query + 2;
+        vkCmdWriteTimestamp2(commandBuffer, VK_PIPELINE_STAGE_2_TOP_OF_PIPE_BIT, pools[slot], query);
+        return query;
+    }
+
+    public void end(VkCommandBuffer commandBuffer, int scope) {
+        if (scope >= 0) {
+            vkCmdWriteTimestamp2(commandBuffer, VK_PIPELINE_STAGE_2_BOTTOM_OF_PIPE_BIT, pools[slot], scope + 1);
+        }
+    }
+
+    private void publish(int slot) {
+        pending[slot] = false;
+        double gpuMillis = Double.NaN;
+        Map<String, Double> scopeMillis = new LinkedHashMap<>();
+        if (supported) {
+            int count = used[slot];
+            int result = vkGetQueryPoolResults(device, pools[slot], 0, count, results.clear().limit(count), Long.BYTES, VK_QUERY_RESULT_64_BIT);
+            if (result == VK_NOT_READY) {
+                return;
+            }
+            VulkanUtils.assertResult(result, "Failed to read timestamp queries!");
+            gpuMillis = millis(results.get(0), results.get(1));
+            for (int query = FRAME_QUERIES; query < count; query += 2) {
+                String name = names.get(scopes[slot][(query - FRAME_QUERIES) / 2]);
+                scopeMillis.merge(name, millis(results.get(query), results.get(query + 1)), Double::sum);
+            }
+        }
+        stats.tryEmitNext(new FrameStats(frameNumbers[slot], cpuTimes[slot] / 1e6, intervals[slot] / 1e6, gpuMillis, Collections.unmodifiableMap(scopeMillis)));
+    }
+
+    private double millis(long start, long end) {
+        return ((end - start) & validMask) * nanosPerTick / 1e6;
+    }
+
+    /**
+     * @return the stats of every frame, emitted on the render thread. Slow subscribers miss frames rather than
+     * holding up rendering.
+     */
+    public Flux<FrameStats> stats() {
+        return stats.asFlux();
+    }
+
+    public boolean supported() {
+        return supported;
+    }
+
+    public void destroy() {
+        stats.tryEmitComplete();
+        if (supported) {
+            for (long pool : pools) {
+                vkDestroyQueryPool(device, pool, null);
+            }
+        }
+        MemoryUtil.memFree(results);
+    }
+}
@@ -37,7 +37,7 @@ public interface QueueFamilyFinder {
                 if (possibleFamilies.containsKey(1)) {
                     idealFamilies.put(queueType, possibleFamilies.get(1));
                 } else {
-                    idealFamilies.put(queueType, possibleFamilies.keySet().stream().sorted().findFirst().orElse(-1));
+                    idealFamilies.put(queueType, possibleFamilies.keySet().stream().sorted().findFirst().map(possibleFamilies::get).orElse(-1));
                 }
             }
         }
@@ -21,6 +21,13 @@ public record Shader(long module, int stage, String name, @Nullable VkSpecializa
         return createInfo;
     }
 
+    /**
+     * @return this shader with other specialization constants, the module is shared
+     */
+    public Shader withSpecialization(@Nullable VkSpecializationInfo specializationInfo) {
+        return new Shader(module, stage, name, specializationInfo, shaderFlags);
+    }
+
     boolean hasSpecializationInfo() {
         return specializationInfo != null;
     }
@@ -1,34 +1,32 @@
 package com.tebreca.kwant.vk.shader;
 
 import com.tebreca.kwant.vk.VulkanManager;
-import com.tebreca.kwant.vk.VulkanUtils;
-import org.lwjgl.system.MemoryStack;
+import com.tebreca.kwant.vk.pipeline.PipelineVariantCache;
 import org.lwjgl.vulkan.VkDevice;
-import org.lwjgl.vulkan.VkShaderModuleCreateInfo;
 import org.lwjgl.vulkan.VkSpecializationInfo;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.LongBuffer;
-
-import static org.lwjgl.vulkan.VK12.nvkGetDeviceMemoryOpaqueCaptureAddress;
-import static org.lwjgl.vulkan.VK13.vkCreateShaderModule;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 @SuppressWarnings({"unused"})
 public class ShaderBuilder {
 
     private final Mono<VkDevice> deviceMono;
+    private final ShaderModuleCache modules;
+    private final PipelineVariantCache variants;
+    private final Scheduler workers;
     private final File resource;
     private final Sinks.One<Shader> one = Sinks.one();
     private int stage;
 
-    private int moduleFlags = 0x0b;
-    private int shaderFlags = 0x0b;
+    private int moduleFlags = 0;
+    private int shaderFlags = 0;
 
     private String name = "main";
 
@@ -60,33 +58,50 @@ public class ShaderBuilder {
         return this;
     }
 
+    /**
+     * Specializes the shader with typed constants, equal constants share one VkSpecializationInfo
+     * owned by {@link VulkanManager#pipelineVariants()}
+     */
+    public ShaderBuilder specialize(SpecializationConstants constants) {
+        this.specializationInfo = variants.specialization(constants);
+        return this;
+    }
+
     @SuppressWarnings("deprecation")
     public ShaderBuilder(File resource, VulkanManager manager) throws RuntimeException {
         this.deviceMono = manager.virtualDevice();
-        one.asMono().subscribe(manager::withShader);
+        this.modules = manager.shaderModules();
+        this.variants = manager.pipelineVariants();
+        this.workers = manager.workers();
+        one.asMono().subscribe(manager::withShader, e -> {}); // failures surface through build()
         this.resource = resource;
     }
 
+    /**
+     * Loads the shader on one of the workers, so many shaders load in parallel. The file is memory mapped and paged
+     * in right away, before the device exists, and handed to the driver as is once it does. Identical SPIR-V shares a
+     * single module.
+     */
     public Mono<Shader> build() {
-        deviceMono.subscribeOn(Schedulers.immediate()).subscribe(device -> {
-            try (FileInputStream fileInputStream = new FileInputStream(resource); var stack = MemoryStack.stackPush()) {
-                byte[] raw = fileInputStream.readAllBytes();
-                int size = raw.length;
-                VkShaderModuleCreateInfo info = VkShaderModuleCreateInfo.calloc(stack);
-                ByteBuffer data = stack.calloc(size);
-                data.put(raw).flip();
-                info.pCode(data);
-                info.sType$Default();
-                info.flags(moduleFlags);
-                LongBuffer module = stack.callocLong(1);
-                VulkanUtils.assertResult(vkCreateShaderModule(device, info, null, module), "Failed to load in shader %s".formatted(resource.getAbsolutePath()));
-                one.tryEmitValue(new Shader(module.get(), stage, name, specializationInfo, shaderFlags));
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to read shader data from file!", e);
+        Mono<ByteBuffer> code = Mono.fromCallable(this::read)
+                .onErrorMap(IOException.class, e -> new RuntimeException("Failed to read shader data from file!", e))
+                .subscribeOn(workers);
+        code.zipWith(deviceMono).publishOn(workers).subscribe(tuple -> {
+            try {
+                long module = modules.get(tuple.getT2(), tuple.getT1(), moduleFlags, resource.getAbsolutePath());
+                one.tryEmitValue(new Shader(module, stage, name, specializationInfo, shaderFlags));
+            } catch (RuntimeException e) {
+                one.tryEmitError(e);
             }
-        });
+        }, one::tryEmitError);
         return one.asMono();
     }
 
+    private ByteBuffer read() throws IOException {
+        try (FileChannel channel = FileChannel.open(resource.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).load();
+        }
+    }
+
 
 }
@@ -0,0 +1,73 @@
+package com.tebreca.kwant.vk.shader;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkShaderModuleCreateInfo;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.vulkan.VK13.vkCreateShaderModule;
+import static org.lwjgl.vulkan.VK13.vkDestroyShaderModule;
+
+/**
+ * Shares VkShaderModule handles between shader builders pointing at identical SPIR-V, keyed by a SHA-256 of the code.
+ * Modules live until the VulkanManager cleans up.
+ */
+public class ShaderModuleCache {
+
+    private final Map<Key, Long> modules = new ConcurrentHashMap<>();
+
+    /**
+     * @param code  SPIR-V code, read straight from this buffer without copying
+     * @param flags VkShaderModuleCreateFlags
+     * @return the module for this code, only created if no module with identical code and flags exists yet
+     */
+    public long get(VkDevice device, ByteBuffer code, int flags, String origin) {
+        return modules.computeIfAbsent(new Key(digest(code), flags), key -> create(device, code, flags, origin));
+    }
+
+    private long create(VkDevice device, ByteBuffer code, int flags, String origin) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkShaderModuleCreateInfo info = VkShaderModuleCreateInfo.calloc(stack);
+            info.sType$Default();
+            info.pCode(code);
+            info.flags(flags);
+            LongBuffer module = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateShaderModule(device, info, null, module), "Failed to load in shader %s".formatted(origin));
+            return module.get(0);
+        }
+    }
+
+    private static String digest(ByteBuffer code) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(code.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be present on every JRE", e);
+        }
+    }
+
+    /**
+     * @return amount of distinct modules currently alive
+     */
+    public int size() {
+        return modules.size();
+    }
+
+    public void destroy(VkDevice device) {
+        modules.values().forEach(module -> vkDestroyShaderModule(device, module, null));
+        modules.clear();
+    }
+
+    private record Key(String digest, int flags) {
+
+    }
+}
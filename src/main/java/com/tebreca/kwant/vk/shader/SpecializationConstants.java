@@ -0,0 +1,118 @@
+package com.tebreca.kwant.vk.shader;
+
+import org.lwjgl.vulkan.VkSpecializationInfo;
+import org.lwjgl.vulkan.VkSpecializationMapEntry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK13.VK_FALSE;
+import static org.lwjgl.vulkan.VK13.VK_TRUE;
+
+/**
+ * Values for the specialization constants of a shader, by constant id.
+ * <br><br>
+ * Every supported type is 4 bytes wide on the shader side: int, float and bool (as VkBool32). Two sets of constants
+ * are equal when they assign the same values to the same ids, regardless of the order they were set in.
+ */
+@SuppressWarnings("unused")
+public class SpecializationConstants {
+
+    private final Map<Integer, Integer> values = new TreeMap<>();
+
+    /**
+     * @param id constant_id of an int or uint constant
+     */
+    public SpecializationConstants constant(int id, int value) {
+        values.put(id, value);
+        return this;
+    }
+
+    /**
+     * @param id constant_id of a float constant
+     */
+    public SpecializationConstants constant(int id, float value) {
+        values.put(id, Float.floatToRawIntBits(value));
+        return this;
+    }
+
+    /**
+     * @param id constant_id of a bool constant
+     */
+    public SpecializationConstants constant(int id, boolean value) {
+        values.put(id, value ? VK_TRUE : VK_FALSE);
+        return this;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return a snapshot of these constants, unaffected by later changes
+     */
+    public SpecializationConstants copy() {
+        SpecializationConstants copy = new SpecializationConstants();
+        copy.values.putAll(values);
+        return copy;
+    }
+
+    /**
+     * @return the constants as (id, value) pairs, ordered by id
+     */
+    private int[] pack() {
+        int[] packed = new int[values.size() * 2];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : values.entrySet()) {
+            packed[i++] = entry.getKey();
+            packed[i++] = entry.getValue();
+        }
+        return packed;
+    }
+
+    /**
+     * Allocates a specialization info holding these constants, with its map entries and data in the same allocation
+     *
+     * @return the info, to be released with {@link #free(VkSpecializationInfo)}
+     */
+    public VkSpecializationInfo allocate() {
+        int[] packed = pack();
+        int count = packed.length / 2;
+        ByteBuffer memory = memCalloc(VkSpecializationInfo.SIZEOF + count * VkSpecializationMapEntry.SIZEOF + count * Integer.BYTES);
+        long base = memAddress(memory);
+        VkSpecializationMapEntry.Buffer entries = VkSpecializationMapEntry.create(base + VkSpecializationInfo.SIZEOF, count);
+        ByteBuffer data = memByteBuffer(base + VkSpecializationInfo.SIZEOF + (long) count * VkSpecializationMapEntry.SIZEOF, count * Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            entries.get(i).constantID(packed[i * 2]).offset(i * Integer.BYTES).size(Integer.BYTES);
+            data.putInt(i * Integer.BYTES, packed[i * 2 + 1]);
+        }
+        return VkSpecializationInfo.create(base)
+                .pMapEntries(count > 0 ? entries : null)
+                .pData(count > 0 ? data : null);
+    }
+
+    /**
+     * Releases an info returned by {@link #allocate()}
+     */
+    public static void free(VkSpecializationInfo info) {
+        nmemFree(info.address());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SpecializationConstants other && values.equals(other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "SpecializationConstants" + Arrays.toString(pack());
+    }
+}
@@ -6,6 +6,7 @@ import org.lwjgl.system.MemoryStack;
 import java.nio.IntBuffer;
 
 import static org.lwjgl.glfw.GLFW.glfwGetFramebufferSize;
+import static org.lwjgl.vulkan.KHRSurface.VK_PRESENT_MODE_FIFO_KHR;
 import static org.lwjgl.vulkan.KHRSurface.VK_PRESENT_MODE_IMMEDIATE_KHR;
 import static org.lwjgl.vulkan.KHRSurface.VK_PRESENT_MODE_MAILBOX_KHR;
 
@@ -20,6 +21,13 @@ public record GraphicsSettings(int buffering, Vector2i resolution, int presentmo
         }
     }
 
+    /**
+     * Settings for rendering without a window, FIFO never drops a frame that is read back
+     */
+    public static GraphicsSettings headless(int width, int height) {
+        return new GraphicsSettings(3, new Vector2i(width, height), VK_PRESENT_MODE_FIFO_KHR);
+    }
+
     public static GraphicsSettings simple(long window) {
         try (var stack = MemoryStack.stackPush()) {
             IntBuffer width = stack.callocInt(1);
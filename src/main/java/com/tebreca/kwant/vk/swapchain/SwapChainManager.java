@@ -6,6 +6,8 @@ import org.joml.Vector2i;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
+import javax.annotation.Nullable;
+
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 
@@ -25,6 +27,15 @@ public class SwapChainManager {
     private long[] imageHandles;
     private long[] imageViewHandles;
 
+    private final Vector2i extent = new Vector2i();
+    private int format;
+    private boolean readable;
+    private volatile int presentMode = VK_PRESENT_MODE_FIFO_KHR;
+
+    private GraphicsSettings settings;
+    private final Vector2i requestedExtent = new Vector2i();
+    private volatile boolean outOfDate = true;
+
 
     public SwapChainManager(VulkanManager vulkanManager, long surface, VkQueue presentQueue) {
         this.vulkanManager = vulkanManager;
@@ -34,16 +45,86 @@ public class SwapChainManager {
     }
 
     public void createSwapChain(GraphicsSettings settings) {
+        this.settings = settings;
+        resize(settings.resolution().x, settings.resolution().y);
+        if (!create(VK_NULL_HANDLE)) {
+            throw new IllegalStateException("Can't create a swapchain for a surface without area");
+        }
+        outOfDate = false;
+    }
+
+    /**
+     * Requests a new size for the swapchain images, the swapchain is recreated by the frame loop before its next frame
+     */
+    public synchronized void resize(int width, int height) {
+        requestedExtent.set(width, height);
+        outOfDate = true;
+    }
+
+    /**
+     * Marks the swapchain for recreation, for instance after VK_ERROR_OUT_OF_DATE_KHR
+     */
+    public void invalidate() {
+        outOfDate = true;
+    }
+
+    public boolean outOfDate() {
+        return outOfDate;
+    }
+
+    /**
+     * @return whether the window currently has no area to present to, a swapchain can't be created in that state
+     */
+    public synchronized boolean minimized() {
+        return requestedExtent.x == 0 || requestedExtent.y == 0;
+    }
+
+    /**
+     * Creates a new swapchain, handing the current one to the driver as oldSwapchain so it can reuse its resources.
+     * The old swapchain and its views are not destroyed here, as frames in flight may still use them.
+     *
+     * @return destroys the replaced swapchain and its image views, run once no frame in flight uses them anymore.
+     * Null if the surface has no area, in which case the current swapchain is kept and stays out of date.
+     */
+    @Nullable
+    public Runnable recreate() {
+        long oldSwapchain = swapchain;
+        long[] oldViews = imageViewHandles;
+        outOfDate = false;
+        if (!create(oldSwapchain)) {
+            outOfDate = true;
+            return null;
+        }
+        return () -> {
+            for (long handle : oldViews) {
+                vkDestroyImageView(device, handle, null);
+            }
+            vkDestroySwapchainKHR(device, oldSwapchain, null);
+        };
+    }
+
+    private boolean create(long oldSwapchain) {
         //TODO: more configurable
         try (var stack = MemoryStack.stackPush()) {
             VkSurfaceFormatKHR surfaceFormatKHR = selectSurfaceFormat(stack);
             VkSurfaceCapabilitiesKHR surfaceCapabilitiesKHR = VkSurfaceCapabilitiesKHR.calloc(stack);
             vkGetPhysicalDeviceSurfaceCapabilitiesKHR(device.getPhysicalDevice(), surface, surfaceCapabilitiesKHR);
-            Vector2i res = settings.resolution();
+            Vector2i res = new Vector2i();
+            synchronized (this) {
+                res.set(requestedExtent);
+            }
+            VkExtent2D current = surfaceCapabilitiesKHR.currentExtent();
+            if (current.width() != 0xFFFFFFFF) {
+                // The surface dictates the size, except on platforms where it is defined by the swapchain
+                res.set(current.width(), current.height());
+            }
             VkExtent2D min = surfaceCapabilitiesKHR.minImageExtent();
             VkExtent2D max = surfaceCapabilitiesKHR.maxImageExtent();
             int x = Math.clamp(res.x, min.width(), max.width());
             int y = Math.clamp(res.y, min.height(), max.height());
+            if (x == 0 || y == 0) {
+                return false;
+            }
             VkExtent2D extent2D = VkExtent2D.calloc(stack);
             extent2D.set(x, y);
             int maxImageCount = surfaceCapabilitiesKHR.maxImageCount();
@@ -56,18 +137,23 @@ public class SwapChainManager {
             createInfo.imageColorSpace(surfaceFormatKHR.colorSpace());
             createInfo.imageExtent(extent2D);
             createInfo.imageArrayLayers(1);
-            createInfo.imageUsage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT);
+            // Transfer source where possible, so frames can be read back
+            createInfo.imageUsage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | (surfaceCapabilitiesKHR.supportedUsageFlags() & VK_IMAGE_USAGE_TRANSFER_SRC_BIT));
             createInfo.minImageCount(imageCount);
             createInfo.imageSharingMode(VK_SHARING_MODE_EXCLUSIVE);
             createInfo.preTransform(surfaceCapabilitiesKHR.currentTransform());
             createInfo.compositeAlpha(VK_COMPOSITE_ALPHA_OPAQUE_BIT_KHR);
-            createInfo.presentMode(settings.presentmode());
+            presentMode = selectPresentMode(stack);
+            createInfo.presentMode(presentMode);
             createInfo.clipped(true);
-            createInfo.oldSwapchain(VK_NULL_HANDLE);
+            createInfo.oldSwapchain(oldSwapchain);
 
             LongBuffer handle = stack.callocLong(1);
             VulkanUtils.assertResult(vkCreateSwapchainKHR(device, createInfo, null, handle), "Failed to create swapchain!");
             this.swapchain = handle.get();
+            this.extent.set(x, y);
+            this.format = surfaceFormatKHR.format();
+            this.readable = (surfaceCapabilitiesKHR.supportedUsageFlags() & VK_IMAGE_USAGE_TRANSFER_SRC_BIT) != 0;
 
             IntBuffer size = stack.callocInt(1);
             vkGetSwapchainImagesKHR(device, swapchain, size, null);
@@ -94,12 +180,36 @@ public class SwapChainManager {
             images.flip().get(imageViewHandles);
 
         }
+        return true;
+    }
+
+    /**
+     * @return the requested present mode, or FIFO which every surface supports when it isn't available
+     */
+    private int selectPresentMode(MemoryStack stack) {
+        IntBuffer size = stack.callocInt(1);
+        vkGetPhysicalDeviceSurfacePresentModesKHR(device.getPhysicalDevice(), surface, size, null);
+        IntBuffer modes = stack.callocInt(size.get(0));
+        vkGetPhysicalDeviceSurfacePresentModesKHR(device.getPhysicalDevice(), surface, size, modes);
+        for (int i = 0; i < modes.capacity(); i++) {
+            if (modes.get(i) == settings.presentmode()) {
+                return settings.presentmode();
+            }
+        }
+        return VK_PRESENT_MODE_FIFO_KHR;
+    }
+
+    /**
+     * @return whether the swapchain images can be copied from, see {@link com.tebreca.kwant.vk.frame.FrameReadback}
+     */
+    public boolean readable() {
+        return readable;
     }
 
     private VkSurfaceFormatKHR selectSurfaceFormat(MemoryStack stack) {
         IntBuffer size = stack.callocInt(1);
         vkGetPhysicalDeviceSurfaceFormatsKHR(device.getPhysicalDevice(), surface, size, null);
-        VkSurfaceFormatKHR.Buffer buffer = VkSurfaceFormatKHR.calloc(size.get());
+        VkSurfaceFormatKHR.Buffer buffer = VkSurfaceFormatKHR.calloc(size.get(), stack);
         vkGetPhysicalDeviceSurfaceFormatsKHR(device.getPhysicalDevice(), surface, size.clear(), buffer);
 
         while (buffer.hasRemaining()) {
@@ -119,6 +229,55 @@ public class SwapChainManager {
         return presentQueue;
     }
 
+    public GraphicsSettings settings() {
+        return settings;
+    }
+
+    /**
+     * @return the present mode in use, which is FIFO when the requested one isn't supported
+     */
+    public int presentMode() {
+        return presentMode;
+    }
+
+    /**
+     * @return whether presenting never waits for vertical blank, so nothing but the CPU and GPU limit the frame rate
+     */
+    public boolean unthrottled() {
+        int mode = presentMode;
+        return mode == VK_PRESENT_MODE_IMMEDIATE_KHR || mode == VK_PRESENT_MODE_MAILBOX_KHR;
+    }
+
+    public long swapchain() {
+        return swapchain;
+    }
+
+    public int imageCount() {
+        return imageHandles.length;
+    }
+
+    public long image(int index) {
+        return imageHandles[index];
+    }
+
+    public long imageView(int index) {
+        return imageViewHandles[index];
+    }
+
+    /**
+     * @return size of the current swapchain images, do not modify
+     */
+    public Vector2i extent() {
+        return extent;
+    }
+
+    /**
+     * @return VkFormat of the current swapchain images
+     */
+    public int format() {
+        return format;
+    }
+
     public void destroyChain() {
         for (long handle : imageViewHandles) {
             vkDestroyImageView(device, handle, null);
@@ -0,0 +1,145 @@
+package com.tebreca.kwant.vk.sync;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+
+import java.nio.LongBuffer;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * A timeline semaphore signaled by submissions to a queue, every submission signaling the next value.
+ * <br><br>
+ * Submitting returns a Mono completing once the GPU has finished that submission, which makes it possible to chain
+ * CPU work after GPU work without waiting for the queue to idle. Queues are externally synchronized, submissions to a
+ * queue shared with another thread have to be serialized by the caller.
+ */
+@SuppressWarnings("unused")
+public class Timeline {
+
+    private final VkDevice device;
+    private final TimelineWaiter waiter;
+    private final long semaphore;
+    private long value = 0;
+
+    public Timeline(VkDevice device, TimelineWaiter waiter) {
+        this.device = device;
+        this.waiter = waiter;
+        this.semaphore = createSemaphore(device, 0);
+    }
+
+    static long createSemaphore(VkDevice device, long initialValue) {
+        try (var stack = MemoryStack.stackPush()) {
+            VkSemaphoreTypeCreateInfo type = VkSemaphoreTypeCreateInfo.calloc(stack).sType$Default()
+                    .semaphoreType(VK_SEMAPHORE_TYPE_TIMELINE)
+                    .initialValue(initialValue);
+            VkSemaphoreCreateInfo createInfo = VkSemaphoreCreateInfo.calloc(stack).sType$Default().pNext(type);
+            LongBuffer handle = stack.callocLong(1);
+            VulkanUtils.assertResult(vkCreateSemaphore(device, createInfo, null, handle), "Failed to create timeline semaphore!");
+            return handle.get(0);
+        }
+    }
+
+    /**
+     * @return completes with the signaled value once the GPU has executed the command buffer
+     */
+    public Mono<Long> submit(VkQueue queue, VkCommandBuffer commandBuffer) {
+        return submit(queue, commandBuffer, VK_NULL_HANDLE, 0, 0);
+    }
+
+    /**
+     * Submits a command buffer that waits on another semaphore first, for example a different timeline
+     *
+     * @param waitSemaphore semaphore to wait on, binary or timeline
+     * @param waitValue     value to wait for, ignored for binary semaphores
+     * @param waitStages    VkPipelineStageFlags2 that wait
+     * @return completes with the signaled value once the GPU has executed the command buffer
+     */
+    public Mono<Long> submit(VkQueue queue, VkCommandBuffer commandBuffer, long waitSemaphore, long waitValue, long waitStages) {
+        long signal;
+        synchronized (this) {
+            signal = ++value;
+            try (var stack = MemoryStack.stackPush()) {
+                VkCommandBufferSubmitInfo.Buffer commandBuffers = VkCommandBufferSubmitInfo.calloc(1, stack);
+                commandBuffers.get(0).sType$Default().commandBuffer(commandBuffer);
+                VkSemaphoreSubmitInfo.Buffer signals = VkSemaphoreSubmitInfo.calloc(1, stack);
+                signals.get(0).sType$Default()
+                        .semaphore(semaphore)
+                        .value(signal)
+                        .stageMask(VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+                VkSubmitInfo2.Buffer submit = VkSubmitInfo2.calloc(1, stack);
+                submit.get(0).sType$Default()
+                        .pCommandBufferInfos(commandBuffers)
+                        .pSignalSemaphoreInfos(signals);
+                if (waitSemaphore != VK_NULL_HANDLE) {
+                    VkSemaphoreSubmitInfo.Buffer waits = VkSemaphoreSubmitInfo.calloc(1, stack);
+                    waits.get(0).sType$Default()
+                            .semaphore(waitSemaphore)
+                            .value(waitValue)
+                            .stageMask(waitStages);
+                    submit.get(0).pWaitSemaphoreInfos(waits);
+                }
+                int result = vkQueueSubmit2(queue, submit, VK_NULL_HANDLE);
+                if (result != VK_SUCCESS) {
+                    value--;
+                    return Mono.error(VulkanUtils.failure(result, "Failed to submit to timeline!"));
+                }
+            }
+        }
+        return waiter.await(semaphore, signal);
+    }
+
+    /**
+     * Reserves the next value, for signaling this timeline from a submission made elsewhere
+     *
+     * @return the value that submission has to signal, before anything else is submitted to this timeline
+     */
+    public synchronized long next() {
+        return ++value;
+    }
+
+    /**
+     * @return completes once the GPU has reached the value
+     */
+    public Mono<Long> at(long value) {
+        return waiter.await(semaphore, value);
+    }
+
+    /**
+     * @return completes once everything submitted so far has finished
+     */
+    public Mono<Long> idle() {
+        return at(submitted());
+    }
+
+    /**
+     * @return the last value handed out
+     */
+    public synchronized long submitted() {
+        return value;
+    }
+
+    /**
+     * @return the value the GPU has reached, without waiting
+     */
+    public long completed() {
+        try (var stack = MemoryStack.stackPush()) {
+            LongBuffer counter = stack.callocLong(1);
+            VulkanUtils.assertResult(vkGetSemaphoreCounterValue(device, semaphore, counter), "Failed to read timeline semaphore!");
+            return counter.get(0);
+        }
+    }
+
+    /**
+     * @return the VkSemaphore, for waiting on this timeline in other submissions
+     */
+    public long semaphore() {
+        return semaphore;
+    }
+
+    public void destroy() {
+        vkDestroySemaphore(device, semaphore, null);
+    }
+}
@@ -0,0 +1,203 @@
+package com.tebreca.kwant.vk.sync;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.LongBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * One background thread completing Monos once timeline semaphores reach a value, however many are awaited.
+ * <br><br>
+ * The thread blocks in a single vkWaitSemaphores on the lowest awaited value of every semaphore, waking when any of
+ * them is reached. It also waits on a semaphore of its own, signaled from the host whenever something new is awaited,
+ * so it never polls. Monos complete on the waiter thread, use publishOn for anything that takes a while.
+ */
+@SuppressWarnings("unused")
+public class TimelineWaiter {
+
+    private final VkDevice device;
+    private final Thread thread;
+    private final long wake;
+    private long wakeValue = 0;
+    private volatile boolean running = true;
+    private Throwable failure;
+
+    private final Map<Long, PriorityQueue<Pending>> pending = new HashMap<>();
+    // Reached under the lock and completed after releasing it, so subscribers never run holding it
+    private final List<Pending> reached = new ArrayList<>();
+
+    private LongBuffer semaphores;
+    private LongBuffer values;
+    private final VkSemaphoreWaitInfo waitInfo;
+
+    public TimelineWaiter(VkDevice device) {
+        this.device = device;
+        this.wake = Timeline.createSemaphore(device, 0);
+        this.semaphores = MemoryUtil.memAllocLong(16);
+        this.values = MemoryUtil.memAllocLong(16);
+        this.waitInfo = VkSemaphoreWaitInfo.calloc().sType$Default()
+                .flags(VK_SEMAPHORE_WAIT_ANY_BIT);
+        this.thread = new Thread(this::run, "kwant-gpu-waiter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param semaphore timeline semaphore
+     * @param value     value to wait for
+     * @return completes with the value once the semaphore reaches it, right away if it already has
+     */
+    public Mono<Long> await(long semaphore, long value) {
+        Sinks.One<Long> sink = Sinks.one();
+        synchronized (this) {
+            if (failure != null) {
+                return Mono.error(new IllegalStateException("The GPU waiter failed", failure));
+            }
+            if (!running) {
+                return Mono.error(new IllegalStateException("The GPU waiter has been destroyed"));
+            }
+            pending.computeIfAbsent(semaphore, s -> new PriorityQueue<>()).add(new Pending(value, sink));
+            // Signaled under the lock, so the host signals stay in increasing order
+            signalWake();
+        }
+        return sink.asMono();
+    }
+
+    private void signalWake() {
+        try (var stack = MemoryStack.stackPush()) {
+            VkSemaphoreSignalInfo signalInfo = VkSemaphoreSignalInfo.calloc(stack).sType$Default()
+                    .semaphore(wake)
+                    .value(++wakeValue);
+            VulkanUtils.assertResult(vkSignalSemaphore(device, signalInfo), "Failed to signal waiter semaphore!");
+        }
+    }
+
+    private void run() {
+        long wakeSeen = 0;
+        try (var stack = MemoryStack.stackPush()) {
+            LongBuffer counter = stack.callocLong(1);
+            while (running) {
+                int count = collect(wakeSeen);
+                waitInfo.semaphoreCount(count).pSemaphores(semaphores).pValues(values);
+                VulkanUtils.assertResult(vkWaitSemaphores(device, waitInfo, -1L), "Failed to wait on timeline semaphores!");
+
+                VulkanUtils.assertResult(vkGetSemaphoreCounterValue(device, wake, counter), "Failed to read waiter semaphore!");
+                wakeSeen = counter.get(0);
+                complete(counter);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    /**
+     * Fails everything awaited once the thread can't wait anymore, as nothing would complete it otherwise
+     */
+    private void fail(Throwable t) {
+        // A complete that failed halfway took these out of the queues already, they did reach their value
+        reached.forEach(p -> p.sink().tryEmitValue(p.value()));
+        reached.clear();
+        List<Pending> failed = new ArrayList<>();
+        synchronized (this) {
+            failure = t;
+            running = false;
+            pending.values().forEach(failed::addAll);
+            pending.clear();
+        }
+        failed.forEach(p -> p.sink().tryEmitError(new IllegalStateException("The GPU waiter failed", t)));
+    }
+
+    /**
+     * Fills the native wait arrays with the lowest awaited value per semaphore, followed by the wake semaphore
+     *
+     * @return amount of semaphores to wait on
+     */
+    private synchronized int collect(long wakeSeen) {
+        if (semaphores.capacity() < pending.size() + 1) {
+            semaphores = MemoryUtil.memRealloc(semaphores, (pending.size() + 1) * 2);
+            values = MemoryUtil.memRealloc(values, (pending.size() + 1) * 2);
+        }
+        semaphores.clear();
+        values.clear();
+        for (Map.Entry<Long, PriorityQueue<Pending>> entry : pending.entrySet()) {
+            semaphores.put(entry.getKey());
+            values.put(entry.getValue().peek().value());
+        }
+        semaphores.put(wake).flip();
+        values.put(wakeSeen + 1).flip();
+        return semaphores.remaining();
+    }
+
+    private void complete(LongBuffer counter) {
+        synchronized (this) {
+            Iterator<Map.Entry<Long, PriorityQueue<Pending>>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, PriorityQueue<Pending>> entry = iterator.next();
+                VulkanUtils.assertResult(vkGetSemaphoreCounterValue(device, entry.getKey(), counter), "Failed to read timeline semaphore!");
+                long value = counter.get(0);
+                PriorityQueue<Pending> queue = entry.getValue();
+                while (!queue.isEmpty() && queue.peek().value() <= value) {
+                    reached.add(queue.poll());
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        for (int i = 0; i < reached.size(); i++) {
+            Pending done = reached.get(i);
+            done.sink().tryEmitValue(done.value());
+        }
+        reached.clear();
+    }
+
+    /**
+     * @return amount of semaphores currently awaited
+     */
+    public synchronized int waiting() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the waiter thread, completing what has been reached and failing whatever is still awaited. Semaphores awaited here must not be destroyed before this.
+     */
+    public void destroy() {
+        synchronized (this) {
+            running = false;
+            if (failure == null) {
+                signalWake();
+            }
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure == null) {
+            try (var stack = MemoryStack.stackPush()) {
+                complete(stack.callocLong(1));
+            }
+        }
+        pending.values().forEach(queue -> queue.forEach(p -> p.sink().tryEmitError(new IllegalStateException("The GPU waiter has been destroyed"))));
+        pending.clear();
+        vkDestroySemaphore(device, wake, null);
+        waitInfo.free();
+        MemoryUtil.memFree(semaphores);
+        MemoryUtil.memFree(values);
+    }
+
+    private record Pending(long value, Sinks.One<Long> sink) implements Comparable<Pending> {
+
+        @Override
+        public int compareTo(Pending other) {
+            return Long.compareUnsigned(value, other.value);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.tebreca.kwant.vk.transfer;
+
+/**
+ * Offset bookkeeping of the staging ring of {@link UploadService}. Ranges are allocated at the head and released at
+ * the tail, in the order they were allocated. Not thread safe.
+ */
+final class StagingRing {
+
+    static final long ALIGNMENT = 16;
+
+    private final long capacity;
+    private long head = 0;
+    private long tail = 0;
+    /**
+     * Sequence numbers of the last allocated and the last released range, the ring is empty when they are equal
+     */
+    private long allocated = 0;
+    private long released = 0;
+
+    StagingRing(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return offset of the allocated range, or -1 if the ring has no contiguous space left
+     */
+    long allocate(long size) {
+        size = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        if (empty()) {
+            head = tail = 0;
+        } else if (head == tail) {
+            return -1;
+        }
+        long offset;
+        if (head >= tail) {
+            if (capacity - head >= size) {
+                offset = head;
+            } else if (tail >= size) {
+                offset = 0;
+            } else {
+                return -1;
+            }
+        } else if (tail - head >= size) {
+            offset = head;
+        } else {
+            return -1;
+        }
+        head = offset + size;
+        allocated++;
+        return offset;
+    }
+
+    /**
+     * @return end of the last allocated range
+     */
+    long head() {
+        return head;
+    }
+
+    /**
+     * @return sequence number of the last allocated range, to be passed to {@link #release(long, long)}
+     */
+    long allocated() {
+        return allocated;
+    }
+
+    /**
+     * Frees every range up to and including the one with the given sequence number. Ranges released out of order,
+     * older than one released before, are ignored so the tail never moves backwards.
+     *
+     * @param end end of that range
+     */
+    void release(long end, long sequence) {
+        if (sequence <= released) {
+            return;
+        }
+        released = sequence;
+        tail = end;
+    }
+
+    boolean empty() {
+        return allocated == released;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,416 @@
+package com.tebreca.kwant.vk.transfer;
+
+import com.tebreca.kwant.vk.VulkanUtils;
+import com.tebreca.kwant.vk.frame.FrameLoop;
+import com.tebreca.kwant.vk.memory.GpuBuffer;
+import com.tebreca.kwant.vk.memory.GpuImage;
+import com.tebreca.kwant.vk.memory.MemoryAllocator;
+import com.tebreca.kwant.vk.memory.MemoryUsage;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Streams buffer and image data to the GPU through a persistently mapped staging ring, on the transfer queue.
+ * <br><br>
+ * Uploads can be requested from any thread, their data is copied into the ring right away. Once per frame all pending
+ * uploads are recorded into one command buffer and submitted to the transfer queue in a single submit, so they run
+ * alongside the graphics work. When the transfer queue is of another family, ownership is released on the transfer
+ * queue and acquired at the start of the first frame after the copies completed. The Mono of an upload completes at
+ * that point, during frame recording, so the resource may be used from that frame on.
+ */
+@SuppressWarnings("unused")
+public class UploadService {
+
+    private static final int BATCHES = 3;
+    private static final int BARRIER_CHUNK = 64;
+
+    private final VkDevice device;
+    private final MemoryAllocator allocator;
+    private final VkQueue queue;
+    private final int transferFamily;
+    private final int graphicsFamily;
+
+    private final GpuBuffer ring;
+    private final StagingRing ringOffsets;
+
+    private final ArrayDeque<Upload> pending = new ArrayDeque<>();
+    private final Batch[] batches = new Batch[BATCHES];
+    private int nextBatch = 0;
+
+    /**
+     * @param queue          queue the copies are submitted to
+     * @param transferFamily family of that queue
+     * @param graphicsFamily family of the queue that consumes the uploaded resources
+     * @param ringSize       size of the staging ring in bytes, bigger uploads get a staging buffer of their own
+     */
+    public UploadService(VkDevice device, MemoryAllocator allocator, VkQueue queue, int transferFamily, int graphicsFamily, long ringSize) {
+        this.device = device;
+        this.allocator = allocator;
+        this.queue = queue;
+        this.transferFamily = transferFamily;
+        this.graphicsFamily = graphicsFamily;
+        this.ring = allocator.buffer(ringSize, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, MemoryUsage.CPU_TO_GPU);
+        this.ringOffsets = new StagingRing(ringSize);
+        for (int i = 0; i < BATCHES; i++) {
+            batches[i] = new Batch();
+        }
+    }
+
+    /**
+     * Copies data into the given buffer, the data is read before this returns
+     *
+     * @param target buffer created with VK_BUFFER_USAGE_TRANSFER_DST_BIT
+     * @param offset offset in the target buffer
+     * @return the target, once the data can be used by the graphics queue
+     */
+    public Mono<GpuBuffer> upload(GpuBuffer target, long offset, ByteBuffer data) {
+        Sinks.One<GpuBuffer> sink = Sinks.one();
+        stage(new BufferUpload(target, offset, sink), data);
+        return sink.asMono();
+    }
+
+    /**
+     * Copies tightly packed texels into the first mip level of every layer of the given image, leaving it in
+     * VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL. The previous contents of the image are discarded.
+     *
+     * @param target image created with VK_IMAGE_USAGE_TRANSFER_DST_BIT
+     * @return the target, once it can be sampled by the graphics queue
+     */
+    public Mono<GpuImage> upload(GpuImage target, ByteBuffer data) {
+        Sinks.One<GpuImage> sink = Sinks.one();
+        stage(new ImageUpload(target, sink), data);
+        return sink.asMono();
+    }
+
+    private void stage(Upload upload, ByteBuffer data) {
+        long size = data.remaining();
+        upload.size = size;
+        synchronized (this) {
+            long offset = ringOffsets.allocate(size);
+            if (offset < 0) {
+                // Doesn't fit the ring right now, rather than waiting for space it gets its own staging buffer
+                upload.staging = allocator.buffer(size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, MemoryUsage.CPU_TO_GPU);
+                upload.stagingOffset = 0;
+                upload.ringEnd = -1;
+            } else {
+                upload.staging = ring;
+                upload.stagingOffset = offset;
+                upload.ringEnd = ringOffsets.head();
+                upload.ringSequence = ringOffsets.allocated();
+            }
+            MemoryUtil.memCopy(MemoryUtil.memAddress(data), MemoryUtil.memAddress(upload.staging.mapped()) + upload.stagingOffset, size);
+            upload.staging.flush(upload.stagingOffset, size);
+            pending.add(upload);
+        }
+    }
+
+    private synchronized void release(long ringEnd, long ringSequence) {
+        if (ringEnd >= 0) {
+            ringOffsets.release(ringEnd, ringSequence);
+        }
+    }
+
+    /**
+     * Hands completed uploads to the graphics queue and submits everything pending. Runs at the start of every frame.
+     *
+     * @param frameLoop        loop of the frame being recorded, its submission waits on completed uploads
+     * @param graphicsCommands command buffer of the frame being recorded
+     */
+    public void flush(FrameLoop frameLoop, VkCommandBuffer graphicsCommands) {
+        for (Batch batch : batches) {
+            // Their semaphore waits went out with the previous frame, so they can be signaled again
+            if (batch.state == State.ACQUIRED) {
+                batch.state = State.FREE;
+            }
+        }
+        // Oldest first, a batch completes only after every batch submitted before it so the ring is released in order
+        for (int i = 0; i < BATCHES; i++) {
+            Batch batch = batches[(nextBatch + i) % BATCHES];
+            if (batch.state != State.SUBMITTED) {
+                continue;
+            }
+            if (vkGetFenceStatus(device, batch.fence) != VK_SUCCESS) {
+                break;
+            }
+            complete(batch, frameLoop, graphicsCommands);
+        }
+        submit();
+    }
+
+    private void complete(Batch batch, FrameLoop frameLoop, VkCommandBuffer graphicsCommands) {
+        if (transferFamily != graphicsFamily) {
+            recordBarriers(graphicsCommands, batch.uploads, VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, VK_PIPELINE_STAGE_ALL_COMMANDS_BIT, Upload::acquire);
+        }
+        frameLoop.waitOn(batch.semaphore, VK_PIPELINE_STAGE_ALL_COMMANDS_BIT);
+        release(batch.ringEnd, batch.ringSequence);
+        for (Upload upload : batch.uploads) {
+            if (upload.staging != ring) {
+                allocator.destroy(upload.staging);
+            }
+            upload.complete();
+        }
+        batch.uploads.clear();
+        vkResetFences(device, batch.fence);
+        batch.state = State.ACQUIRED;
+    }
+
+    private void submit() {
+        Batch batch = batches[nextBatch];
+        if (batch.state != State.FREE) {
+            return;
+        }
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch.uploads.addAll(pending);
+            pending.clear();
+        }
+        batch.ringEnd = -1;
+        for (Upload upload : batch.uploads) {
+            if (upload.ringEnd >= 0) {
+                batch.ringEnd = upload.ringEnd;
+                batch.ringSequence = upload.ringSequence;
+            }
+        }
+
+        try (var stack = MemoryStack.stackPush()) {
+            VkCommandBuffer commandBuffer = batch.commandBuffer;
+            VulkanUtils.assertResult(vkResetCommandPool(device, batch.commandPool, 0), "Failed to reset upload command pool!");
+            VulkanUtils.assertResult(vkBeginCommandBuffer(commandBuffer, VkCommandBufferBeginInfo.calloc(stack).sType$Default().flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT)), "Failed to begin upload command buffer!");
+            recordBarriers(commandBuffer, batch.uploads, VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT, Upload::prepare);
+            for (Upload upload : batch.uploads) {
+                upload.record(commandBuffer, stack);
+            }
+            recordBarriers(commandBuffer, batch.uploads, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, Upload::release);
+            VulkanUtils.assertResult(vkEndCommandBuffer(commandBuffer), "Failed to end upload command buffer!");
+
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack).sType$Default()
+                    .pCommandBuffers(stack.pointers(commandBuffer))
+                    .pSignalSemaphores(stack.longs(batch.semaphore));
+            VulkanUtils.assertResult(vkQueueSubmit(queue, submitInfo, batch.fence), "Failed to submit uploads!");
+        }
+        batch.state = State.SUBMITTED;
+        nextBatch = (nextBatch + 1) % BATCHES;
+    }
+
+    private void recordBarriers(VkCommandBuffer commandBuffer, List<Upload> uploads, int srcStage, int dstStage, BarrierWriter writer) {
+        for (int start = 0; start < uploads.size(); start += BARRIER_CHUNK) {
+            try (var stack = MemoryStack.stackPush()) {
+                int end = Math.min(start + BARRIER_CHUNK, uploads.size());
+                VkBufferMemoryBarrier.Buffer bufferBarriers = VkBufferMemoryBarrier.calloc(end - start, stack);
+                VkImageMemoryBarrier.Buffer imageBarriers = VkImageMemoryBarrier.calloc(end - start, stack);
+                for (int i = start; i < end; i++) {
+                    writer.write(uploads.get(i), bufferBarriers, imageBarriers);
+                }
+                if (bufferBarriers.position() + imageBarriers.position() > 0) {
+                    vkCmdPipelineBarrier(commandBuffer, srcStage, dstStage, 0, null, bufferBarriers.flip(), imageBarriers.flip());
+                }
+            }
+        }
+    }
+
+    public void destroy() {
+        for (Batch batch : batches) {
+            batch.destroy();
+        }
+        pending.forEach(upload -> {
+            if (upload.staging != ring) {
+                allocator.destroy(upload.staging);
+            }
+        });
+        allocator.destroy(ring);
+    }
+
+    @FunctionalInterface
+    private interface BarrierWriter {
+        void write(Upload upload, VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers);
+    }
+
+    private enum State {
+        FREE, SUBMITTED, ACQUIRED
+    }
+
+    private final class Batch {
+        private final long commandPool;
+        private final VkCommandBuffer commandBuffer;
+        private final long fence;
+        private final long semaphore;
+        private final List<Upload> uploads = new ArrayList<>();
+        private long ringEnd = -1;
+        private long ringSequence;
+        private State state = State.FREE;
+
+        private Batch() {
+            try (var stack = MemoryStack.stackPush()) {
+                var handle = stack.callocLong(1);
+                VkCommandPoolCreateInfo poolCreateInfo = VkCommandPoolCreateInfo.calloc(stack).sType$Default()
+                        .flags(VK_COMMAND_POOL_CREATE_TRANSIENT_BIT)
+                        .queueFamilyIndex(transferFamily);
+                VulkanUtils.assertResult(vkCreateCommandPool(device, poolCreateInfo, null, handle), "Failed to create upload command pool!");
+                commandPool = handle.get(0);
+                VulkanUtils.assertResult(vkCreateFence(device, VkFenceCreateInfo.calloc(stack).sType$Default(), null, handle), "Failed to create upload fence!");
+                fence = handle.get(0);
+                VulkanUtils.assertResult(vkCreateSemaphore(device, VkSemaphoreCreateInfo.calloc(stack).sType$Default(), null, handle), "Failed to create upload semaphore!");
+                semaphore = handle.get(0);
+                VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack).sType$Default()
+                        .commandPool(commandPool)
+                        .level(VK_COMMAND_BUFFER_LEVEL_PRIMARY)
+                        .commandBufferCount(1);
+                var pointer = stack.callocPointer(1);
+                VulkanUtils.assertResult(vkAllocateCommandBuffers(device, allocateInfo, pointer), "Failed to allocate upload command buffer!");
+                commandBuffer = new VkCommandBuffer(pointer.get(0), device);
+            }
+        }
+
+        private void destroy() {
+            vkDestroySemaphore(device, semaphore, null);
+            vkDestroyFence(device, fence, null);
+            vkDestroyCommandPool(device, commandPool, null);
+        }
+    }
+
+    private abstract class Upload {
+        GpuBuffer staging;
+        long stagingOffset;
+        long size;
+        long ringEnd;
+        long ringSequence;
+
+        /**
+         * Barriers before the copy, on the transfer queue
+         */
+        void prepare(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers) {
+        }
+
+        abstract void record(VkCommandBuffer commandBuffer, MemoryStack stack);
+
+        /**
+         * Barriers after the copy on the transfer queue, releasing ownership when the families differ
+         */
+        abstract void release(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers);
+
+        /**
+         * Barriers on the graphics queue acquiring ownership, only used when the families differ
+         */
+        abstract void acquire(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers);
+
+        abstract void complete();
+
+        int srcFamily() {
+            return transferFamily == graphicsFamily ? VK_QUEUE_FAMILY_IGNORED : transferFamily;
+        }
+
+        int dstFamily() {
+            return transferFamily == graphicsFamily ? VK_QUEUE_FAMILY_IGNORED : graphicsFamily;
+        }
+    }
+
+    private final class BufferUpload extends Upload {
+        private final GpuBuffer target;
+        private final long offset;
+        private final Sinks.One<GpuBuffer> sink;
+
+        private BufferUpload(GpuBuffer target, long offset, Sinks.One<GpuBuffer> sink) {
+            this.target = target;
+            this.offset = offset;
+            this.sink = sink;
+        }
+
+        @Override
+        void record(VkCommandBuffer commandBuffer, MemoryStack stack) {
+            VkBufferCopy.Buffer region = VkBufferCopy.calloc(1, stack).srcOffset(stagingOffset).dstOffset(offset).size(size);
+            vkCmdCopyBuffer(commandBuffer, staging.handle(), target.handle(), region);
+        }
+
+        @Override
+        void release(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers) {
+            if (transferFamily != graphicsFamily) {
+                barrier(bufferBarriers.get()).srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT);
+            }
+        }
+
+        @Override
+        void acquire(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers) {
+            barrier(bufferBarriers.get()).dstAccessMask(VK_ACCESS_MEMORY_READ_BIT);
+        }
+
+        private VkBufferMemoryBarrier barrier(VkBufferMemoryBarrier barrier) {
+            return barrier.sType$Default()
+                    .srcQueueFamilyIndex(srcFamily())
+                    .dstQueueFamilyIndex(dstFamily())
+                    .buffer(target.handle())
+                    .offset(offset)
+                    .size(size);
+        }
+
+        @Override
+        void complete() {
+            sink.tryEmitValue(target);
+        }
+    }
+
+    private final class ImageUpload extends Upload {
+        private final GpuImage target;
+        private final Sinks.One<GpuImage> sink;
+
+        private ImageUpload(GpuImage target, Sinks.One<GpuImage> sink) {
+            this.target = target;
+            this.sink = sink;
+        }
+
+        @Override
+        void prepare(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers) {
+            barrier(imageBarriers.get())
+                    .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                    .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                    .oldLayout(VK_IMAGE_LAYOUT_UNDEFINED)
+                    .newLayout(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+                    .dstAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT);
+        }
+
+        @Override
+        void record(VkCommandBuffer commandBuffer, MemoryStack stack) {
+            VkBufferImageCopy.Buffer region = VkBufferImageCopy.calloc(1, stack).bufferOffset(stagingOffset);
+            region.imageSubresource().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, 0, target.arrayLayers());
+            region.imageExtent().set(target.width(), target.height(), 1);
+            vkCmdCopyBufferToImage(commandBuffer, staging.handle(), target.handle(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, region);
+        }
+
+        @Override
+        void release(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers) {
+            barrier(imageBarriers.get()).srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT);
+        }
+
+        @Override
+        void acquire(VkBufferMemoryBarrier.Buffer bufferBarriers, VkImageMemoryBarrier.Buffer imageBarriers) {
+            barrier(imageBarriers.get()).dstAccessMask(VK_ACCESS_SHADER_READ_BIT);
+        }
+
+        private VkImageMemoryBarrier barrier(VkImageMemoryBarrier barrier) {
+            barrier.sType$Default()
+                    .srcQueueFamilyIndex(srcFamily())
+                    .dstQueueFamilyIndex(dstFamily())
+                    .oldLayout(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
+                    .newLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                    .image(target.handle());
+            barrier.subresourceRange().set(VK_IMAGE_ASPECT_COLOR_BIT, 0, target.mipLevels(), 0, target.arrayLayers());
+            return barrier;
+        }
+
+        @Override
+        void complete() {
+            sink.tryEmitValue(target);
+        }
+    }
+}
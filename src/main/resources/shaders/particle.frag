@@ -0,0 +1,13 @@
+#version 450
+// Reference fragment shader for ParticleSystem, compile with: glslc particle.frag -o particle.frag.spv
+
+layout(location = 0) in vec2 inLocal;
+layout(location = 1) in vec4 inColor;
+
+layout(location = 0) out vec4 outColor;
+
+void main() {
+    // Round soft particles, fading out towards the edge of the quad
+    float falloff = clamp(1.0 - dot(inLocal, inLocal), 0.0, 1.0);
+    outColor = vec4(inColor.rgb, inColor.a * falloff);
+}
@@ -0,0 +1,49 @@
+// Shared declarations of the ParticleSystem compute shaders, included by particle_simulate.comp and particle_emit.comp
+
+// Matches ParticleSystem.STRIDE, the instance layout the vertex shader reads
+struct Particle {
+    vec2 position;
+    vec2 velocity;
+    float life;
+    float size;
+    uint color;
+    float lifetime;
+};
+
+// Matches ParticleSystem.EMITTER_STRIDE
+struct Emitter {
+    vec2 position;
+    float direction;
+    float spread;
+    float speed;
+    float lifetime;
+    float size;
+    uint color;
+    uint first;
+    uint count;
+};
+
+// VkDrawIndirectCommand, instanceCount is the amount of live particles
+struct Draw {
+    uint vertexCount;
+    uint instanceCount;
+    uint firstVertex;
+    uint firstInstance;
+};
+
+layout(std430, set = 0, binding = 0) readonly buffer PreviousParticles { Particle previous[]; };
+layout(std430, set = 0, binding = 1) readonly buffer PreviousDraw { Draw previousDraw; };
+layout(std430, set = 0, binding = 2) writeonly buffer Particles { Particle particles[]; };
+layout(std430, set = 0, binding = 3) buffer CurrentDraw { Draw draw; };
+layout(std430, set = 0, binding = 4) readonly buffer Emitters { Emitter emitters[]; };
+
+// Matches ParticleSystem.SETTINGS_SIZE
+layout(push_constant) uniform Settings {
+    vec2 gravity;
+    float delta;
+    float drag;
+    uint capacity;
+    uint emitterCount;
+    uint spawnCount;
+    uint seed;
+} settings;
@@ -0,0 +1,25 @@
+#version 450
+// Reference vertex shader for ParticleSystem, compile with: glslc particle.vert -o particle.vert.spv
+
+layout(location = 0) in vec2 inPosition;
+layout(location = 1) in float inLife;
+layout(location = 2) in float inSize;
+layout(location = 3) in vec4 inColor;
+layout(location = 4) in float inLifetime;
+
+layout(push_constant) uniform View {
+    vec2 scale;
+    vec2 camera;
+} view;
+
+layout(location = 0) out vec2 outLocal;
+layout(location = 1) out vec4 outColor;
+
+void main() {
+    // Triangle strip over the corners (0, 0), (1, 0), (0, 1), (1, 1)
+    vec2 corner = vec2(gl_VertexIndex & 1, gl_VertexIndex >> 1);
+    vec2 world = inPosition + (corner - 0.5) * inSize;
+    gl_Position = vec4((world - view.camera) * view.scale - 1.0, 0.0, 1.0);
+    outLocal = corner * 2.0 - 1.0;
+    outColor = vec4(inColor.rgb, inColor.a * clamp(inLife / inLifetime, 0.0, 1.0));
+}
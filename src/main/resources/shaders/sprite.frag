@@ -0,0 +1,15 @@
+#version 450
+#extension GL_EXT_nonuniform_qualifier : require
+// Reference fragment shader for SpriteBatch, compile with: glslc sprite.frag -o sprite.frag.spv
+
+layout(set = 0, binding = 0) uniform sampler2D textures[];
+
+layout(location = 0) in vec2 inUv;
+layout(location = 1) in vec4 inTint;
+layout(location = 2) flat in uint inTexture;
+
+layout(location = 0) out vec4 outColor;
+
+void main() {
+    outColor = texture(textures[nonuniformEXT(inTexture)], inUv) * inTint;
+}
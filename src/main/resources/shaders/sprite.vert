@@ -0,0 +1,31 @@
+#version 450
+// Reference vertex shader for SpriteBatch, compile with: glslc sprite.vert -o sprite.vert.spv
+
+layout(location = 0) in vec2 inPosition;
+layout(location = 1) in vec2 inSize;
+layout(location = 2) in float inRotation;
+layout(location = 3) in uint inTexture;
+layout(location = 4) in vec4 inUv;
+layout(location = 5) in vec4 inTint;
+
+layout(push_constant) uniform View {
+    vec2 scale;
+    vec2 camera;
+} view;
+
+layout(location = 0) out vec2 outUv;
+layout(location = 1) out vec4 outTint;
+layout(location = 2) flat out uint outTexture;
+
+void main() {
+    // Triangle strip over the corners (0, 0), (1, 0), (0, 1), (1, 1)
+    vec2 corner = vec2(gl_VertexIndex & 1, gl_VertexIndex >> 1);
+    vec2 local = (corner - 0.5) * inSize;
+    float s = sin(inRotation);
+    float c = cos(inRotation);
+    vec2 world = inPosition + vec2(c * local.x - s * local.y, s * local.x + c * local.y);
+    gl_Position = vec4((world - view.camera) * view.scale - 1.0, 0.0, 1.0);
+    outUv = mix(inUv.xy, inUv.zw, corner);
+    outTint = inTint;
+    outTexture = inTexture;
+}
@@ -0,0 +1,72 @@
+package com.tebreca.kwant.general;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks catching up, dropping time and the interpolation alpha of the fixed timestep
+ */
+public class TestFixedTimestep {
+
+    public static void main(String[] args) throws InterruptedException {
+        rejectsInvalidRates();
+        catchesUpInOrder();
+        dropsTimeBeyondMaxTicks();
+        alphaStaysInRange();
+        System.out.println("TestFixedTimestep passed");
+    }
+
+    private static void rejectsInvalidRates() {
+        for (double rate : new double[]{0, -60, 2e9, Double.NaN}) {
+            try {
+                new FixedTimestep(rate, 4, (tick, delta) -> {});
+                throw new AssertionError("accepted a tick rate of " + rate);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    private static void catchesUpInOrder() throws InterruptedException {
+        List<Long> ticks = new ArrayList<>();
+        FixedTimestep timestep = new FixedTimestep(1000, 1000, (tick, delta) -> {
+            check(delta == 0.001, "every tick simulates one step");
+            ticks.add(tick);
+        });
+        check(timestep.advance() == 0, "the first advance only starts the clock");
+        Thread.sleep(20);
+        int ran = timestep.advance();
+        check(ran >= 20, "ran a tick for every elapsed millisecond, ran " + ran);
+        check(ticks.size() == ran && timestep.ticks() == ran, "counted every tick");
+        for (int i = 0; i < ticks.size(); i++) {
+            check(ticks.get(i) == i, "ticks are numbered in order");
+        }
+    }
+
+    private static void dropsTimeBeyondMaxTicks() throws InterruptedException {
+        FixedTimestep timestep = new FixedTimestep(1000, 5, (tick, delta) -> {});
+        timestep.advance();
+        Thread.sleep(50);
+        check(timestep.advance() == 5, "runs at most maxTicks per advance");
+        check(timestep.advance() <= 1, "the time beyond maxTicks was dropped instead of caught up later");
+    }
+
+    private static void alphaStaysInRange() throws InterruptedException {
+        FixedTimestep timestep = new FixedTimestep(100, 4, (tick, delta) -> {});
+        check(timestep.alpha() == 1, "alpha is 1 before the first advance");
+        timestep.advance();
+        for (int i = 0; i < 20; i++) {
+            double alpha = timestep.alpha();
+            check(alpha >= 0 && alpha <= 1, "alpha stays between 0 and 1, was " + alpha);
+            check(timestep.nextTickNanos() - System.nanoTime() <= 10_000_000, "next tick is at most one step away");
+            Thread.sleep(3);
+            timestep.advance();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
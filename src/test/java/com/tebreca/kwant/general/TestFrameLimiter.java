@@ -0,0 +1,53 @@
+package com.tebreca.kwant.general;
+
+/**
+ * Checks that the frame limiter paces to its rate without drifting and without waiting on late frames
+ */
+public class TestFrameLimiter {
+
+    public static void main(String[] args) throws InterruptedException {
+        rejectsInvalidRates();
+        pacesToRate();
+        doesNotWaitWhenLate();
+        System.out.println("TestFrameLimiter passed");
+    }
+
+    private static void rejectsInvalidRates() {
+        for (double rate : new double[]{0, -1, 2e9, Double.NaN}) {
+            try {
+                new FrameLimiter(rate);
+                throw new AssertionError("accepted a frame limit of " + rate);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    private static void pacesToRate() {
+        FrameLimiter limiter = new FrameLimiter(200);
+        limiter.await();
+        long start = System.nanoTime();
+        for (int i = 0; i < 40; i++) {
+            limiter.await();
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        // 40 frames of 5 ms, the deadlines don't drift so it stays close even on a busy machine
+        check(millis >= 199, "waited at least 40 intervals, took " + millis + " ms");
+        check(millis < 300, "didn't drift far past 40 intervals, took " + millis + " ms");
+    }
+
+    private static void doesNotWaitWhenLate() throws InterruptedException {
+        FrameLimiter limiter = new FrameLimiter(100);
+        limiter.await();
+        Thread.sleep(30);
+        long start = System.nanoTime();
+        limiter.await();
+        check(System.nanoTime() - start < 2_000_000, "a late frame returns right away");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
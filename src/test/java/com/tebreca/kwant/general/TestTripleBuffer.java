@@ -0,0 +1,66 @@
+package com.tebreca.kwant.general;
+
+/**
+ * Checks the handoff order of the triple buffer, and that a concurrent reader never sees a snapshot being written
+ */
+public class TestTripleBuffer {
+
+    public static void main(String[] args) throws InterruptedException {
+        readsLatest();
+        neverTears();
+        System.out.println("TestTripleBuffer passed");
+    }
+
+    private static void readsLatest() {
+        TripleBuffer<long[]> buffer = new TripleBuffer<>(() -> new long[1]);
+        check(!buffer.fresh(), "nothing is fresh before publishing");
+        check(buffer.read()[0] == 0, "reads an empty snapshot before publishing");
+
+        buffer.write()[0] = 1;
+        buffer.publish();
+        check(buffer.fresh(), "a published snapshot is fresh");
+        check(buffer.read()[0] == 1, "reads the published snapshot");
+        check(!buffer.fresh(), "not fresh after reading it");
+        check(buffer.read()[0] == 1, "keeps reading the last snapshot when nothing was published");
+
+        buffer.write()[0] = 2;
+        buffer.publish();
+        buffer.write()[0] = 3;
+        buffer.publish();
+        check(buffer.read()[0] == 3, "skips to the newest snapshot");
+
+        long[] reading = buffer.read();
+        check(buffer.write() != reading, "the producer never writes the snapshot being read");
+    }
+
+    private static void neverTears() throws InterruptedException {
+        int count = 1_000_000;
+        TripleBuffer<long[]> buffer = new TripleBuffer<>(() -> new long[8]);
+        Thread producer = new Thread(() -> {
+            for (long i = 1; i <= count; i++) {
+                long[] snapshot = buffer.write();
+                for (int j = 0; j < snapshot.length; j++) {
+                    snapshot[j] = i;
+                }
+                buffer.publish();
+            }
+        });
+        producer.start();
+        long last = 0;
+        while (last < count) {
+            long[] snapshot = buffer.read();
+            for (long value : snapshot) {
+                check(value == snapshot[0], "read a snapshot while it was written");
+            }
+            check(snapshot[0] >= last, "snapshots arrive in order");
+            last = snapshot[0];
+        }
+        producer.join();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.tebreca.kwant.glfw.input;
+
+/**
+ * Checks the input event ring without a window, events are pushed the way the GLFW callbacks push them
+ */
+public class TestInputEvents {
+
+    public static void main(String[] args) throws InterruptedException {
+        roundTrips();
+        drainsInBatches();
+        dropsWhenFull();
+        handsOverBetweenThreads();
+        System.out.println("TestInputEvents passed");
+    }
+
+    private static void roundTrips() {
+        InputEvents events = new InputEvents(4);
+        long before = System.nanoTime();
+        events.push(InputEvents.KEY, -1, 2, 0x3F, 38, 0);
+        events.push(InputEvents.CURSOR, 0, 0, 0, 12.5, -3.25);
+        long after = System.nanoTime();
+
+        int[] seen = {0};
+        events.drain((type, code, action, mods, x, y, time) -> {
+            if (seen[0]++ == 0) {
+                check(type == InputEvents.KEY && code == -1 && action == 2 && mods == 0x3F && x == 38, "key event fields survive packing");
+            } else {
+                check(type == InputEvents.CURSOR && x == 12.5 && y == -3.25, "cursor position survives packing");
+            }
+            check(time >= before && time <= after, "events are timestamped when pushed");
+        });
+        check(seen[0] == 2, "drained both events");
+        check(events.pending() == 0, "nothing left after draining");
+    }
+
+    private static void drainsInBatches() {
+        InputEvents events = new InputEvents(16);
+        for (int i = 0; i < 10; i++) {
+            events.push(InputEvents.CHAR, i, 0, 0, 0, 0);
+        }
+        int[] next = {0};
+        InputHandler handler = (type, code, action, mods, x, y, time) -> check(code == next[0]++, "events arrive in order");
+        check(events.drain(handler, 4) == 4, "drains at most max events");
+        check(events.pending() == 6, "the rest stays pending");
+        check(events.drain(handler) == 6, "drains the rest");
+    }
+
+    private static void dropsWhenFull() {
+        InputEvents events = new InputEvents(5);
+        check(events.capacity() == 8, "capacity rounds up to a power of two");
+        for (int i = 0; i < 10; i++) {
+            events.push(InputEvents.CHAR, i, 0, 0, 0, 0);
+        }
+        check(events.dropped() == 2, "events beyond the capacity are dropped");
+        int[] next = {0};
+        events.drain((type, code, action, mods, x, y, time) -> check(code == next[0]++, "the oldest events are kept"));
+        check(next[0] == 8, "every kept event is drained");
+        events.push(InputEvents.CHAR, 42, 0, 0, 0, 0);
+        check(events.pending() == 1, "draining frees the slots again");
+    }
+
+    private static void handsOverBetweenThreads() throws InterruptedException {
+        int count = 1_000_000;
+        InputEvents events = new InputEvents(256);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (events.pending() == events.capacity()) {
+                    Thread.onSpinWait();
+                }
+                events.push(InputEvents.SCROLL, i, 0, 0, i, -i);
+            }
+        });
+        producer.start();
+        int[] next = {0};
+        InputHandler handler = (type, code, action, mods, x, y, time) -> {
+            check(code == next[0] && x == code && y == -code, "events arrive whole and in order");
+            next[0]++;
+        };
+        while (next[0] < count) {
+            events.drain(handler);
+        }
+        producer.join();
+        check(events.dropped() == 0, "nothing was dropped");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
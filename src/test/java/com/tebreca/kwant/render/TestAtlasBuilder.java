@@ -0,0 +1,121 @@
+package com.tebreca.kwant.render;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks how the atlas builder lays out images and their borders, no device needed. Packing runs stb_rect_pack, so
+ * this does need the LWJGL natives for the platform.
+ */
+public class TestAtlasBuilder {
+
+    public static void main(String[] args) {
+        fillsOnePage();
+        overflowsToNextPage();
+        neverOverlaps();
+        rejectsOversizedImages();
+        repeatsEdgesIntoBorder();
+        System.out.println("TestAtlasBuilder passed");
+    }
+
+    private static AtlasBuilder builder(int pageSize, int padding) {
+        // Laying out never touches the device
+        return new AtlasBuilder(null).pageSize(pageSize).padding(padding);
+    }
+
+    private static List<AtlasBuilder.Decoded> images(int count, int width, int height) {
+        List<AtlasBuilder.Decoded> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            images.add(new AtlasBuilder.Decoded("image" + i, null, width, height));
+        }
+        return images;
+    }
+
+    private static void fillsOnePage() {
+        List<AtlasBuilder.Decoded> images = images(4, 30, 30);
+        int[] page = new int[4], x = new int[4], y = new int[4];
+        check(builder(64, 1).place(images, page, x, y) == 1, "four 32x32 padded images fill one 64x64 page");
+        for (int i = 0; i < 4; i++) {
+            check(x[i] >= 1 && y[i] >= 1, "images start past their border");
+        }
+    }
+
+    private static void overflowsToNextPage() {
+        List<AtlasBuilder.Decoded> images = images(5, 30, 30);
+        int[] page = new int[5], x = new int[5], y = new int[5];
+        check(builder(64, 1).place(images, page, x, y) == 2, "a fifth image moves on to a second page");
+        int onSecond = 0;
+        for (int p : page) {
+            onSecond += p == 1 ? 1 : 0;
+        }
+        check(onSecond == 1, "only the image that didn't fit is on the second page");
+    }
+
+    private static void neverOverlaps() {
+        List<AtlasBuilder.Decoded> images = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            images.add(new AtlasBuilder.Decoded("image" + i, null, 5 + (i * 7) % 40, 5 + (i * 13) % 40));
+        }
+        int padding = 2;
+        int pageSize = 128;
+        int count = images.size();
+        int[] page = new int[count], x = new int[count], y = new int[count];
+        builder(pageSize, padding).place(images, page, x, y);
+        for (int i = 0; i < count; i++) {
+            AtlasBuilder.Decoded a = images.get(i);
+            check(x[i] - padding >= 0 && y[i] - padding >= 0
+                    && x[i] + a.width() + padding <= pageSize && y[i] + a.height() + padding <= pageSize, "image %d and its border stay on its page".formatted(i));
+            for (int j = i + 1; j < count; j++) {
+                AtlasBuilder.Decoded b = images.get(j);
+                boolean apart = page[i] != page[j]
+                        || x[i] + a.width() + padding <= x[j] - padding || x[j] + b.width() + padding <= x[i] - padding
+                        || y[i] + a.height() + padding <= y[j] - padding || y[j] + b.height() + padding <= y[i] - padding;
+                check(apart, "images %d and %d don't overlap, borders included".formatted(i, j));
+            }
+        }
+    }
+
+    private static void rejectsOversizedImages() {
+        int[] page = new int[1], x = new int[1], y = new int[1];
+        try {
+            builder(64, 2).place(images(1, 62, 10), page, x, y);
+            check(false, "an image that only fits without its border is rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void repeatsEdgesIntoBorder() {
+        int pageSize = 8;
+        // 2x2 image, every pixel its own value
+        ByteBuffer source = MemoryUtil.memAlloc(2 * 2 * 4);
+        ByteBuffer pixels = MemoryUtil.memCalloc(pageSize * pageSize * 4);
+        try {
+            source.putInt(0, 1).putInt(4, 2).putInt(8, 3).putInt(12, 4);
+            builder(pageSize, 1).blit(new AtlasBuilder.Decoded("image", source, 2, 2), pixels, 0, 1, 1);
+            int[][] expected = {
+                    {1, 1, 2, 2},
+                    {1, 1, 2, 2},
+                    {3, 3, 4, 4},
+                    {3, 3, 4, 4},
+            };
+            for (int row = 0; row < 4; row++) {
+                for (int column = 0; column < 4; column++) {
+                    check(pixels.getInt((row * pageSize + column) * 4) == expected[row][column], "pixel %d,%d repeats the nearest edge".formatted(column, row));
+                }
+            }
+            check(pixels.getInt(4 * 4) == 0 && pixels.getInt(4 * pageSize * 4) == 0, "nothing is written past the border");
+        } finally {
+            MemoryUtil.memFree(source);
+            MemoryUtil.memFree(pixels);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.tebreca.kwant.vk.pipeline;
+
+import com.tebreca.kwant.vk.shader.Shader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.vulkan.VK13.*;
+
+/**
+ * Checks that pipeline states compare and hash by their contents, no device needed. The states are native memory, so
+ * this does need the LWJGL natives for the platform.
+ */
+public class TestPipelineState {
+
+    private static final List<PipelineState> states = new ArrayList<>();
+
+    public static void main(String[] args) {
+        try {
+            equalWhenFrozenTheSame();
+            variantsDiffer();
+            variantsRoundTrip();
+            usableAsKeys();
+            checksStageIndex();
+        } finally {
+            states.forEach(PipelineState::free);
+        }
+        System.out.println("TestPipelineState passed");
+    }
+
+    private static PipelineState freeze(String entryPoint) {
+        List<Shader> shaders = List.of(new Shader(1, VK_SHADER_STAGE_VERTEX_BIT, entryPoint, null, 0),
+                new Shader(2, VK_SHADER_STAGE_FRAGMENT_BIT, entryPoint, null, 0));
+        return track(PipelineState.freeze(0, 3, shaders, 0, new int[]{0, 16, VK_VERTEX_INPUT_RATE_VERTEX},
+                new int[]{0, 0, 0, VK_FORMAT_R32G32_SFLOAT, 0, 1, 8, VK_FORMAT_R32G32_SFLOAT},
+                0, VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST, false, 0, VK_CULL_MODE_NONE, true,
+                new int[]{VK_FORMAT_B8G8R8A8_SRGB}));
+    }
+
+    private static PipelineState track(PipelineState state) {
+        states.add(state);
+        return state;
+    }
+
+    private static void equalWhenFrozenTheSame() {
+        PipelineState first = freeze("main");
+        PipelineState second = freeze("main");
+        check(first.equals(second), "states frozen from the same builder settings are equal");
+        check(first.hashCode() == second.hashCode(), "equal states hash the same");
+        check(first.compareTo(second) == 0, "equal states compare as 0");
+
+        PipelineState duplicate = track(first.duplicate());
+        check(first.equals(duplicate) && first.hashCode() == duplicate.hashCode(), "a duplicate is equal");
+        check(!first.equals(freeze("other")), "states with another entry point differ");
+    }
+
+    private static void variantsDiffer() {
+        PipelineState base = freeze("main");
+        List<PipelineState> variants = List.of(
+                track(base.withTopology(VK_PRIMITIVE_TOPOLOGY_LINE_LIST)),
+                track(base.withCullMode(VK_CULL_MODE_BACK_BIT)),
+                track(base.withAlphaBlending(false)),
+                track(base.withShaderModule(1, 4)),
+                track(base.withLayout(5)),
+                track(base.withColorFormat(0, VK_FORMAT_R8G8B8A8_UNORM)));
+        for (int i = 0; i < variants.size(); i++) {
+            PipelineState variant = variants.get(i);
+            check(!base.equals(variant), "variant %d differs from its base".formatted(i));
+            check(base.compareTo(variant) != 0, "variant %d does not compare as equal".formatted(i));
+            check(Integer.signum(base.compareTo(variant)) == -Integer.signum(variant.compareTo(base)),
+                    "variant %d compares consistently".formatted(i));
+            for (int j = i + 1; j < variants.size(); j++) {
+                check(!variant.equals(variants.get(j)), "variants %d and %d differ".formatted(i, j));
+            }
+        }
+    }
+
+    private static void variantsRoundTrip() {
+        PipelineState base = freeze("main");
+        PipelineState lines = track(base.withTopology(VK_PRIMITIVE_TOPOLOGY_LINE_LIST));
+        check(base.equals(track(lines.withTopology(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST))), "changing the topology back gives an equal state");
+        PipelineState opaque = track(base.withAlphaBlending(false));
+        check(base.equals(track(opaque.withAlphaBlending(true))), "turning blending back on gives an equal state");
+        check(base.equals(track(base.withCullMode(VK_CULL_MODE_NONE))), "setting the same cull mode gives an equal state");
+    }
+
+    private static void usableAsKeys() {
+        PipelineState base = freeze("main");
+        PipelineState lines = track(base.withTopology(VK_PRIMITIVE_TOPOLOGY_LINE_LIST));
+        Map<PipelineState, String> variants = new HashMap<>();
+        variants.put(base, "triangles");
+        variants.put(lines, "lines");
+        check("triangles".equals(variants.get(freeze("main"))), "an equal state finds the base");
+        check("lines".equals(variants.get(track(base.withTopology(VK_PRIMITIVE_TOPOLOGY_LINE_LIST)))), "an equal variant finds the variant");
+
+        TreeMap<PipelineState, String> sorted = new TreeMap<>(variants);
+        check(sorted.size() == 2, "sorting keeps distinct states apart");
+        check("lines".equals(sorted.get(track(lines.duplicate()))), "a sorted map finds an equal state");
+    }
+
+    private static void checksStageIndex() {
+        PipelineState base = freeze("main");
+        check(base.stageCount() == 2, "both shaders are stages");
+        try {
+            track(base.withShaderModule(2, 4));
+            check(false, "swapping a stage past the end throws");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
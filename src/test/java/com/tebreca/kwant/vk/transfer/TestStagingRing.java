@@ -0,0 +1,64 @@
+package com.tebreca.kwant.vk.transfer;
+
+/**
+ * Checks the allocation and release order of the upload staging ring, no device needed
+ */
+public class TestStagingRing {
+
+    public static void main(String[] args) {
+        allocatesAligned();
+        wrapsAround();
+        ignoresOutOfOrderRelease();
+        resetsWhenEmpty();
+        System.out.println("TestStagingRing passed");
+    }
+
+    private static void allocatesAligned() {
+        StagingRing ring = new StagingRing(256);
+        check(ring.allocate(10) == 0, "first allocation starts at 0");
+        check(ring.allocate(10) == StagingRing.ALIGNMENT, "allocations are aligned");
+        check(ring.allocate(512) == -1, "allocations bigger than the ring don't fit");
+    }
+
+    private static void wrapsAround() {
+        StagingRing ring = new StagingRing(128);
+        ring.allocate(64);
+        long firstEnd = ring.head();
+        long first = ring.allocated();
+        check(ring.allocate(48) == 64, "second allocation follows the first");
+        check(ring.allocate(32) == -1, "no space left before the first is released");
+        ring.release(firstEnd, first);
+        check(ring.allocate(32) == 0, "wraps to the start once the first is released");
+    }
+
+    private static void ignoresOutOfOrderRelease() {
+        StagingRing ring = new StagingRing(128);
+        ring.allocate(32);
+        long olderEnd = ring.head();
+        long older = ring.allocated();
+        ring.allocate(32);
+        long youngerEnd = ring.head();
+        long younger = ring.allocated();
+        ring.allocate(32);
+
+        ring.release(youngerEnd, younger);
+        ring.release(olderEnd, older);
+        // The tail stayed at the end of the younger range, so only 32 bytes at the end are free plus 64 at the start
+        check(ring.allocate(64) == 0, "space before the younger range is free");
+        check(ring.allocate(16) == -1, "the range still in use was not handed out again");
+    }
+
+    private static void resetsWhenEmpty() {
+        StagingRing ring = new StagingRing(128);
+        ring.allocate(100);
+        ring.release(ring.head(), ring.allocated());
+        check(ring.empty(), "empty once everything is released");
+        check(ring.allocate(120) == 0, "an empty ring starts over at 0");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}